@@ -0,0 +1,132 @@
+package com.cloudpacity.aws.benchmark;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Snapshot;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.purge.CPBackupPurgeEnv;
+import com.cloudpacity.aws.purge.service.CPRetentionEvaluator;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Builds synthetic AMIs and snapshots tagged the way the backup job tags them, mixed with the
+ * unrelated tags an account usually has.  The tag order varies and some items lack the retention
+ * or creation timestamp tag, so lookups hit early, late and not at all.  The same seed gives
+ * the same population on every run.
+ *
+ */
+public class CPBackupPopulation {
+
+	public static final long SEED = 20160301L;
+	public static final String[] OTHER_TAG_KEYS = {"Environment", "Owner", "CostCenter", "Application", "aws:backup:source-resource"};
+	public static final String[] OTHER_TAG_VALUES = {"Production", "ops@example.com", "CC-1042", "billing", "i-0a1b2c3d"};
+
+	private static final DateTimeFormatter AMI_DATE_FORMATTER = CPRetentionEvaluator.AMI_DATE_FORMATTER.withZone(ZoneOffset.UTC);
+	private static final DateTimeFormatter TAG_DATE_FORMATTER = CPRetentionEvaluator.TAG_DATE_FORMATTER.withZone(ZoneOffset.UTC);
+	public static final Instant DEFAULT_NEWEST = Instant.parse("2017-05-01T00:00:00Z");
+	private static final long SPAN_SECONDS = 2L * 365 * 86400;
+
+	private final String nameTag;
+	private final String retentionDaysTag;
+	private final Instant newest;
+	private final Random random = new Random(SEED);
+
+
+	public CPBackupPopulation(CPBackupPurgeEnv backupPurgeEnv) {
+		this(backupPurgeEnv, DEFAULT_NEWEST);
+	}
+
+	/**
+	 * @param backupPurgeEnv
+	 * @param newest the items are created over the two years before this
+	 */
+	public CPBackupPopulation(CPBackupPurgeEnv backupPurgeEnv, Instant newest) {
+		this.nameTag = backupPurgeEnv.getNameTag();
+		this.retentionDaysTag = backupPurgeEnv.getBackupRetentionDaysTag();
+		this.newest = newest;
+	}
+
+	public List<Image> newImages(int size) {
+
+		List<Image> images = new ArrayList<Image>(size);
+
+		for (int i = 0; i < size; i++) {
+			Instant created = nextCreated();
+			images.add(new Image()
+					.withImageId(String.format("ami-%08x", i))
+					.withName("backup-" + i)
+					.withCreationDate(AMI_DATE_FORMATTER.format(created))
+					.withState("available")
+					.withTags(newTags("server-" + (i % 500), created)));
+		}
+		return images;
+	}
+
+	public List<Snapshot> newSnapshots(int size) {
+
+		List<Snapshot> snapshots = new ArrayList<Snapshot>(size);
+
+		for (int i = 0; i < size; i++) {
+			Instant created = nextCreated();
+			snapshots.add(new Snapshot()
+					.withSnapshotId(String.format("snap-%08x", i))
+					.withStartTime(Date.from(created))
+					.withVolumeSize(8 << (i % 4))
+					.withState("completed")
+					.withTags(newTags("volume-" + (i % 500), created)));
+		}
+		return snapshots;
+	}
+
+	private Instant nextCreated() {
+		return newest.minusSeconds((long) (random.nextDouble() * SPAN_SECONDS));
+	}
+
+	/**
+	 * The name tag and, for three items in four, the retention days tag; for half of the items
+	 * the creation timestamp tag; all in a shuffled order among the unrelated tags.
+	 */
+	private List<Tag> newTags(String name, Instant created) {
+
+		List<Tag> tags = new ArrayList<Tag>(OTHER_TAG_KEYS.length + 3);
+
+		for (int i = 0; i < OTHER_TAG_KEYS.length; i++) {
+			tags.add(new Tag(OTHER_TAG_KEYS[i], OTHER_TAG_VALUES[i]));
+		}
+		tags.add(new Tag(nameTag, name));
+		if (random.nextInt(4) != 0) {
+			tags.add(new Tag(retentionDaysTag, Integer.toString(7 + random.nextInt(365))));
+		}
+		if (random.nextBoolean()) {
+			tags.add(new Tag(CPCommonEnv.DEFAULT_CREATION_TIMESTAMP_TAG, TAG_DATE_FORMATTER.format(created)));
+		}
+
+		for (int i = tags.size() - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			tags.set(i, tags.set(j, tags.get(i)));
+		}
+		return tags;
+	}
+}
@@ -0,0 +1,29 @@
+package com.cloudpacity.aws.benchmark;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Discards what is written to the Lambda log, so the logger benchmarks measure CPLogger and not
+ * the console.
+ *
+ */
+public class CPNullLambdaLogger implements LambdaLogger {
+
+	public void log(String string) {
+	}
+}
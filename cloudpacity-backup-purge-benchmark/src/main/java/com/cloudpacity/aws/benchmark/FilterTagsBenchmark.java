@@ -0,0 +1,73 @@
+package com.cloudpacity.aws.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.ec2.model.Filter;
+import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.purge.service.CPBackupPurge;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * CPBackupPurge.populateFilterTags() with no filters set, and with all three set, one of them
+ * to any value of its tag.  The filters are built once per region and account, so this is the
+ * fixed cost a run pays before listing.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterTagsBenchmark {
+
+	private static final String[] NO_TAG_NAMES = {null, null, null};
+	private static final String[] NO_TAG_VALUES = {null, null, null};
+	private static final String[] TAG_NAMES = {"Environment", "Application", "BackupPolicy"};
+	private static final String[] TAG_VALUES = {"Production", "billing", null};
+
+	private CPLogger logger;
+
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		logger = new CPLogger(new CPNullLambdaLogger());
+	}
+
+	@Benchmark
+	public List<Filter> noFilters() {
+		return CPBackupPurge.populateFilterTags(logger, NO_TAG_NAMES, NO_TAG_VALUES);
+	}
+
+	@Benchmark
+	public List<Filter> threeFilters() {
+		return CPBackupPurge.populateFilterTags(logger, TAG_NAMES, TAG_VALUES);
+	}
+}
@@ -0,0 +1,92 @@
+package com.cloudpacity.aws.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudpacity.aws.common.util.CPLogger;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * CPLogger.log() of a typical evaluation line, and getCompoundMessages() after a run has logged
+ * a population's worth of lines, which fill the bounded log buffer for the larger populations.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+
+	private static final String MESSAGE = "Snapshot: 'volume-42' id: 'snap-0000002a' is being evaluated.  '' Purge date: '2016-06-14' Current date: '2017-05-01' ";
+
+	private CPLogger logger;
+
+
+	/**
+	 * A logger that has logged a population's worth of evaluation lines.
+	 */
+	@State(Scope.Thread)
+	public static class FilledLogger {
+
+		@Param({"1000", "10000", "100000", "1000000"})
+		public int size;
+
+		private CPLogger logger;
+
+
+		@Setup(Level.Trial)
+		public void setUp() {
+
+			logger = new CPLogger(new CPNullLambdaLogger());
+			for (int i = 0; i < size; i++) {
+				logger.log(MESSAGE);
+				if (i % 100 == 0) {
+					logger.logSummary("Deleted snapshot: 'snap-" + i + "'");
+				}
+			}
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		logger = new CPLogger(new CPNullLambdaLogger());
+	}
+
+	@Benchmark
+	public void log() {
+		logger.log(MESSAGE);
+	}
+
+	@Benchmark
+	public String compoundMessages(FilledLogger filledLogger) {
+		return filledLogger.logger.getCompoundMessages();
+	}
+}
@@ -0,0 +1,100 @@
+package com.cloudpacity.aws.benchmark;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Snapshot;
+import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.purge.CPBackupPurgeEnv;
+import com.cloudpacity.aws.purge.pojo.PurgeItem;
+import com.cloudpacity.aws.purge.service.CPRetentionEvaluator;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The purge date computation of CPRetentionEvaluator, the successor of the image and snapshot
+ * getXxxPurgeDateTime() methods, over every AMI or every snapshot of a population.  The
+ * evaluator logs each item as it does in a run, to a logger that discards the Lambda output.
+ * One operation is one pass over the population.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RetentionEvaluatorBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	private CPRetentionEvaluator evaluator;
+	private List<PurgeItem> imageItems;
+	private List<PurgeItem> snapshotItems;
+
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		CPBackupPurgeEnv backupPurgeEnv = new CPBackupPurgeEnv();
+		CPBackupPopulation population = new CPBackupPopulation(backupPurgeEnv);
+
+		evaluator = new CPRetentionEvaluator(backupPurgeEnv, new CPLogger(new CPNullLambdaLogger()), Instant.parse("2017-05-01T12:00:00Z"));
+
+		imageItems = new ArrayList<PurgeItem>(size);
+		for (Image image : population.newImages(size)) {
+			imageItems.add(PurgeItem.forImage(image));
+		}
+		snapshotItems = new ArrayList<PurgeItem>(size);
+		for (Snapshot snapshot : population.newSnapshots(size)) {
+			snapshotItems.add(PurgeItem.forSnapshot(snapshot));
+		}
+	}
+
+	@Benchmark
+	public void imagePurgeDates(Blackhole blackhole) {
+		evaluate(imageItems, blackhole);
+	}
+
+	@Benchmark
+	public void snapshotPurgeDates(Blackhole blackhole) {
+		evaluate(snapshotItems, blackhole);
+	}
+
+	private void evaluate(List<PurgeItem> items, Blackhole blackhole) {
+		for (int i = 0, count = items.size(); i < count; i++) {
+			blackhole.consume(evaluator.isDue(items.get(i)));
+		}
+	}
+}
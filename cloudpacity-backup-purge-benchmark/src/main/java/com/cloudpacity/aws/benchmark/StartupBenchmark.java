@@ -0,0 +1,73 @@
+package com.cloudpacity.aws.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cloudpacity.aws.common.gateway.CPEC2Gateway;
+import com.cloudpacity.aws.common.gateway.CPEC2GatewayFactory;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The startup cost CPClientCache saves a warm invocation.  Each fork is a fresh JVM timing a
+ * single call, so coldGateway includes the class loading and client build of a cold start,
+ * and warmGateway is the same call once the container's client is cached.  No AWS request is
+ * made, building a client does not connect.
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 20)
+public class StartupBenchmark {
+
+	public static final String REGION_NAME = "us-east-1";
+
+
+	@Benchmark
+	public CPEC2Gateway coldGateway() {
+		return CPEC2GatewayFactory.create(REGION_NAME);
+	}
+
+	@Benchmark
+	public CPEC2Gateway warmGateway(WarmContainer container) {
+		return CPEC2GatewayFactory.create(REGION_NAME);
+	}
+
+	/**
+	 * A container that has already handled an invocation
+	 */
+	@State(Scope.Benchmark)
+	public static class WarmContainer {
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			CPEC2GatewayFactory.create(REGION_NAME);
+		}
+	}
+}
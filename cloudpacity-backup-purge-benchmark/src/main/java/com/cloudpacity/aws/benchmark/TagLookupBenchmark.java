@@ -0,0 +1,88 @@
+package com.cloudpacity.aws.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.common.entity.AWSObjectEntity;
+import com.cloudpacity.aws.purge.CPBackupPurgeEnv;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * AWSObjectEntity.getTagValueFromList() over every AMI of a population, for a tag every AMI
+ * has, one half of them have, and one none of them have.  One operation is one pass over the
+ * population.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TagLookupBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	private String nameTag;
+	private List<Image> images;
+
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		CPBackupPurgeEnv backupPurgeEnv = new CPBackupPurgeEnv();
+		nameTag = backupPurgeEnv.getNameTag();
+		images = new CPBackupPopulation(backupPurgeEnv).newImages(size);
+	}
+
+	@Benchmark
+	public void nameTag(Blackhole blackhole) {
+		lookUp(nameTag, blackhole);
+	}
+
+	@Benchmark
+	public void creationTimestampTag(Blackhole blackhole) {
+		lookUp(CPCommonEnv.DEFAULT_CREATION_TIMESTAMP_TAG, blackhole);
+	}
+
+	@Benchmark
+	public void missingTag(Blackhole blackhole) {
+		lookUp("NoSuchTag", blackhole);
+	}
+
+	private void lookUp(String tagName, Blackhole blackhole) {
+		for (int i = 0, count = images.size(); i < count; i++) {
+			blackhole.consume(AWSObjectEntity.getTagValueFromList(tagName, images.get(i).getTags(), ""));
+		}
+	}
+}
@@ -0,0 +1,454 @@
+package com.cloudpacity.aws.benchmark.simulator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsRequest;
+import com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Snapshot;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cloudpacity.aws.benchmark.CPBackupPopulation;
+import com.cloudpacity.aws.benchmark.CPNullLambdaLogger;
+import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.common.gateway.CPEC2GatewayFactory;
+import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.purge.CPBackupPurgeEnv;
+import com.cloudpacity.aws.purge.index.CPExpiryIndexStore;
+import com.cloudpacity.aws.purge.pojo.BackupPurgeRequest;
+import com.cloudpacity.aws.purge.service.CPBackupPurge;
+import com.cloudpacity.aws.purge.service.CPRetentionEvaluator;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Runs CPBackupPurge.invoke() end to end against a CPSimulatedEC2Gateway holding a synthetic
+ * population, then reports the wall time, the EC2 calls and calls per second, and the peak heap.
+ * The purge reads its settings from the environment as in Lambda, e.g. DeleteParallelism or
+ * EC2GatewayMode, so the same population can be purged under different settings.
+ *
+ * The outcome is checked against the population:  the AMIs and snapshots expected to survive are
+ * worked out from their retention and creation timestamp tags and creation dates, and compared with
+ * the ones remaining.  A resource deleted before it is due, or one due left behind, fails the run
+ * with a non-zero exit code.  The check assumes no FilterN tags are set.
+ *
+ * The settings of the run are given as name=value arguments:
+ *
+ *    images=10000          AMIs, AMI n is backed by snapshot n
+ *    snapshots=100000      snapshots
+ *    latencyMillis=20      the least time of a call
+ *    jitterMillis=10       up to this much more, at random
+ *    throttleRate=0.01     the share of calls throttled
+ *    failureRate=0.001     the share of calls failing with a retryable error
+ *    deadlineMillis=0      the time each invocation has before its deadline, 0 for none.  A purge
+ *                          stopped at the deadline is continued the way the chained Lambda
+ *                          invocations continue it, up to maxInvocations.
+ *    maxInvocations=1000
+ *    indexDays=0           above 0, the expiry index set by ExpiryIndexLocation is first built by a
+ *                          purge run indexDays ago, then newBackups backups are created over the
+ *                          days since, and the run measured purges from the index.  Keep it below
+ *                          ExpiryIndexReconcileDays or the run rebuilds the index instead.
+ *    newBackups=1000
+ *
+ * The expiry index and its partial index at ExpiryIndexLocation, if set, are deleted first, they
+ * index another population.
+ *
+ * e.g.  java -cp target/benchmarks.jar com.cloudpacity.aws.benchmark.simulator.CPPurgeLoadHarness snapshots=200000
+ *       java -cp target/benchmarks.jar com.cloudpacity.aws.benchmark.simulator.CPPurgeLoadHarness deadlineMillis=2000
+ *       ExpiryIndexLocation=/tmp/cp-expiry.idx ExpiryIndexReconcileDays=60 java -cp target/benchmarks.jar com.cloudpacity.aws.benchmark.simulator.CPPurgeLoadHarness indexDays=30 deadlineMillis=2000
+ *
+ */
+public class CPPurgeLoadHarness {
+
+	public static final String ACCOUNT_ID = "123456789012";
+	public static final String REGION_NAME = "us-east-1";
+	public static final int MISMATCHES_SHOWN = 10;
+
+	private static final Map<String, String> DEFAULTS = new HashMap<String, String>();
+	static {
+		DEFAULTS.put("images", "10000");
+		DEFAULTS.put("snapshots", "100000");
+		DEFAULTS.put("latencyMillis", "20");
+		DEFAULTS.put("jitterMillis", "10");
+		DEFAULTS.put("throttleRate", "0.01");
+		DEFAULTS.put("failureRate", "0.001");
+		DEFAULTS.put("deadlineMillis", "0");
+		DEFAULTS.put("maxInvocations", "1000");
+		DEFAULTS.put("indexDays", "0");
+		DEFAULTS.put("newBackups", "1000");
+	}
+
+	private static final DateTimeFormatter AMI_DATE_FORMATTER = CPRetentionEvaluator.AMI_DATE_FORMATTER.withZone(ZoneOffset.UTC);
+	private static final DateTimeFormatter TAG_DATE_FORMATTER = CPRetentionEvaluator.TAG_DATE_FORMATTER.withZone(ZoneOffset.UTC);
+	private static final long SECONDS_PER_DAY = 86400;
+
+	// every AMI and snapshot the simulator was given, to work out the expected outcome from
+	private final List<Image> images = new ArrayList<Image>();
+	private final List<Snapshot> snapshots = new ArrayList<Snapshot>();
+	private final CPSimulatedEC2Gateway ec2 = new CPSimulatedEC2Gateway();
+	private final CPBackupPurgeEnv backupPurgeEnv = new CPBackupPurgeEnv();
+	private final CPLogger logger = new CPLogger(new CPNullLambdaLogger());
+	private final long deadlineMillis;
+	private final int maxInvocations;
+	private int invocations = 0;
+
+
+	private CPPurgeLoadHarness(long deadlineMillis, int maxInvocations) {
+		this.deadlineMillis = deadlineMillis;
+		this.maxInvocations = maxInvocations;
+		// the purge lists the "self" owned AMIs and snapshots, the ones the population is given
+		ec2.setOwnerId(ACCOUNT_ID);
+	}
+
+	public static void main(String[] args) {
+
+		Map<String, String> settings = new HashMap<String, String>(DEFAULTS);
+		for (String arg : args) {
+			String[] nameValue = arg.split("=", 2);
+			if (nameValue.length != 2 || !DEFAULTS.containsKey(nameValue[0])) {
+				throw new IllegalArgumentException("Unknown argument '" + arg + "', the arguments are " + DEFAULTS.keySet());
+			}
+			settings.put(nameValue[0], nameValue[1]);
+		}
+
+		int imageCount = Integer.parseInt(settings.get("images"));
+		int snapshotCount = Integer.parseInt(settings.get("snapshots"));
+		int indexDays = Integer.parseInt(settings.get("indexDays"));
+		String expiryIndexLocation = CPBackupPurgeEnv.getExpiryIndexLocation(ACCOUNT_ID, REGION_NAME);
+
+		if (indexDays > 0 && StringUtils.isEmpty(expiryIndexLocation)) {
+			throw new IllegalArgumentException("indexDays=" + indexDays + " needs the " + CPBackupPurgeEnv.ENV_VAR_EXPIRY_INDEX_LOCATION + " environment variable");
+		}
+		if (StringUtils.isNotEmpty(expiryIndexLocation)) {
+			CPExpiryIndexStore.delete(expiryIndexLocation);
+			CPExpiryIndexStore.delete(CPExpiryIndexStore.getPartialLocation(expiryIndexLocation));
+		}
+
+		CPPurgeLoadHarness harness = new CPPurgeLoadHarness(Long.parseLong(settings.get("deadlineMillis")), Integer.parseInt(settings.get("maxInvocations")));
+		CPSimulatedEC2Gateway ec2 = harness.ec2;
+		Instant now = Instant.now();
+		harness.populate(imageCount, snapshotCount, now.minus(indexDays, ChronoUnit.DAYS));
+		System.out.println("Simulating " + ec2.getImageCount() + " AMIs and " + ec2.getSnapshotCount() + " snapshots with " + settings);
+
+		// the population is set up without latency or injected errors
+		ec2.setLatency(Double.parseDouble(settings.get("latencyMillis")), Double.parseDouble(settings.get("jitterMillis")));
+		ec2.setThrottleRate(Double.parseDouble(settings.get("throttleRate")));
+		ec2.setFailureRate(Double.parseDouble(settings.get("failureRate")));
+
+		if (indexDays > 0) {
+			// the index is built by a full listing as of indexDays ago, the backups since are not in it
+			String returnCode = harness.purge(Clock.offset(Clock.systemUTC(), Duration.ofDays(-indexDays)));
+			System.out.println("Index build run " + indexDays + " days ago: " + returnCode + " after " + harness.invocations + " invocations, "
+					+ ec2.getImageCount() + " AMIs and " + ec2.getSnapshotCount() + " snapshots remaining");
+			harness.addNewBackups(Integer.parseInt(settings.get("newBackups")), imageCount, snapshotCount, now, indexDays);
+			harness.invocations = 0;
+		}
+
+		System.gc();
+		List<MemoryPoolMXBean> heapPools = getHeapPools();
+		for (MemoryPoolMXBean pool : heapPools) {
+			pool.resetPeakUsage();
+		}
+
+		long startCalls = ec2.getTotalCallCount();
+		long startNanos = System.nanoTime();
+		long runEpochDay = epochDay(Instant.now());
+		String returnCode = harness.purge(Clock.systemUTC());
+		double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+		long calls = ec2.getTotalCallCount() - startCalls;
+
+		long peakHeapBytes = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			peakHeapBytes += pool.getPeakUsage().getUsed();
+		}
+
+		// the summary without the line per deleted resource
+		for (String line : harness.logger.getSummaryLogMessages().split(System.lineSeparator())) {
+			if (!line.startsWith("DELETED:")) {
+				System.out.println(line);
+			}
+		}
+		if (CPBackupPurge.RETURN_CODE_ERROR.equals(returnCode)) {
+			System.out.println(harness.logger.getLogMessages());
+		}
+		System.out.println("Return code:        " + returnCode);
+		System.out.println("Invocations:        " + harness.invocations);
+		System.out.println("Remaining:          " + ec2.getImageCount() + " AMIs, " + ec2.getSnapshotCount() + " snapshots");
+		System.out.println("Wall time:          " + String.format("%.1f s", wallSeconds));
+		System.out.println("EC2 calls:          " + calls + " " + ec2.getCallCounts());
+		System.out.println("EC2 calls/s:        " + String.format("%.1f", calls / wallSeconds));
+		System.out.println("Injected throttles: " + ec2.getThrottleCount());
+		System.out.println("Injected failures:  " + ec2.getFailureCount());
+		System.out.println("Peak heap:          " + (peakHeapBytes >> 20) + " MiB (sum of the heap pool peaks)");
+
+		int mismatches = harness.verify(runEpochDay);
+		if (!CPBackupPurge.RETURN_CODE_COMPLETE.equals(returnCode) || mismatches > 0) {
+			System.out.println("FAILED: the purge returned " + returnCode + " with " + mismatches + " resources not as expected");
+			System.exit(1);
+		}
+		System.out.println("Outcome:            as expected");
+	}
+
+	/**
+	 * Purges the way the Lambda function does, continuing a purge stopped at the deadline in a new
+	 * invocation with its continuation request
+	 *
+	 * @param clock the time the purge runs at
+	 * @return the last invocation's return code
+	 */
+	private String purge(Clock clock) {
+
+		BackupPurgeRequest request = newRequest();
+		String returnCode;
+
+		do {
+			CPBackupPurge backupPurge = new CPBackupPurge(logger, new BasicAWSCredentials("simulated", "simulated"), REGION_NAME);
+			backupPurge.setEC2Gateway(CPEC2GatewayFactory.instrument(ec2));
+			backupPurge.setClock(clock);
+			if (deadlineMillis > 0) {
+				backupPurge.setDeadline(System.currentTimeMillis() + deadlineMillis);
+			}
+
+			returnCode = backupPurge.invoke(request);
+			request = backupPurge.getContinuationRequest();
+			invocations++;
+		}
+		while (CPBackupPurge.RETURN_CODE_CONTINUE.equals(returnCode) && invocations < maxInvocations);
+
+		return returnCode;
+	}
+
+	/**
+	 * Creates the population over the two years up to the newest time, so the usual share of it is due
+	 */
+	private void populate(int imageCount, int snapshotCount, Instant newest) {
+
+		CPBackupPopulation population = new CPBackupPopulation(backupPurgeEnv, newest);
+
+		for (Snapshot snapshot : population.newSnapshots(snapshotCount)) {
+			addSnapshot(snapshot);
+		}
+
+		List<Image> newImages = population.newImages(imageCount);
+		for (int i = 0; i < newImages.size(); i++) {
+			Image image = newImages.get(i);
+			if (i < snapshots.size()) {
+				backWith(image, snapshots.get(i));
+			}
+			addImage(image);
+		}
+	}
+
+	/**
+	 * Creates the backups made since the expiry index was built, over the days up to now, a tenth
+	 * of them AMIs.  Their retention is up to twice those days, so some are due already.
+	 */
+	private void addNewBackups(int count, int imageCount, int snapshotCount, Instant now, int days) {
+
+		Random random = new Random(CPBackupPopulation.SEED);
+
+		for (int i = 0; i < count; i++) {
+			Instant created = now.minusSeconds((long) (random.nextDouble() * days * SECONDS_PER_DAY));
+			List<Tag> tags = new ArrayList<Tag>();
+			tags.add(new Tag(backupPurgeEnv.getNameTag(), "new-" + i));
+			tags.add(new Tag(backupPurgeEnv.getBackupRetentionDaysTag(), Integer.toString(random.nextInt(2 * days + 1))));
+			if (random.nextBoolean()) {
+				tags.add(new Tag(CPCommonEnv.DEFAULT_CREATION_TIMESTAMP_TAG, TAG_DATE_FORMATTER.format(created)));
+			}
+
+			Snapshot snapshot = new Snapshot()
+					.withSnapshotId(String.format("snap-%08x", snapshotCount + i))
+					.withStartTime(Date.from(created))
+					.withVolumeSize(8)
+					.withState("completed")
+					.withTags(tags);
+			addSnapshot(snapshot);
+
+			if (i % 10 == 0) {
+				Image image = new Image()
+						.withImageId(String.format("ami-%08x", imageCount + i))
+						.withName("new-backup-" + i)
+						.withCreationDate(AMI_DATE_FORMATTER.format(created))
+						.withState("available")
+						.withTags(tags);
+				addImage(backWith(image, snapshot));
+			}
+		}
+		System.out.println("Created " + count + " backups over the " + days + " days since");
+	}
+
+	private void addSnapshot(Snapshot snapshot) {
+		snapshots.add(snapshot.withOwnerId(ACCOUNT_ID));
+		ec2.addSnapshot(snapshot);
+	}
+
+	private void addImage(Image image) {
+		images.add(image.withOwnerId(ACCOUNT_ID));
+		ec2.addImage(image);
+	}
+
+	private static Image backWith(Image image, Snapshot snapshot) {
+		return image.withBlockDeviceMappings(new BlockDeviceMapping().withDeviceName("/dev/xvda")
+				.withEbs(new EbsBlockDevice().withSnapshotId(snapshot.getSnapshotId()).withVolumeSize(snapshot.getVolumeSize())));
+	}
+
+	/**
+	 * Compares the AMIs and snapshots remaining with the ones expected to survive:  an AMI not due,
+	 * a snapshot backing one, and a snapshot not due unless its AMI was deregistered with
+	 * CascadeSnapshotDelete set
+	 *
+	 * @param runEpochDay the UTC day the run started on
+	 * @return the number of resources deleted or left behind against the expectation
+	 */
+	private int verify(long runEpochDay) {
+
+		if (StringUtils.isNotEmpty(CPBackupPurgeEnv.getFilter1TagName()) || StringUtils.isNotEmpty(CPBackupPurgeEnv.getFilter2TagName())
+				|| StringUtils.isNotEmpty(CPBackupPurgeEnv.getFilter3TagName())) {
+			System.out.println("Outcome:            not checked, FilterN tags are set");
+			return 0;
+		}
+		if (epochDay(Instant.now()) != runEpochDay) {
+			System.out.println("Outcome:            not checked, the run crossed midnight UTC");
+			return 0;
+		}
+
+		Set<String> expectedIds = new TreeSet<String>();
+		Map<String, String> backedImageIds = new HashMap<String, String>();
+
+		for (Image image : images) {
+			Instant created = AMI_DATE_FORMATTER.parse(image.getCreationDate(), Instant::from);
+			if (!isDue(image.getTags(), created, runEpochDay)) {
+				expectedIds.add(image.getImageId());
+			}
+			for (BlockDeviceMapping blockDevice : image.getBlockDeviceMappings()) {
+				backedImageIds.put(blockDevice.getEbs().getSnapshotId(), image.getImageId());
+			}
+		}
+		for (Snapshot snapshot : snapshots) {
+			String imageId = backedImageIds.get(snapshot.getSnapshotId());
+			if (imageId != null && expectedIds.contains(imageId)) {
+				expectedIds.add(snapshot.getSnapshotId());
+			}
+			else if (!(imageId != null && CPBackupPurgeEnv.isCascadeSnapshotDelete()) && !isDue(snapshot.getTags(), snapshot.getStartTime().toInstant(), runEpochDay)) {
+				expectedIds.add(snapshot.getSnapshotId());
+			}
+		}
+
+		// read back without latency or injected errors
+		ec2.setLatency(0, 0);
+		ec2.setThrottleRate(0);
+		ec2.setFailureRate(0);
+		Set<String> remainingIds = new TreeSet<String>();
+		for (Image image : ec2.describeImages(new DescribeImagesRequest()).getImages()) {
+			remainingIds.add(image.getImageId());
+		}
+		for (Snapshot snapshot : ec2.describeSnapshots(new DescribeSnapshotsRequest()).getSnapshots()) {
+			remainingIds.add(snapshot.getSnapshotId());
+		}
+
+		List<String> mismatches = new ArrayList<String>();
+		for (String id : remainingIds) {
+			if (!expectedIds.contains(id)) {
+				mismatches.add(id + " is due but was left behind");
+			}
+		}
+		for (String id : expectedIds) {
+			if (!remainingIds.contains(id)) {
+				mismatches.add(id + " is not due but was deleted");
+			}
+		}
+
+		System.out.println("Expected remaining: " + expectedIds.size() + " AMIs and snapshots, " + mismatches.size() + " mismatches");
+		for (String mismatch : mismatches.subList(0, Math.min(MISMATCHES_SHOWN, mismatches.size()))) {
+			System.out.println("    " + mismatch);
+		}
+		return mismatches.size();
+	}
+
+	/**
+	 * Due once the UTC day it was created, by its creation timestamp tag if it has one, plus its
+	 * retention days is on or before the run's day
+	 */
+	private boolean isDue(List<Tag> tags, Instant created, long runEpochDay) {
+
+		String creationTimestamp = getTagValue(tags, CPCommonEnv.DEFAULT_CREATION_TIMESTAMP_TAG);
+		String retentionDays = getTagValue(tags, backupPurgeEnv.getBackupRetentionDaysTag());
+
+		long createdEpochDay = epochDay((creationTimestamp == null) ? created : TAG_DATE_FORMATTER.parse(creationTimestamp, Instant::from));
+		int retention = (retentionDays == null) ? CPBackupPurgeEnv.getDefaultRetentionDays() : Integer.parseInt(retentionDays);
+		return createdEpochDay + retention <= runEpochDay;
+	}
+
+	private static String getTagValue(List<Tag> tags, String key) {
+		for (Tag tag : tags) {
+			if (key.equalsIgnoreCase(tag.getKey())) {
+				return tag.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static long epochDay(Instant instant) {
+		return Math.floorDiv(instant.getEpochSecond(), SECONDS_PER_DAY);
+	}
+
+	private static BackupPurgeRequest newRequest() {
+
+		String requestId = UUID.randomUUID().toString();
+		BackupPurgeRequest request = new BackupPurgeRequest();
+
+		request.setAwsAccountId(ACCOUNT_ID);
+		request.setRegionName(REGION_NAME);
+		request.setCurrentLambdaRequestId(requestId);
+		request.setOriginatingLambdaRequestId(requestId);
+		request.setRequestStartTime(ZonedDateTime.now(ZoneId.of(CPBackupPurgeEnv.getDefaultTimeZone())));
+		return request;
+	}
+
+	private static List<MemoryPoolMXBean> getHeapPools() {
+
+		List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool);
+			}
+		}
+		return heapPools;
+	}
+}
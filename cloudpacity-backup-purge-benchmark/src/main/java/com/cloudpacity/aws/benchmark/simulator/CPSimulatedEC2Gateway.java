@@ -0,0 +1,633 @@
+package com.cloudpacity.aws.benchmark.simulator;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.CreateImageResult;
+import com.amazonaws.services.ec2.model.CreateSnapshotRequest;
+import com.amazonaws.services.ec2.model.CreateSnapshotResult;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.amazonaws.services.ec2.model.DeleteSnapshotRequest;
+import com.amazonaws.services.ec2.model.DeleteSnapshotResult;
+import com.amazonaws.services.ec2.model.DeleteTagsRequest;
+import com.amazonaws.services.ec2.model.DeleteTagsResult;
+import com.amazonaws.services.ec2.model.DeregisterImageRequest;
+import com.amazonaws.services.ec2.model.DeregisterImageResult;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsRequest;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsResult;
+import com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceBlockDeviceMapping;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.InstanceStateChange;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.Snapshot;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesResult;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesResult;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cloudpacity.aws.common.gateway.CPEC2Gateway;
+import com.cloudpacity.aws.purge.service.CPRetentionEvaluator;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * An in-process stand-in for EC2 holding instances, AMIs and snapshots in memory, for load testing
+ * a purge or a backup without an AWS account.  It answers the describes, with DescribeSnapshots
+ * paginated, the create, deregister, delete and tag calls, and starting and stopping instances
+ * the way EC2 does, including the NotFound and InUse errors and the limits of a createTags call.
+ * A created AMI or snapshot is available, or completed, at once, and an AMI gets a snapshot of
+ * each of the instance's EBS volumes.
+ *
+ * Every call first waits the configured latency plus a random jitter, then fails with the
+ * configured probabilities:  with RequestLimitExceeded for a throttle, or with a retryable
+ * InternalError for a failure.  The calls, throttles and failures are counted per operation.
+ *
+ */
+public class CPSimulatedEC2Gateway implements CPEC2Gateway {
+
+	public static final String THROTTLE_ERROR_CODE = "RequestLimitExceeded";
+	public static final String FAILURE_ERROR_CODE = "InternalError";
+	public static final String IMAGE_NOT_FOUND_ERROR_CODE = "InvalidAMIID.NotFound";
+	public static final String SNAPSHOT_NOT_FOUND_ERROR_CODE = "InvalidSnapshot.NotFound";
+	public static final String SNAPSHOT_IN_USE_ERROR_CODE = "InvalidSnapshot.InUse";
+	public static final String INSTANCE_NOT_FOUND_ERROR_CODE = "InvalidInstanceID.NotFound";
+	public static final String INVALID_PARAMETER_ERROR_CODE = "InvalidParameterValue";
+	public static final String TAG_LIMIT_ERROR_CODE = "TagLimitExceeded";
+	public static final int MAX_SNAPSHOT_PAGE_SIZE = 1000;
+	public static final int MAX_TAGGED_RESOURCES = 1000;
+	public static final int MAX_TAGS_PER_CALL = 50;
+
+	private static final DateTimeFormatter AMI_DATE_FORMATTER = CPRetentionEvaluator.AMI_DATE_FORMATTER.withZone(ZoneOffset.UTC);
+
+	private final NavigableMap<String, Instance> instances = new ConcurrentSkipListMap<String, Instance>();
+	private final NavigableMap<String, Image> images = new ConcurrentSkipListMap<String, Image>();
+	private final NavigableMap<String, Snapshot> snapshots = new ConcurrentSkipListMap<String, Snapshot>();
+	// snapshot id -> the id of the registered AMI it backs
+	private final Map<String, String> snapshotImageIds = new ConcurrentHashMap<String, String>();
+	// numbers the created AMIs and snapshots, their ids are longer than those of a population
+	private final AtomicLong createdCount = new AtomicLong();
+
+	private final Map<String, AtomicLong> callCounts = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong throttleCount = new AtomicLong();
+	private final AtomicLong failureCount = new AtomicLong();
+
+	private final ExecutorService asyncExecutor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "simulated-ec2-async");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile long latencyMicros = 0;
+	private volatile long latencyJitterMicros = 0;
+	private volatile double throttleRate = 0;
+	private volatile double failureRate = 0;
+	private volatile String ownerId = "";
+
+
+	/**
+	 * @param latencyMillis the time every call takes at the least
+	 * @param latencyJitterMillis up to this much is added at random
+	 */
+	public void setLatency(double latencyMillis, double latencyJitterMillis) {
+		this.latencyMicros = (long) (latencyMillis * 1000);
+		this.latencyJitterMicros = (long) (latencyJitterMillis * 1000);
+	}
+
+	/**
+	 * @param throttleRate the share of calls, 0 to 1, answered with RequestLimitExceeded
+	 */
+	public void setThrottleRate(double throttleRate) {
+		this.throttleRate = throttleRate;
+	}
+
+	/**
+	 * @param failureRate the share of calls, 0 to 1, answered with an InternalError
+	 */
+	public void setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+	}
+
+	/**
+	 * @param ownerId the account the created AMIs and snapshots belong to, and the one meant by
+	 * the "self" owner
+	 */
+	public void setOwnerId(String ownerId) {
+		this.ownerId = ownerId;
+	}
+
+	/**
+	 * Adds an instance, in the state it has, e.g. running.  The EBS volume ids of its block
+	 * devices are the volumes snapshotted.
+	 */
+	public void addInstance(Instance instance) {
+		instances.put(instance.getInstanceId(), instance);
+	}
+
+	/**
+	 * Adds an AMI, along with the snapshots of its EBS block devices as in use by it
+	 */
+	public void addImage(Image image) {
+		images.put(image.getImageId(), image);
+		for (String snapshotId : getSnapshotIds(image)) {
+			snapshotImageIds.put(snapshotId, image.getImageId());
+		}
+	}
+
+	public void addSnapshot(Snapshot snapshot) {
+		snapshots.put(snapshot.getSnapshotId(), snapshot);
+	}
+
+	public int getInstanceCount() {
+		return instances.size();
+	}
+
+	public int getImageCount() {
+		return images.size();
+	}
+
+	public int getSnapshotCount() {
+		return snapshots.size();
+	}
+
+	/**
+	 * @return the calls made so far by operation name, e.g. "DeleteSnapshot"
+	 */
+	public Map<String, Long> getCallCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> count : callCounts.entrySet()) {
+			counts.put(count.getKey(), count.getValue().get());
+		}
+		return counts;
+	}
+
+	public long getTotalCallCount() {
+		long total = 0;
+		for (AtomicLong count : callCounts.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+
+	public long getThrottleCount() {
+		return throttleCount.get();
+	}
+
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	public DescribeImagesResult describeImages(DescribeImagesRequest request) {
+
+		call("DescribeImages");
+
+		List<Image> found = new ArrayList<Image>();
+
+		if (!request.getImageIds().isEmpty()) {
+			for (String imageId : request.getImageIds()) {
+				Image image = images.get(imageId);
+				if (image == null) {
+					throw serviceException(IMAGE_NOT_FOUND_ERROR_CODE, 400, "The image id '[" + imageId + "]' does not exist");
+				}
+				found.add(image);
+			}
+			return new DescribeImagesResult().withImages(found);
+		}
+
+		List<String> owners = new ArrayList<String>();
+		for (String owner : request.getOwners()) {
+			owners.add("self".equals(owner) ? ownerId : owner);
+		}
+
+		for (Image image : images.values()) {
+			if ((owners.isEmpty() || owners.contains(image.getOwnerId()))
+					&& matches(request.getFilters(), image.getImageId(), image.getState(), image.getOwnerId(), image.getTags()
+							, image.getName(), image.getDescription(), null, image.getCreationDate())) {
+				found.add(image);
+			}
+		}
+		return new DescribeImagesResult().withImages(found);
+	}
+
+	public DescribeSnapshotsResult describeSnapshots(DescribeSnapshotsRequest request) {
+
+		call("DescribeSnapshots");
+
+		List<Snapshot> found = new ArrayList<Snapshot>();
+
+		if (!request.getSnapshotIds().isEmpty()) {
+			for (String snapshotId : request.getSnapshotIds()) {
+				Snapshot snapshot = snapshots.get(snapshotId);
+				if (snapshot == null) {
+					throw serviceException(SNAPSHOT_NOT_FOUND_ERROR_CODE, 400, "The snapshot '" + snapshotId + "' does not exist.");
+				}
+				found.add(snapshot);
+			}
+			return new DescribeSnapshotsResult().withSnapshots(found);
+		}
+
+		// without maxResults every snapshot found is returned at once
+		int pageSize = (request.getMaxResults() == null) ? Integer.MAX_VALUE : request.getMaxResults();
+		if (request.getMaxResults() != null && (pageSize < 5 || pageSize > MAX_SNAPSHOT_PAGE_SIZE)) {
+			throw serviceException(INVALID_PARAMETER_ERROR_CODE, 400, "Value ( " + pageSize + " ) for parameter maxResults is invalid.");
+		}
+
+		// the token is the id of the last snapshot of the previous page
+		Map<String, Snapshot> remaining = StringUtils.isEmpty(request.getNextToken())
+				? snapshots : snapshots.tailMap(request.getNextToken(), false);
+		String lastSnapshotId = null;
+
+		for (Snapshot snapshot : remaining.values()) {
+			if (!matches(request.getFilters(), snapshot.getSnapshotId(), snapshot.getState(), snapshot.getOwnerId(), snapshot.getTags()
+					, null, snapshot.getDescription(), snapshot.getVolumeId(), AMI_DATE_FORMATTER.format(snapshot.getStartTime().toInstant()))) {
+				continue;
+			}
+			if (found.size() == pageSize) {
+				return new DescribeSnapshotsResult().withSnapshots(found).withNextToken(lastSnapshotId);
+			}
+			found.add(snapshot);
+			lastSnapshotId = snapshot.getSnapshotId();
+		}
+		return new DescribeSnapshotsResult().withSnapshots(found);
+	}
+
+	public DescribeInstancesResult describeInstances(DescribeInstancesRequest request) {
+
+		call("DescribeInstances");
+
+		List<Instance> found = new ArrayList<Instance>();
+
+		if (!request.getInstanceIds().isEmpty()) {
+			for (String instanceId : request.getInstanceIds()) {
+				found.add(getInstance(instanceId));
+			}
+		}
+		else {
+			for (Instance instance : instances.values()) {
+				if (matches(request.getFilters(), instance.getInstanceId(), instance.getState().getName(), null, instance.getTags()
+						, null, null, null, null)) {
+					found.add(instance);
+				}
+			}
+		}
+
+		DescribeInstancesResult result = new DescribeInstancesResult();
+		if (!found.isEmpty()) {
+			result.withReservations(new Reservation().withOwnerId(ownerId).withInstances(found));
+		}
+		return result;
+	}
+
+	public DeregisterImageResult deregisterImage(DeregisterImageRequest request) {
+
+		call("DeregisterImage");
+
+		Image image = images.remove(request.getImageId());
+		if (image == null) {
+			throw serviceException(IMAGE_NOT_FOUND_ERROR_CODE, 400, "The image id '[" + request.getImageId() + "]' does not exist");
+		}
+		for (String snapshotId : getSnapshotIds(image)) {
+			snapshotImageIds.remove(snapshotId, image.getImageId());
+		}
+		return new DeregisterImageResult();
+	}
+
+	public DeleteSnapshotResult deleteSnapshot(DeleteSnapshotRequest request) {
+
+		call("DeleteSnapshot");
+
+		String snapshotId = request.getSnapshotId();
+		String imageId = snapshotImageIds.get(snapshotId);
+		if (imageId != null) {
+			throw serviceException(SNAPSHOT_IN_USE_ERROR_CODE, 400, "The snapshot " + snapshotId + " is currently in use by " + imageId);
+		}
+		if (snapshots.remove(snapshotId) == null) {
+			throw serviceException(SNAPSHOT_NOT_FOUND_ERROR_CODE, 400, "The snapshot '" + snapshotId + "' does not exist.");
+		}
+		return new DeleteSnapshotResult();
+	}
+
+	public synchronized CreateTagsResult createTags(CreateTagsRequest request) {
+
+		call("CreateTags");
+
+		if (request.getResources().size() > MAX_TAGGED_RESOURCES) {
+			throw serviceException(INVALID_PARAMETER_ERROR_CODE, 400, "The request has " + request.getResources().size() + " resources, at most " + MAX_TAGGED_RESOURCES + " are allowed");
+		}
+		if (request.getTags().size() > MAX_TAGS_PER_CALL) {
+			throw serviceException(TAG_LIMIT_ERROR_CODE, 400, "The request has " + request.getTags().size() + " tags, at most " + MAX_TAGS_PER_CALL + " are allowed");
+		}
+
+		for (String resourceId : request.getResources()) {
+			List<Tag> tags = new ArrayList<Tag>(getTags(resourceId));
+			for (Tag tag : request.getTags()) {
+				tags.removeIf(existing -> existing.getKey().equals(tag.getKey()));
+				tags.add(new Tag(tag.getKey(), StringUtils.defaultString(tag.getValue())));
+			}
+			setTags(resourceId, tags);
+		}
+		return new CreateTagsResult();
+	}
+
+	public synchronized DeleteTagsResult deleteTags(DeleteTagsRequest request) {
+
+		call("DeleteTags");
+
+		for (String resourceId : request.getResources()) {
+			List<Tag> tags = new ArrayList<Tag>(getTags(resourceId));
+			for (Tag tag : request.getTags()) {
+				tags.removeIf(existing -> existing.getKey().equals(tag.getKey())
+						&& (tag.getValue() == null || tag.getValue().equals(existing.getValue())));
+			}
+			setTags(resourceId, tags);
+		}
+		return new DeleteTagsResult();
+	}
+
+	public synchronized CreateImageResult createImage(CreateImageRequest request) {
+
+		call("CreateImage");
+
+		Instance instance = getInstance(request.getInstanceId());
+		for (Image image : images.values()) {
+			if (ownerId.equals(image.getOwnerId()) && request.getName().equals(image.getName())) {
+				throw serviceException("InvalidAMIName.Duplicate", 400, "AMI name " + request.getName() + " is already in use by AMI " + image.getImageId());
+			}
+		}
+
+		List<BlockDeviceMapping> blockDevices = new ArrayList<BlockDeviceMapping>();
+		for (InstanceBlockDeviceMapping instanceBlockDevice : instance.getBlockDeviceMappings()) {
+			if (instanceBlockDevice.getEbs() != null) {
+				Snapshot snapshot = newSnapshot(instanceBlockDevice.getEbs().getVolumeId(), "Created by CreateImage(" + instance.getInstanceId() + ")");
+				snapshots.put(snapshot.getSnapshotId(), snapshot);
+				blockDevices.add(new BlockDeviceMapping().withDeviceName(instanceBlockDevice.getDeviceName())
+						.withEbs(new EbsBlockDevice().withSnapshotId(snapshot.getSnapshotId())));
+			}
+		}
+
+		Image image = new Image()
+				.withImageId(String.format("ami-%017x", createdCount.incrementAndGet()))
+				.withName(request.getName())
+				.withDescription(request.getDescription())
+				.withCreationDate(AMI_DATE_FORMATTER.format(Instant.now()))
+				.withState("available")
+				.withOwnerId(ownerId)
+				.withBlockDeviceMappings(blockDevices);
+		addImage(image);
+
+		return new CreateImageResult().withImageId(image.getImageId());
+	}
+
+	public CreateSnapshotResult createSnapshot(CreateSnapshotRequest request) {
+
+		call("CreateSnapshot");
+
+		Snapshot snapshot = newSnapshot(request.getVolumeId(), request.getDescription());
+		snapshots.put(snapshot.getSnapshotId(), snapshot);
+
+		return new CreateSnapshotResult().withSnapshot(snapshot);
+	}
+
+	public StartInstancesResult startInstances(StartInstancesRequest request) {
+
+		call("StartInstances");
+
+		return new StartInstancesResult().withStartingInstances(changeStates(request.getInstanceIds(), "running"));
+	}
+
+	public StopInstancesResult stopInstances(StopInstancesRequest request) {
+
+		call("StopInstances");
+
+		return new StopInstancesResult().withStoppingInstances(changeStates(request.getInstanceIds(), "stopped"));
+	}
+
+	public CompletableFuture<DeregisterImageResult> deregisterImageAsync(DeregisterImageRequest request) {
+		return CompletableFuture.supplyAsync(() -> deregisterImage(request), asyncExecutor);
+	}
+
+	public CompletableFuture<DeleteSnapshotResult> deleteSnapshotAsync(DeleteSnapshotRequest request) {
+		return CompletableFuture.supplyAsync(() -> deleteSnapshot(request), asyncExecutor);
+	}
+
+	/**
+	 * Counts the call, waits out its latency and injects the throttles and failures
+	 */
+	private void call(String operation) {
+
+		callCounts.computeIfAbsent(operation, name -> new AtomicLong()).incrementAndGet();
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long micros = latencyMicros + ((latencyJitterMicros > 0) ? random.nextLong(latencyJitterMicros + 1) : 0);
+		if (micros > 0) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+
+		if (random.nextDouble() < throttleRate) {
+			throttleCount.incrementAndGet();
+			throw serviceException(THROTTLE_ERROR_CODE, 503, "Request limit exceeded.");
+		}
+		if (random.nextDouble() < failureRate) {
+			failureCount.incrementAndGet();
+			throw serviceException(FAILURE_ERROR_CODE, 500, "An internal error has occurred");
+		}
+	}
+
+	/**
+	 * Every instance is found before any changes state, an unknown id fails the call
+	 */
+	private synchronized List<InstanceStateChange> changeStates(List<String> instanceIds, String stateName) {
+
+		List<Instance> changing = new ArrayList<Instance>();
+		for (String instanceId : instanceIds) {
+			changing.add(getInstance(instanceId));
+		}
+
+		List<InstanceStateChange> stateChanges = new ArrayList<InstanceStateChange>();
+		for (Instance instance : changing) {
+			InstanceState previousState = instance.getState();
+			InstanceState currentState = new InstanceState().withName(stateName).withCode("running".equals(stateName) ? 16 : 80);
+			// replaced rather than changed, a describe may be reading the instance
+			instances.put(instance.getInstanceId(), instance.clone().withState(currentState));
+			stateChanges.add(new InstanceStateChange().withInstanceId(instance.getInstanceId())
+					.withPreviousState(previousState).withCurrentState(currentState));
+		}
+		return stateChanges;
+	}
+
+	private Instance getInstance(String instanceId) {
+		Instance instance = instances.get(instanceId);
+		if (instance == null) {
+			throw serviceException(INSTANCE_NOT_FOUND_ERROR_CODE, 400, "The instance ID '" + instanceId + "' does not exist");
+		}
+		return instance;
+	}
+
+	private Snapshot newSnapshot(String volumeId, String description) {
+		return new Snapshot()
+				.withSnapshotId(String.format("snap-%017x", createdCount.incrementAndGet()))
+				.withVolumeId(volumeId)
+				.withDescription(description)
+				.withStartTime(new Date())
+				.withState("completed")
+				.withOwnerId(ownerId);
+	}
+
+	/**
+	 * EC2 filter semantics:  every filter must match, any of a filter's values may match.  The
+	 * name, description, creation-date and start-time values may have * and ? wildcards.
+	 */
+	private static boolean matches(List<Filter> filters, String resourceId, String state, String ownerId, List<Tag> tags
+			, String resourceName, String description, String volumeId, String creationTime) {
+
+		for (Filter filter : filters) {
+			String name = filter.getName();
+			boolean matched = false;
+
+			for (String value : filter.getValues()) {
+				if ("image-id".equals(name) || "snapshot-id".equals(name) || "instance-id".equals(name))
+					matched = value.equals(resourceId);
+				else if ("state".equals(name) || "status".equals(name) || "instance-state-name".equals(name))
+					matched = value.equals(state);
+				else if ("owner-id".equals(name))
+					matched = value.equals(ownerId);
+				else if ("name".equals(name))
+					matched = resourceName != null && wildcardMatches(value, resourceName);
+				else if ("description".equals(name))
+					matched = description != null && wildcardMatches(value, description);
+				else if ("volume-id".equals(name))
+					matched = value.equals(volumeId);
+				else if ("creation-date".equals(name) || "start-time".equals(name))
+					matched = creationTime != null && wildcardMatches(value, creationTime);
+				else if ("tag-key".equals(name))
+					matched = findTag(tags, value) != null;
+				else if (name.startsWith("tag:")) {
+					Tag tag = findTag(tags, name.substring("tag:".length()));
+					matched = tag != null && ("*".equals(value) || value.equals(tag.getValue()));
+				}
+				else
+					throw serviceException(INVALID_PARAMETER_ERROR_CODE, 400, "The filter '" + name + "' is invalid");
+
+				if (matched) {
+					break;
+				}
+			}
+			if (!matched) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean wildcardMatches(String pattern, String text) {
+
+		StringBuilder regex = new StringBuilder();
+		for (String literal : pattern.split("(?=[*?])|(?<=[*?])")) {
+			if ("*".equals(literal))
+				regex.append(".*");
+			else if ("?".equals(literal))
+				regex.append('.');
+			else if (!literal.isEmpty())
+				regex.append(Pattern.quote(literal));
+		}
+		return Pattern.matches(regex.toString(), text);
+	}
+
+	private static Tag findTag(List<Tag> tags, String key) {
+		for (Tag tag : tags) {
+			if (key.equals(tag.getKey())) {
+				return tag;
+			}
+		}
+		return null;
+	}
+
+	private List<Tag> getTags(String resourceId) {
+		if (resourceId.startsWith("ami-")) {
+			Image image = images.get(resourceId);
+			if (image != null) {
+				return image.getTags();
+			}
+			throw serviceException(IMAGE_NOT_FOUND_ERROR_CODE, 400, "The image id '[" + resourceId + "]' does not exist");
+		}
+		Snapshot snapshot = snapshots.get(resourceId);
+		if (snapshot != null) {
+			return snapshot.getTags();
+		}
+		throw serviceException(SNAPSHOT_NOT_FOUND_ERROR_CODE, 400, "The snapshot '" + resourceId + "' does not exist.");
+	}
+
+	/**
+	 * Replaces the tag list rather than changing it, a describe may be reading the old one
+	 */
+	private void setTags(String resourceId, List<Tag> tags) {
+		if (resourceId.startsWith("ami-"))
+			images.get(resourceId).setTags(tags);
+		else
+			snapshots.get(resourceId).setTags(tags);
+	}
+
+	private static List<String> getSnapshotIds(Image image) {
+
+		List<String> snapshotIds = new ArrayList<String>();
+		for (BlockDeviceMapping blockDevice : image.getBlockDeviceMappings()) {
+			if (blockDevice.getEbs() != null && StringUtils.isNotEmpty(blockDevice.getEbs().getSnapshotId())) {
+				snapshotIds.add(blockDevice.getEbs().getSnapshotId());
+			}
+		}
+		return snapshotIds;
+	}
+
+	private static AmazonServiceException serviceException(String errorCode, int statusCode, String message) {
+
+		AmazonServiceException ase = new AmazonServiceException(message);
+		ase.setErrorCode(errorCode);
+		ase.setStatusCode(statusCode);
+		ase.setServiceName("AmazonEC2");
+		ase.setErrorType((statusCode >= 500) ? AmazonServiceException.ErrorType.Service : AmazonServiceException.ErrorType.Client);
+		return ase;
+	}
+}
@@ -0,0 +1,261 @@
+package com.cloudpacity.aws.benchmark.simulator;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsRequest;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Snapshot;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cloudpacity.aws.common.entity.TagWriter;
+import com.cloudpacity.aws.common.util.CPRateController;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Checks that TagWriter leaves every resource with exactly the tags added for it, the value of a
+ * key added again being the later one, against a CPSimulatedEC2Gateway enforcing the createTags
+ * limits of 1000 resources and 50 tags a call.  Both groupings are covered:
+ *
+ *    by tag       backups sharing most of their tags in many combinations, and some with a name
+ *                 of their own, so the shared tags go out together and the named ones in their
+ *                 own calls
+ *    by tag set   backups getting one of two tag sets
+ *
+ * Each has more than 1000 resources and more than 50 tags, so the calls are split both ways.  The
+ * createTags calls the simulator counts must be the ones flush() returns.  A mismatch exits with a
+ * non-zero code.
+ *
+ * e.g.  java -cp target/benchmarks.jar com.cloudpacity.aws.benchmark.simulator.CPTagWriterCheck
+ *
+ */
+public class CPTagWriterCheck {
+
+	public static final String ACCOUNT_ID = CPPurgeLoadHarness.ACCOUNT_ID;
+	public static final int MISMATCHES_SHOWN = 10;
+
+	public static final int BY_TAG_RESOURCES = 1500;
+	public static final int BY_TAG_SHARED_TAGS = 52;
+	public static final int NAMED_RESOURCES = 60;
+	public static final int BY_TAG_SET_RESOURCES = 2500;
+	public static final int BY_TAG_SET_SHARED_TAGS = 55;
+
+	private final CPSimulatedEC2Gateway ec2 = new CPSimulatedEC2Gateway();
+	private final TagWriter tagWriter = new TagWriter(ec2, new CPRateController("tag-check", CPRateController.DEFAULT_MAX_RATE
+			, CPRateController.DEFAULT_MIN_RATE, CPRateController.DEFAULT_MAX_RATE, CPRateController.DEFAULT_MAX_RETRIES));
+	// resource id -> tag key -> value, the tags the resource is expected to end up with
+	private final Map<String, Map<String, String>> expectedTags = new LinkedHashMap<String, Map<String, String>>();
+
+
+	private CPTagWriterCheck() {
+		ec2.setOwnerId(ACCOUNT_ID);
+	}
+
+	public static void main(String[] args) {
+
+		int mismatches = new CPTagWriterCheck().checkByTag() + new CPTagWriterCheck().checkByTagSet();
+
+		if (mismatches > 0) {
+			System.out.println("FAILED: " + mismatches + " resources were not tagged as expected");
+			System.exit(1);
+		}
+		System.out.println("Outcome: as expected");
+	}
+
+	/**
+	 * Every backup gets the shared tags and a day, volume and host of its own combination, so
+	 * nearly every tag set is different.  The named ones get a call of their own, some days are
+	 * added again with another value.
+	 *
+	 * @return the number of resources not tagged as expected
+	 */
+	private int checkByTag() {
+
+		for (int i = 0; i < BY_TAG_RESOURCES; i++) {
+			String resourceId = newResource(i);
+
+			List<Tag> sharedTags = new ArrayList<Tag>();
+			for (int k = 0; k < BY_TAG_SHARED_TAGS; k++) {
+				sharedTags.add(new Tag("Shared-" + k, "value-" + k));
+			}
+			add(resourceId, sharedTags);
+
+			List<Tag> tags = new ArrayList<Tag>();
+			tags.add(new Tag("Day", Integer.toString(i % 7)));
+			tags.add(new Tag("Volume", "vol-" + (i % 11)));
+			tags.add(new Tag("Host", "host-" + (i % 13)));
+			if (i < NAMED_RESOURCES) {
+				tags.add(new Tag("Name", "backup-" + i));
+			}
+			add(resourceId, tags);
+
+			if (i % 17 == 0) {
+				List<Tag> laterTags = new ArrayList<Tag>();
+				laterTags.add(new Tag("Day", "later"));
+				add(resourceId, laterTags);
+			}
+		}
+
+		int tagSetCalls = getTagSetCalls();
+		int calls = flush("by tag");
+		int mismatches = verify(calls);
+
+		if (calls >= tagSetCalls) {
+			System.out.println("    " + calls + " calls were made, grouping by tag set takes " + tagSetCalls);
+			mismatches++;
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Every backup gets the shared tags and one of two tiers, two tag sets in all
+	 *
+	 * @return the number of resources not tagged as expected
+	 */
+	private int checkByTagSet() {
+
+		for (int i = 0; i < BY_TAG_SET_RESOURCES; i++) {
+			String resourceId = newResource(i);
+
+			List<Tag> tags = new ArrayList<Tag>();
+			for (int k = 0; k < BY_TAG_SET_SHARED_TAGS; k++) {
+				tags.add(new Tag("Shared-" + k, "value-" + k));
+			}
+			tags.add(new Tag("Tier", (i % 2 == 0) ? "gold" : "silver"));
+			add(resourceId, tags);
+		}
+
+		int tagSetCalls = getTagSetCalls();
+		int calls = flush("by tag set");
+		int mismatches = verify(calls);
+
+		if (calls != tagSetCalls) {
+			System.out.println("    " + calls + " calls were made, grouping by tag set takes " + tagSetCalls);
+			mismatches++;
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @param i
+	 * @return the id of an untagged AMI, every fifth resource, or snapshot given to the simulator
+	 */
+	private String newResource(int i) {
+
+		if (i % 5 == 0) {
+			Image image = new Image()
+					.withImageId(String.format("ami-%08x", i))
+					.withName("backup-" + i)
+					.withState("available")
+					.withOwnerId(ACCOUNT_ID);
+			ec2.addImage(image);
+			return image.getImageId();
+		}
+
+		Snapshot snapshot = new Snapshot()
+				.withSnapshotId(String.format("snap-%08x", i))
+				.withStartTime(new Date())
+				.withVolumeSize(8)
+				.withState("completed")
+				.withOwnerId(ACCOUNT_ID);
+		ec2.addSnapshot(snapshot);
+		return snapshot.getSnapshotId();
+	}
+
+	private void add(String resourceId, List<Tag> tags) {
+
+		tagWriter.add(resourceId, tags);
+
+		Map<String, String> resourceTags = expectedTags.computeIfAbsent(resourceId, r -> new HashMap<String, String>());
+		for (Tag tag : tags) {
+			resourceTags.put(tag.getKey(), tag.getValue());
+		}
+	}
+
+	/**
+	 * @param grouping
+	 * @return the createTags calls made
+	 */
+	private int flush(String grouping) {
+
+		int calls = tagWriter.flush();
+		System.out.println("Tagged " + expectedTags.size() + " resources " + grouping + " in " + calls + " createTags calls");
+		return calls;
+	}
+
+	/**
+	 * @return the createTags calls writing the expected tags one tag set at a time take
+	 */
+	private int getTagSetCalls() {
+
+		Map<Map<String, String>, Integer> resourcesByTagSet = new HashMap<Map<String, String>, Integer>();
+		for (Map<String, String> tags : expectedTags.values()) {
+			resourcesByTagSet.merge(tags, 1, Integer::sum);
+		}
+
+		int calls = 0;
+		for (Map.Entry<Map<String, String>, Integer> tagSetResources : resourcesByTagSet.entrySet()) {
+			calls += ((tagSetResources.getValue() + TagWriter.MAX_RESOURCES_PER_CALL - 1) / TagWriter.MAX_RESOURCES_PER_CALL)
+					* ((tagSetResources.getKey().size() + TagWriter.MAX_TAGS_PER_CALL - 1) / TagWriter.MAX_TAGS_PER_CALL);
+		}
+		return calls;
+	}
+
+	/**
+	 * Compares the tags of every AMI and snapshot with the ones expected, and the calls flush()
+	 * returned with the ones the simulator answered
+	 *
+	 * @param calls
+	 * @return the number of resources with other tags, a call count differing counting as one
+	 */
+	private int verify(int calls) {
+
+		int mismatches = 0;
+		long createTagsCalls = ec2.getCallCounts().getOrDefault("CreateTags", 0L);
+		if (createTagsCalls != calls) {
+			System.out.println("    flush() returned " + calls + " calls, the simulator answered " + createTagsCalls);
+			mismatches++;
+		}
+
+		Map<String, List<Tag>> actualTags = new HashMap<String, List<Tag>>();
+		for (Image image : ec2.describeImages(new DescribeImagesRequest()).getImages()) {
+			actualTags.put(image.getImageId(), image.getTags());
+		}
+		for (Snapshot snapshot : ec2.describeSnapshots(new DescribeSnapshotsRequest()).getSnapshots()) {
+			actualTags.put(snapshot.getSnapshotId(), snapshot.getTags());
+		}
+
+		for (Map.Entry<String, Map<String, String>> resourceTags : expectedTags.entrySet()) {
+
+			Map<String, String> actual = new HashMap<String, String>();
+			for (Tag tag : actualTags.get(resourceTags.getKey())) {
+				actual.put(tag.getKey(), tag.getValue());
+			}
+			if (!actual.equals(resourceTags.getValue())) {
+				if (mismatches < MISMATCHES_SHOWN) {
+					System.out.println("    " + resourceTags.getKey() + " has " + actual + ", expected " + resourceTags.getValue());
+				}
+				mismatches++;
+			}
+		}
+		return mismatches;
+	}
+}
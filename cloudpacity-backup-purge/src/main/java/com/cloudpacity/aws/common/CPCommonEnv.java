@@ -55,6 +55,20 @@ public class CPCommonEnv {
     public static final String DEFAULT_NAME_TAG = "Name";
     public static final String DEFAULT_RETAIN_DAYS_TAG = "BackupRetentionDays";
     public static final String ENV_VAR_RETAIN_DAYS_TAG = "BackupRetentionDaysTag";
+    public static final String ENV_VAR_EC2_GATEWAY_MODE = "EC2GatewayMode";
+    public static final String ENV_VAR_EC2_ASYNC_THREADS = "EC2AsyncThreads";
+    public static final String DEFAULT_EC2_GATEWAY_MODE = "sync";
+    public static final int DEFAULT_EC2_ASYNC_THREADS = 50;
+    public static final String ENV_VAR_LOG_BUFFER_MAX_CHARS = "LogBufferMaxChars";
+    // the summary and log buffers together stay under the 256KB SNS message limit
+    public static final int DEFAULT_LOG_BUFFER_MAX_CHARS = 100000;
+    public static final String ENV_VAR_METRICS_ENABLED = "MetricsEnabled";
+    public static final String ENV_VAR_METRICS_NAMESPACE = "MetricsNamespace";
+    public static final String DEFAULT_METRICS_NAMESPACE = "Cloudpacity";
+    public static final String ENV_VAR_MAX_RECURSIVE_CALLS = "MaxRecursiveCalls";
+    public static final String ENV_VAR_MAX_RUN_MINUTES = "MaxRunMinutes";
+    public static final String ENV_VAR_BACKUP_CONCURRENCY = "BackupConcurrency";
+    public static final int DEFAULT_BACKUP_CONCURRENCY = 10;
 	
     public String getBackupRetentionDaysTag()
     {
@@ -84,6 +98,95 @@ public class CPCommonEnv {
             return NameTag;
     }
     
+    public static String getEC2GatewayMode()
+    {
+        String gatewayMode = System.getenv(ENV_VAR_EC2_GATEWAY_MODE);
+        if(StringUtils.isEmpty(gatewayMode))
+            return DEFAULT_EC2_GATEWAY_MODE;
+        else
+            return gatewayMode;
+    }
+
+    public static int getEC2AsyncThreads()
+    {
+        String asyncThreads = System.getenv(ENV_VAR_EC2_ASYNC_THREADS);
+        if(StringUtils.isEmpty(asyncThreads))
+            return DEFAULT_EC2_ASYNC_THREADS;
+        try {
+            return Math.max(1, Integer.parseInt(asyncThreads.trim()));
+        }
+        catch (NumberFormatException nfe) {
+            return DEFAULT_EC2_ASYNC_THREADS;
+        }
+    }
+    
+    public static int getLogBufferMaxChars()
+    {
+        String maxChars = System.getenv(ENV_VAR_LOG_BUFFER_MAX_CHARS);
+        if(StringUtils.isEmpty(maxChars))
+            return DEFAULT_LOG_BUFFER_MAX_CHARS;
+        try {
+            return Math.max(1, Integer.parseInt(maxChars.trim()));
+        }
+        catch (NumberFormatException nfe) {
+            return DEFAULT_LOG_BUFFER_MAX_CHARS;
+        }
+    }
+    
+    /**
+     * @return false only if MetricsEnabled is set to "false"
+     */
+    public static boolean isMetricsEnabled()
+    {
+        return !"false".equalsIgnoreCase(StringUtils.trimToEmpty(System.getenv(ENV_VAR_METRICS_ENABLED)));
+    }
+
+    public static String getMetricsNamespace()
+    {
+        String namespace = System.getenv(ENV_VAR_METRICS_NAMESPACE);
+        if(StringUtils.isEmpty(namespace))
+            return DEFAULT_METRICS_NAMESPACE;
+        else
+            return namespace;
+    }
+    
+    /**
+     * @return the most invocations a run may chain beyond the first
+     */
+    public static int getMaxRecursiveCalls()
+    {
+        return getNonNegativeIntEnv(ENV_VAR_MAX_RECURSIVE_CALLS, DEFAULT_MAX_RECURSIVE_CALLS);
+    }
+
+    /**
+     * @return the minutes after the request start time past which a run is not continued
+     */
+    public static int getMaxRunMinutes()
+    {
+        return getNonNegativeIntEnv(ENV_VAR_MAX_RUN_MINUTES, DEFAULT_MAX_RUN_MINUTES);
+    }
+
+    /**
+     * @return the most AMIs and snapshots a backup creates at once, at least 1
+     */
+    public static int getBackupConcurrency()
+    {
+        return Math.max(1, getNonNegativeIntEnv(ENV_VAR_BACKUP_CONCURRENCY, DEFAULT_BACKUP_CONCURRENCY));
+    }
+
+    private static int getNonNegativeIntEnv(String envVar, int defaultValue)
+    {
+        String value = System.getenv(envVar);
+        if(StringUtils.isEmpty(value))
+            return defaultValue;
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        }
+        catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+    
     public static Regions getRegion()
     {
         return Regions.fromName(System.getenv("AWS_DEFAULT_REGION"));
@@ -0,0 +1,79 @@
+package com.cloudpacity.aws.common.auth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.common.util.CPClientCache;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Process wide cache of assumed role credentials, one provider per role ARN.  A provider assumes
+ * its role on first use and renews the session before it expires, so a warm container reuses the
+ * session across invocations instead of calling AssumeRole for each.
+ *
+ */
+public class CPRoleCredentials
+{
+    public static final String SESSION_NAME = "CloudpacityBackupPurge";
+    public static final String CLIENT_TYPE_STS = "STS";
+
+    private static final Map<String, STSAssumeRoleSessionCredentialsProvider> PROVIDERS =
+            new ConcurrentHashMap<String, STSAssumeRoleSessionCredentialsProvider>();
+
+
+    /**
+     * @param roleArn e.g. "arn:aws:iam::123456789012:role/BackupPurge"
+     * @return the cached credentials of the role
+     */
+    public static AWSCredentialsProvider getCredentialsProvider(String roleArn)
+    {
+        getAccountId(roleArn);
+
+        return PROVIDERS.computeIfAbsent(roleArn, arn ->
+                new STSAssumeRoleSessionCredentialsProvider.Builder(arn, SESSION_NAME)
+                        .withStsClient(getSTSClient())
+                        .build());
+    }
+
+    /**
+     * @param roleArn
+     * @return the account the role belongs to
+     */
+    public static String getAccountId(String roleArn)
+    {
+        Validate.notEmpty(roleArn, "The role ARN is empty!");
+
+        String[] arnParts = roleArn.split(":");
+        Validate.isTrue(arnParts.length == 6 && arnParts[0].equals("arn") && !arnParts[4].isEmpty(), "The role ARN is not valid: " + roleArn);
+
+        return arnParts[4];
+    }
+
+    private static AWSSecurityTokenService getSTSClient()
+    {
+        return CPClientCache.get(CLIENT_TYPE_STS, CPCommonEnv.getRegionName(), null, () -> AWSSecurityTokenServiceClientBuilder.standard()
+                .withRegion(CPCommonEnv.getRegionName())
+                .build());
+    }
+}
@@ -1,28 +1,42 @@
 package com.cloudpacity.aws.common.entity;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.ec2.model.BlockDeviceMapping;
 import com.amazonaws.services.ec2.model.CreateImageRequest;
 import com.amazonaws.services.ec2.model.CreateImageResult;
 import com.amazonaws.services.ec2.model.CreateSnapshotRequest;
 import com.amazonaws.services.ec2.model.CreateSnapshotResult;
-import com.amazonaws.services.ec2.model.CreateTagsRequest;
 import com.amazonaws.services.ec2.model.DeleteSnapshotRequest;
 import com.amazonaws.services.ec2.model.DeleteSnapshotResult;
 import com.amazonaws.services.ec2.model.DeregisterImageRequest;
@@ -40,7 +54,11 @@ import com.amazonaws.services.ec2.model.Tag;
 import com.cloudpacity.aws.common.CPCommonEnv;
 import com.cloudpacity.aws.common.error.CPRuntimeException;
 import com.cloudpacity.aws.common.error.MultipleObjectsReturnedException;
+import com.cloudpacity.aws.common.gateway.CPEC2Gateway;
+import com.cloudpacity.aws.common.gateway.CPEC2GatewayFactory;
 import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.common.util.CPRateController;
+import com.cloudpacity.aws.common.util.CPWaiter;
 
 /**
  * 
@@ -64,31 +82,99 @@ import com.cloudpacity.aws.common.util.CPLogger;
 public class AWSImageEntity extends AWSObjectEntity
 {
     public static final int DEFAULT_IMAGE_WAIT_SECS = 60;
+    public static final String IMAGE_STATE_PENDING = "pending";
+    public static final String IMAGE_STATE_AVAILABLE = "available";
+    public static final String IMAGE_STATE_FAILED = "failed";
+    public static final String SNAPSHOT_STATE_PENDING = "pending";
+    public static final String SNAPSHOT_STATE_COMPLETED = "completed";
+    public static final String SNAPSHOT_STATE_ERROR = "error";
+    public static final int DESCRIBE_BATCH_SIZE = 200;
+    public static final String BACKUP_TOKEN_PREFIX = "cpb-";
     public static final String AMI_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSX";
+    public static final int CREATE_RETRIES = 3;
+    public static final int CREATED_LOOKUPS = 3;
+    public static final long CREATED_LOOKUP_DELAY_MILLIS = 1000;
 
-    private AWSCredentials awsCredentials;
     private CPCommonEnv env;
+    private String regionName;
     
-    protected AmazonEC2 ec2Client;
+    protected CPEC2Gateway ec2Gateway;
+    // the creates, which are not safe to repeat blindly, go through a gateway without SDK retries
+    protected CPEC2Gateway createGateway;
+    protected CPRateController describeCalls;
+    protected CPRateController mutatingCalls;
     
     
 	public AWSImageEntity (AWSCredentials awsCredentials, String regionName, CPLogger logger, CPCommonEnv env ) {
 		
-		super( logger,env);
+		this(CPEC2GatewayFactory.create(regionName), CPEC2GatewayFactory.createWithoutRetries(regionName, null), regionName, regionName, logger, env);
 		Validate.notNull(awsCredentials, "The AWS credentials supplied were null!");
+	}
+	
+	/**
+	 * @param credentialsProvider e.g. an assumed role's credentials
+	 * @param accountId the account the credentials purge, the account and region share the EC2 request rate
+	 * @param regionName
+	 * @param logger
+	 * @param env
+	 */
+	public AWSImageEntity (AWSCredentialsProvider credentialsProvider, String accountId, String regionName, CPLogger logger, CPCommonEnv env ) {
+		
+		this(CPEC2GatewayFactory.create(regionName, credentialsProvider), CPEC2GatewayFactory.createWithoutRetries(regionName, credentialsProvider)
+				, regionName, accountId + "/" + regionName, logger, env);
+		Validate.notNull(credentialsProvider, "The AWS credentials provider supplied was null!");
+	}
+	
+	public AWSImageEntity (CPEC2Gateway ec2Gateway, String regionName, CPLogger logger, CPCommonEnv env ) {
+		
+		this(ec2Gateway, regionName, regionName, logger, env);
+	}
+	
+	/**
+	 * @param ec2Gateway also makes the creates, it should not retry them itself, e.g. an in-process simulator
+	 * @param regionName
+	 * @param rateScope the key of the EC2 request rate shared by the entities of an account and region
+	 * @param logger
+	 * @param env
+	 */
+	public AWSImageEntity (CPEC2Gateway ec2Gateway, String regionName, String rateScope, CPLogger logger, CPCommonEnv env ) {
+		
+		this(ec2Gateway, ec2Gateway, regionName, rateScope, logger, env);
+	}
+	
+	/**
+	 * @param ec2Gateway
+	 * @param createGateway makes the CreateImage and CreateSnapshot calls, without SDK retries
+	 * @param regionName
+	 * @param rateScope the key of the EC2 request rate shared by the entities of an account and region
+	 * @param logger
+	 * @param env
+	 */
+	public AWSImageEntity (CPEC2Gateway ec2Gateway, CPEC2Gateway createGateway, String regionName, String rateScope, CPLogger logger, CPCommonEnv env ) {
+		
+		super( logger,env);
+		Validate.notNull(ec2Gateway, "The EC2 gateway is null!");
+		Validate.notNull(createGateway, "The EC2 create gateway is null!");
 		Validate.notEmpty(regionName, "The AWS region name provided is empty!");
 		Validate.notNull(env, "The environment parms are null!");	
 		Validate.notNull(logger, "The logger is null!");	
 		
 		this.env = env;
 		this.logger =  logger;
-		this.awsCredentials = awsCredentials;
-
-        this.ec2Client = AmazonEC2ClientBuilder.standard()
-				.withRegion(regionName)
-				.build();
+		this.regionName = regionName;
+		this.ec2Gateway = ec2Gateway;
+		this.createGateway = createGateway;
+        this.describeCalls = getEC2DescribeRateController(rateScope);
+        this.mutatingCalls = getEC2MutatingRateController(rateScope);
 	}
 	
+	/**
+	 * Backs up each instance with an AMI or a snapshot of each volume, by its backup strategy tag.
+	 * A failed backup does not stop the others:  the backups created are tagged, then a
+	 * CPRuntimeException lists the failed ones.
+	 * 
+	 * @return the ids of the AMIs created
+	 */
 	public List<String> createBackup(List<Instance> instanceList, List<String> tagsToInclude, String backupStrategyTag
 			, String timestampTag,  String deviceTag, String instanceIdTag, String imageIdTag) throws InterruptedException {
 		
@@ -96,9 +182,6 @@ public class AWSImageEntity extends AWSObjectEntity
 		
 		 List<String> imageIdList = new ArrayList<String>();
 		 Map<String, Instance> imageMap = new HashMap<String, Instance>();
-		 List<String> snapshotIdList = new ArrayList<String>();
-		 Map<String, Instance> snapshotInstanceMap = new HashMap<String, Instance>();
-		 Map<String, InstanceBlockDeviceMapping> snapshotDeviceMap = new HashMap<String, InstanceBlockDeviceMapping>();
 		
 		ZonedDateTime currentDatetime = ZonedDateTime.now(ZoneId.of(CPCommonEnv.DEFAULT_TIME_ZONE));
 		DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern(CPCommonEnv.DEFAULT_DATE_FORMAT);
@@ -106,72 +189,353 @@ public class AWSImageEntity extends AWSObjectEntity
 		// ami names can't have ":"
 		String amiFormattedCurrentDatetime = formattedCurrentDatetime.replace(":", ".");
 		
-        AWSInstanceEntity instanceEntity = new AWSInstanceEntity(this.awsCredentials, CPCommonEnv.getRegionName(), this.logger, this.env);
+        AWSInstanceEntity instanceEntity = new AWSInstanceEntity(this.ec2Gateway, this.regionName, this.logger, this.env);
+        List<Backup> backups = new ArrayList<Backup>();
+        List<String> failedBackups = new ArrayList<String>();
+        // backup id -> the tagger of a backup whose tagging failed, tagged again in the batched pass
+        Map<String, Consumer<TagWriter>> untaggedBackups = new ConcurrentHashMap<String, Consumer<TagWriter>>();
+        ExecutorService backupExecutor = Executors.newFixedThreadPool(CPCommonEnv.getBackupConcurrency());
 		
-		for (Instance instance: instanceList ){
-			
-			if (instance != null && StringUtils.isNotEmpty(instance.getInstanceId())) {
-				
-				String instanceName = AWSInstanceEntity.getTagValueFromList(this.env.getNameTag(), instance.getTags(),"");
+        try {
+        	// an instance's volumes are queued together so their snapshots start at about the same time,
+        	// each backup is tagged as soon as it is created
+			for (Instance instance: instanceList ){
 				
-				if (instanceEntity.amiBackup(instance, backupStrategyTag)) {
-					CreateImageResult createImageResult = createImage(instanceList, tagsToInclude, instance
-																	  , amiFormattedCurrentDatetime, formattedCurrentDatetime);
+				if (instance != null && StringUtils.isNotEmpty(instance.getInstanceId())) {
 					
-					imageIdList.add(createImageResult.getImageId());
-					imageMap.put(createImageResult.getImageId(), instance);
-
-					logger.logSummary(instanceName + " backed up via AMI '" + createImageResult.getImageId() + "' ");
-				}
-				else {
-					for (InstanceBlockDeviceMapping blockDevice: instance.getBlockDeviceMappings()){
-						
-						CreateSnapshotResult createSnapshotResult = createSnapshot(instanceList, tagsToInclude, instance
-								, blockDevice, formattedCurrentDatetime);
-						
-						if (createSnapshotResult != null) {
-							snapshotIdList.add(createSnapshotResult.getSnapshot().getSnapshotId());
-							snapshotInstanceMap.put(createSnapshotResult.getSnapshot().getSnapshotId(), instance);
-							snapshotDeviceMap.put(createSnapshotResult.getSnapshot().getSnapshotId(), blockDevice);
-							logger.logSummary(instanceName + " device: " + blockDevice.getDeviceName() + " backed up via snapshot '" + createSnapshotResult.getSnapshot().getSnapshotId() + "' ");
+					if (instanceEntity.amiBackup(instance, backupStrategyTag)) {
+						backups.add(new Backup(instance, null, CompletableFuture.supplyAsync(() -> {
+							String imageId = createImage(instanceList, tagsToInclude, instance, amiFormattedCurrentDatetime, formattedCurrentDatetime).getImageId();
+							tagNewBackup(imageId, tagWriter -> tagImageFromInstance(instance, imageId, formattedCurrentDatetime, tagsToInclude
+									, timestampTag, instanceIdTag, tagWriter), untaggedBackups);
+							return imageId;
+						}, backupExecutor)));
+					}
+					else {
+						for (InstanceBlockDeviceMapping blockDevice: instance.getBlockDeviceMappings()){
+							
+							backups.add(new Backup(instance, blockDevice, CompletableFuture.supplyAsync(() -> {
+								CreateSnapshotResult createSnapshotResult = createSnapshot(instanceList, tagsToInclude, instance, blockDevice, formattedCurrentDatetime);
+								if (createSnapshotResult == null) {
+									return null;
+								}
+								Snapshot snapshot = createSnapshotResult.getSnapshot();
+								tagNewBackup(snapshot.getSnapshotId(), tagWriter -> tagSnapshot("", formattedCurrentDatetime, tagsToInclude, getTagMap(instance.getTags())
+										, blockDevice.getDeviceName(), snapshot, instance.getInstanceId(), timestampTag,  deviceTag, instanceIdTag, imageIdTag, tagWriter)
+										, untaggedBackups);
+								return snapshot.getSnapshotId();
+							}, backupExecutor)));
 						}
 					}
 				}
+			}
+			
+			for (Backup backup: backups) {
+				
+				String instanceName = AWSInstanceEntity.getTagValueFromList(this.env.getNameTag(), backup.instance.getTags(),"");
+				String backupId;
+				
+				try {
+					backupId = backup.backupId.join();
+				}
+				catch (CompletionException ce) {
+					String device = (backup.blockDevice == null) ? "" : " device: " + backup.blockDevice.getDeviceName();
+					logger.log("ERROR: " + instanceName + device + " backup failed: " + ce.getCause().getMessage());
+					logger.logSummary(instanceName + device + " backup failed: " + ce.getCause().getMessage());
+					failedBackups.add(instanceName + device + ": " + ce.getCause().getMessage());
+					continue;
+				}
 				
+				if (backup.blockDevice == null) {
+					imageIdList.add(backupId);
+					imageMap.put(backupId, backup.instance);
+					logger.logSummary(instanceName + " backed up via AMI '" + backupId + "' ");
+				}
+				else if (backupId != null) {
+					logger.logSummary(instanceName + " device: " + backup.blockDevice.getDeviceName() + " backed up via snapshot '" + backupId + "' ");
+				}
+			}
+        }
+        finally {
+        	backupExecutor.shutdownNow();
+        }
+		this.logger.log("Backups created and tagged, AMI snapshot tagging started");
+		waitForImageSnapshots(imageIdList);
+		
+		TagWriter tagWriter = new TagWriter(this.ec2Gateway, this.mutatingCalls);
+		List<Image> images = new ArrayList<Image>();
+		
+		for (Image image: getImageMapForIds(imageIdList).values()) {
+			if (IMAGE_STATE_FAILED.equalsIgnoreCase(image.getState())) {
+				logger.log("ERROR: Image: " + image.getImageId() + " is in a failed state!");
+			}
+			else {
+				images.add(image);
 			}
 		}
-		this.logger.log("Backups created, tagging started");
-		Thread.sleep(DEFAULT_IMAGE_WAIT_SECS*1000); //sleep for 20 secs
+		tagAMISnapshotsFromInstances(images, imageMap, formattedCurrentDatetime, tagsToInclude
+				, timestampTag,  deviceTag, instanceIdTag, imageIdTag, tagWriter);
 		
-		tagImages(imageIdList,  imageMap,  formattedCurrentDatetime, tagsToInclude, timestampTag, deviceTag, instanceIdTag, imageIdTag);
+		if (!untaggedBackups.isEmpty()) {
+			this.logger.log("Tagging again the backups whose tagging failed: " + untaggedBackups.keySet());
+			for (Consumer<TagWriter> tagger: untaggedBackups.values()) {
+				tagger.accept(tagWriter);
+			}
+		}
 		
-		tagSnapshots(snapshotIdList, snapshotDeviceMap,  snapshotInstanceMap, formattedCurrentDatetime,tagsToInclude, timestampTag, deviceTag, instanceIdTag, imageIdTag);
+		// an untagged backup is never purged
+		String tagFailure = null;
+		try {
+			int tagCalls = tagWriter.flush();
+			this.logger.log("AMI snapshot tagging completed, createTags calls: " + tagCalls);
+		}
+		catch (CPRuntimeException cpre) {
+			tagFailure = "backups left untagged, which are not purged: " + cpre.getMessage();
+			logger.log("ERROR: " + tagFailure);
+			logger.logSummary(tagFailure);
+		}
+		
+		// the backups created are tagged first
+		if (!failedBackups.isEmpty() || tagFailure != null) {
+			List<String> failures = new ArrayList<String>();
+			if (!failedBackups.isEmpty()) {
+				failures.add(failedBackups.size() + " of " + backups.size() + " backups failed: " + String.join("; ", failedBackups));
+			}
+			if (tagFailure != null) {
+				failures.add(tagFailure);
+			}
+			throw new CPRuntimeException(String.join(", ", failures));
+		}
 		
 		return imageIdList;
 	}
 
+	/**
+	 * Writes the tags of a backup just created.  A tagging failure is not thrown, the backup itself
+	 * was created:  the backup's tagger is kept to tag it again in the batched pass.
+	 * 
+	 * @param backupId
+	 * @param tagger adds the backup's tags to the writer
+	 * @param untaggedBackups backup id -> tagger, of the backups whose tagging failed
+	 */
+	private void tagNewBackup(String backupId, Consumer<TagWriter> tagger, Map<String, Consumer<TagWriter>> untaggedBackups) {
+		
+		try {
+			TagWriter tagWriter = new TagWriter(this.ec2Gateway, this.mutatingCalls);
+			tagger.accept(tagWriter);
+			tagWriter.flush();
+		}
+		catch (RuntimeException re) {
+			logger.log("ERROR: tagging the backup: " + backupId + " failed, it is tagged again after the backups: " + re.getMessage());
+			untaggedBackups.put(backupId, tagger);
+		}
+	}
+
+	/**
+	 * Waits, at most DEFAULT_IMAGE_WAIT_SECS, until EC2 describes the new AMIs with their EBS
+	 * snapshots, which are tagged with the AMI's id.  AMIs not described by then are tagged anyway.
+	 * 
+	 * @param imageIds
+	 * @throws InterruptedException
+	 */
+	private void waitForImageSnapshots(List<String> imageIds) throws InterruptedException {
+		
+		long waitDeadline = CPWaiter.getDeadline(DEFAULT_IMAGE_WAIT_SECS, this.deadlineMillis);
+		
+		new CPWaiter("Image", this.logger, waitDeadline).await(imageIds, this::getRegisteredImageStates
+				, Arrays.asList(IMAGE_STATE_PENDING, IMAGE_STATE_AVAILABLE), Collections.singletonList(IMAGE_STATE_FAILED));
+	}
 
+	/**
+	 * @param imageIds
+	 * @return the state of each image found whose EBS snapshots have been started, the snapshots
+	 * of an AMI are tagged with it
+	 */
+	private Map<String, String> getRegisteredImageStates(List<String> imageIds) {
+		
+		Map<String, String> imageStates = new LinkedHashMap<String, String>();
+		
+		for (Image image: getImageMapForIds(imageIds).values()) {
+			
+			boolean snapshotsStarted = true;
+			for (BlockDeviceMapping blockDevice: image.getBlockDeviceMappings()) {
+				if (blockDevice.getEbs() != null && StringUtils.isEmpty(blockDevice.getEbs().getSnapshotId())) {
+					snapshotsStarted = false;
+				}
+			}
+			if (snapshotsStarted || IMAGE_STATE_FAILED.equalsIgnoreCase(image.getState())) {
+				imageStates.put(image.getImageId(), image.getState());
+			}
+		}
+		return imageStates;
+	}
+
+	/**
+	 * The AMI's description carries a backup token, so a retry after a server error or a timeout
+	 * finds the AMI an earlier attempt created instead of creating another one, see createIdempotently().
+	 * 
+	 * @param instanceList
+	 * @param tagsToInclude
+	 * @param instance
+	 * @param amiFormattedCurrentDatetime
+	 * @param formattedCurrentDatetime
+	 * @return
+	 */
 	public CreateImageResult createImage(List<Instance> instanceList, List<String> tagsToInclude, Instance instance, String amiFormattedCurrentDatetime
 			, String formattedCurrentDatetime) {
 		
 				List<Tag> instanceTagList = instance.getTags();
+				String backupToken = getBackupToken(instance.getInstanceId(), "", formattedCurrentDatetime);
 		
 				CreateImageRequest createImageRequest = new CreateImageRequest();
 				createImageRequest.setInstanceId(instance.getInstanceId());
 				createImageRequest.setName(getTagValue(instanceTagList,this.env.getNameTag()) + "_" + amiFormattedCurrentDatetime);
-				createImageRequest.setDescription(getTagValue(instanceTagList,this.env.getNameTag()) + "_" + formattedCurrentDatetime);
+				createImageRequest.setDescription(getTagValue(instanceTagList,this.env.getNameTag()) + "_" + formattedCurrentDatetime + " " + backupToken);
 				
-				return ec2Client.createImage(createImageRequest);
+				return createIdempotently("Image", backupToken, () -> createGateway.createImage(createImageRequest), () -> {
+					Image image = getImageForBackupToken(createImageRequest.getName(), backupToken);
+					return (image == null) ? null : new CreateImageResult().withImageId(image.getImageId());
+				});
 				
 	}
+
+	/**
+	 * Runs a create that may only be repeated once the resource an earlier attempt created is known
+	 * not to exist.  mutatingCalls retries the throttled attempts, which EC2 did not carry out.  A
+	 * server error, an IO error or a timeout may follow a create EC2 did carry out, and the create
+	 * gateway's SDK does not retry them, so the resource is first looked up by its backup token:
+	 * CREATED_LOOKUPS times, the delay doubling from CREATED_LOOKUP_DELAY_MILLIS, as a describe may
+	 * not show a resource just created.  The create is repeated, up to CREATE_RETRIES times, only if
+	 * none is found.
+	 * 
+	 * @param resourceType e.g. "Image", for the log
+	 * @param backupToken
+	 * @param create
+	 * @param findCreated the result of the create the token's resource came from, null if none is found
+	 * @return
+	 */
+	private <T> T createIdempotently(String resourceType, String backupToken, Callable<T> create, Supplier<T> findCreated) {
+		
+		for (int attempt = 0; ; attempt++) {
+			
+			SdkClientException failure;
+			try {
+				return mutatingCalls.callThrottled(create);
+			}
+			catch (AbortedException ae) {
+				throw ae;
+			}
+			catch (AmazonServiceException ase) {
+				if (ase.getStatusCode() < 500) {
+					throw ase;
+				}
+				failure = ase;
+			}
+			catch (SdkClientException sce) {
+				failure = sce;
+			}
+			
+			if (attempt >= CREATE_RETRIES) {
+				throw failure;
+			}
+			logger.log(resourceType + " create failed, looking for one an earlier attempt created, token: " + backupToken
+					+ ": " + failure.getMessage());
+			
+			long delayMillis = CREATED_LOOKUP_DELAY_MILLIS;
+			for (int lookup = 0; lookup < CREATED_LOOKUPS; lookup++, delayMillis *= 2) {
+				try {
+					Thread.sleep(delayMillis);
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new CPRuntimeException("Interrupted while looking for the " + resourceType + " of token: " + backupToken);
+				}
+				
+				T created = findCreated.get();
+				if (created != null) {
+					logger.log(resourceType + " was created by an earlier attempt, token: " + backupToken);
+					return created;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param imageName
+	 * @param backupToken
+	 * @return the account's AMI of the name created with the token, or null
+	 */
+	private Image getImageForBackupToken(String imageName, String backupToken) {
+		
+		List<Filter> filters = Collections.singletonList(new Filter().withName("name").withValues(imageName));
+		
+		for (Image image: getImagesForFilter(filters, Collections.singletonList("self"))) {
+			if (StringUtils.endsWith(image.getDescription(), backupToken)) {
+				return image;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param snapshotVolumeId
+	 * @param backupToken
+	 * @return the volume's snapshot created with the token, or null
+	 */
+	private Snapshot getSnapshotForBackupToken(String snapshotVolumeId, String backupToken) {
+		
+		List<Filter> filters = Arrays.asList(new Filter().withName("volume-id").withValues(snapshotVolumeId)
+				, new Filter().withName("description").withValues("*" + backupToken));
+		
+		for (Snapshot snapshot: getSnapshotsForFilter(filters)) {
+			if (StringUtils.endsWith(snapshot.getDescription(), backupToken)) {
+				return snapshot;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The idempotency token of a backup:  the same for every attempt at backing up the instance, or
+	 * one of its volumes, at the backup time, and different for any other instance, volume or time.
+	 * 
+	 * @param instanceId
+	 * @param volumeId empty for an AMI
+	 * @param formattedCurrentDatetime the backup time
+	 * @return e.g. "cpb-5f1c0a9e3b7d2c48"
+	 */
+	public static String getBackupToken(String instanceId, String volumeId, String formattedCurrentDatetime) {
+		
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest((instanceId + "/" + volumeId + "/" + formattedCurrentDatetime)
+					.getBytes(StandardCharsets.UTF_8));
+			
+			StringBuilder backupToken = new StringBuilder(BACKUP_TOKEN_PREFIX);
+			for (int i = 0; i < 8; i++) {
+				backupToken.append(String.format("%02x", digest[i]));
+			}
+			return backupToken.toString();
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			throw new CPRuntimeException("SHA-256 is not available: " + nsae.getMessage());
+		}
+	}
 				
 	public void tagImages(List<String> imageIdList, Map<String, Instance> imageMap, String formattedCurrentDatetime,List<String> tagsToInclude
 			, String timestampTag,  String deviceTag, String instanceIdTag, String imageIdTag) {
 		
+		TagWriter tagWriter = new TagWriter(this.ec2Gateway, this.mutatingCalls);
+		Map<String, Image> images = getImageMapForIds(imageIdList);
+		List<Image> taggedImages = new ArrayList<Image>();
 
 		for (String imageId: imageIdList) {
 			
-			if (isInFailedState(imageId)) {
+			Image image = images.get(imageId);
+			
+			if (image == null) {
+				logger.log("ERROR: Image: " + imageId + " was not found!");
+			}
+			else if (IMAGE_STATE_FAILED.equalsIgnoreCase(image.getState())) {
 				logger.log("ERROR: Image: " + imageId + " is in a failed state!");
 			}
 			else {
@@ -181,19 +545,32 @@ public class AWSImageEntity extends AWSObjectEntity
 					throw new CPRuntimeException("instance null when tagging the image! Image Id: " + imageId + " tags: " + tagsToInclude);
 				}
 				
-				tagImageFromInstance(instance, imageId, formattedCurrentDatetime,tagsToInclude,timestampTag, instanceIdTag);
-				tagAMISnapshotsFromInstance(instance, imageId, formattedCurrentDatetime,tagsToInclude, instance.getInstanceId()
-						, timestampTag,  deviceTag, instanceIdTag, imageIdTag);
+				tagImageFromInstance(instance, imageId, formattedCurrentDatetime,tagsToInclude,timestampTag, instanceIdTag, tagWriter);
+				taggedImages.add(image);
 			}
 		}
+		tagAMISnapshotsFromInstances(taggedImages, imageMap, formattedCurrentDatetime, tagsToInclude
+				, timestampTag,  deviceTag, instanceIdTag, imageIdTag, tagWriter);
 		
-		this.logger.log("Images tagging completed");
+		int tagCalls = tagWriter.flush();
+		this.logger.log("Images tagging completed, createTags calls: " + tagCalls);
 
 	}
 	
 
+	/**
+	 * The snapshot's description carries a backup token, so a retry finds the snapshot an earlier
+	 * attempt created instead of creating another one, see createIdempotently().
+	 * 
+	 * @param instanceList
+	 * @param tagsToInclude
+	 * @param instance
+	 * @param blockDevice
+	 * @param formattedCurrentDatetime
+	 * @return null if the device has no EBS volume
+	 */
 	public CreateSnapshotResult createSnapshot(List<Instance> instanceList, List<String> tagsToInclude, Instance instance
-			, InstanceBlockDeviceMapping blockDevice, String formattedCurrentDatetime) throws InterruptedException {
+			, InstanceBlockDeviceMapping blockDevice, String formattedCurrentDatetime) {
 				
 	
 					String deviceName = blockDevice.getDeviceName();
@@ -204,54 +581,41 @@ public class AWSImageEntity extends AWSObjectEntity
 					
 					if (StringUtils.isNotEmpty(volumeId)) {
 
+						String backupToken = getBackupToken(instance.getInstanceId(), volumeId, formattedCurrentDatetime);
 						createSnapshotRequest.setVolumeId(volumeId);
-						createSnapshotRequest.setDescription(getTagValue(instanceTagList,this.env.getNameTag()) + " " + deviceName + " " + formattedCurrentDatetime);
+						createSnapshotRequest.setDescription(getTagValue(instanceTagList,this.env.getNameTag()) + " " + deviceName + " " + formattedCurrentDatetime
+								+ " " + backupToken);
 						
-						return ec2Client.createSnapshot(createSnapshotRequest);
+						return createIdempotently("Snapshot", backupToken, () -> createGateway.createSnapshot(createSnapshotRequest), () -> {
+							Snapshot snapshot = getSnapshotForBackupToken(volumeId, backupToken);
+							return (snapshot == null) ? null : new CreateSnapshotResult().withSnapshot(snapshot);
+						});
 					}
 					
 					return null;
 
 	}
 	
-	private void tagSnapshots( List<String> snapshotIdList, Map<String, InstanceBlockDeviceMapping> snapshotDeviceMap, Map<String, Instance> snapshotInstanceMap
-			, String formattedCurrentDatetime,List<String> tagsToInclude, String timestampTag,  String deviceTag, String instanceIdTag, String imageIdTag) {
-		
-
-		for (String snapshotId: snapshotIdList) {
+	public void tagImageFromInstance(Instance instance, String imageId, String formattedCreationDate
+			, List<String> tagsToInclude, String timestampTag, String instanceIdTag) {
 		
-			if (snpashotInFailedState(snapshotId)) {
-				logger.log("ERROR: Snapshot: " + snapshotId + " is in a failed state!");
-			}
-			else {
-				InstanceBlockDeviceMapping blockDevice =  snapshotDeviceMap.get(snapshotId);
-				Instance instance =  snapshotInstanceMap.get(snapshotId);
-				
-				if (instance == null) {
-					throw new CPRuntimeException("instance null when tagging the snapshot! Snapshot Id: " + snapshotId + " tags: " + tagsToInclude);
-				}
-				if (blockDevice == null) {
-					throw new CPRuntimeException("instance EBS was null when tagging the snapshot! Snapshot Id: " + snapshotId + " tags: " + tagsToInclude);
-				}
-				
-				Snapshot snapshot = getSnapshotForId(snapshotId);
-				
-				if (snapshot == null) {
-					throw new CPRuntimeException("Snapshot: '" + snapshotId + "' was not found when tagging the snapshot! Snapshot Id: " + snapshotId + " tags: " + tagsToInclude);
-				}
-				
-				Map<String,Tag> instanceTagMap = getTagMap( instance.getTags());
-				
-				tagSnapshot("", formattedCurrentDatetime, tagsToInclude, instanceTagMap, blockDevice.getDeviceName(), snapshot, instance.getInstanceId()
-						, timestampTag,  deviceTag, instanceIdTag, imageIdTag);
-			}
-		}
+		TagWriter tagWriter = new TagWriter(this.ec2Gateway, this.mutatingCalls);
+		tagImageFromInstance(instance, imageId, formattedCreationDate, tagsToInclude, timestampTag, instanceIdTag, tagWriter);
+		tagWriter.flush();
 	}
 
+	/**
+	 * @param instance
+	 * @param imageId
+	 * @param formattedCreationDate
+	 * @param tagsToInclude
+	 * @param timestampTag
+	 * @param instanceIdTag
+	 * @param tagWriter the image's tags are written on its next flush
+	 */
 	public void tagImageFromInstance(Instance instance, String imageId, String formattedCreationDate
-			, List<String> tagsToInclude, String timestampTag, String instanceIdTag) {
+			, List<String> tagsToInclude, String timestampTag, String instanceIdTag, TagWriter tagWriter) {
 		
-		CreateTagsRequest createTagsRequest = new CreateTagsRequest();
 		List<Tag> imageTags = new ArrayList<Tag>();
 		
 		Map<String,Tag> instanceTagMap = getTagMap( instance.getTags());
@@ -277,10 +641,7 @@ public class AWSImageEntity extends AWSObjectEntity
 		imageTags.add(new Tag(timestampTag,formattedCreationDate));	
 		imageTags.add(new Tag(instanceIdTag,instance.getInstanceId()));		
 		
-		createTagsRequest.setTags(imageTags);
-		createTagsRequest.setResources(Collections.singletonList(imageId));
-		
-		ec2Client.createTags(createTagsRequest);
+		tagWriter.add(imageId, imageTags);
 		logger.logDebug("tagged image id: " + imageId);
 	}
 
@@ -296,41 +657,66 @@ public class AWSImageEntity extends AWSObjectEntity
 	public void tagAMISnapshotsFromInstance(Instance instance, String imageId, String formattedCreationDate
 			,List<String>tagsToInclude, String instanceId, String timestampTag,  String deviceTag, String instanceIdTag, String imageIdTag) {
 		
-		List<Image> imageList = getImagesForIds(Collections.singletonList(imageId));
-		Map<String,Tag> instanceTagMap = getTagMap( instance.getTags());
+		TagWriter tagWriter = new TagWriter(this.ec2Gateway, this.mutatingCalls);
+		tagAMISnapshotsFromInstances(getImagesForIds(Collections.singletonList(imageId)), Collections.singletonMap(imageId, instance), formattedCreationDate
+				, tagsToInclude, timestampTag,  deviceTag, instanceIdTag, imageIdTag, tagWriter);
+		tagWriter.flush();
+	}
+
+	/**
+	 * Tags the EBS snapshots of the AMIs with one describeSnapshots call per DESCRIBE_BATCH_SIZE
+	 * snapshots.
+	 * 
+	 * @param images the described AMIs
+	 * @param imageMap the instance each AMI was created from
+	 * @param formattedCreationDate
+	 * @param tagsToInclude
+	 * @param timestampTag
+	 * @param deviceTag
+	 * @param instanceIdTag
+	 * @param imageIdTag
+	 * @param tagWriter the snapshots' tags are written on its next flush
+	 */
+	public void tagAMISnapshotsFromInstances(Collection<Image> images, Map<String, Instance> imageMap, String formattedCreationDate
+			,List<String>tagsToInclude, String timestampTag,  String deviceTag, String instanceIdTag, String imageIdTag, TagWriter tagWriter) {
 		
-		for (Image image: imageList) {
+		// snapshot id -> the AMI and the device it backs
+		Map<String, Image> snapshotImages = new LinkedHashMap<String, Image>();
+		Map<String, String> snapshotDevices = new HashMap<String, String>();
+		
+		for (Image image: images) {
 			
 			for (BlockDeviceMapping blockDevice: image.getBlockDeviceMappings()){
 				
-				String deviceName = blockDevice.getDeviceName();
+				if (blockDevice.getEbs() == null) {
+					continue;
+				}
 				String snapshotId = blockDevice.getEbs().getSnapshotId();
 				
 				if (StringUtils.isNotEmpty(snapshotId)) {
-					DescribeSnapshotsRequest describeSnapshotsRequest = new DescribeSnapshotsRequest();
-					
-					describeSnapshotsRequest.setSnapshotIds(Collections.singletonList(snapshotId));
-					
-					DescribeSnapshotsResult snapResult = ec2Client.describeSnapshots(describeSnapshotsRequest);
-					
-					for (Snapshot snapshot: snapResult.getSnapshots()) {
-						
-						tagSnapshot(imageId, formattedCreationDate, tagsToInclude, instanceTagMap, deviceName, snapshot, instanceId
-								, timestampTag,  deviceTag, instanceIdTag, imageIdTag);					
-					}
+					snapshotImages.put(snapshotId, image);
+					snapshotDevices.put(snapshotId, blockDevice.getDeviceName());
 				}
 				else {
-					logger.log("Error, snapshot id is empty for image: "+ imageId);
+					logger.log("Error, snapshot id is empty for image: "+ image.getImageId());
 				}
 			}
 		}
+		
+		for (Snapshot snapshot: getSnapshotMapForIds(new ArrayList<String>(snapshotImages.keySet())).values()) {
+			
+			String imageId = snapshotImages.get(snapshot.getSnapshotId()).getImageId();
+			Instance instance = imageMap.get(imageId);
+			
+			tagSnapshot(imageId, formattedCreationDate, tagsToInclude, getTagMap( instance.getTags()), snapshotDevices.get(snapshot.getSnapshotId())
+					, snapshot, instance.getInstanceId(), timestampTag,  deviceTag, instanceIdTag, imageIdTag, tagWriter);
+		}
 	}
 
 	private void tagSnapshot(String imageId, String formattedCreationDate, List<String> tagsToInclude,
 			Map<String, Tag> instanceTagMap, String deviceName, Snapshot snapshot, String instanceId
-			, String timestampTag,  String deviceTag, String instanceIdTag, String imageIdTag) {
+			, String timestampTag,  String deviceTag, String instanceIdTag, String imageIdTag, TagWriter tagWriter) {
 		
-		CreateTagsRequest createTagsRequest = new CreateTagsRequest();
 		List<Tag> snapshotTags = new ArrayList<Tag>();
 
 		Set<String> tagNameSet = instanceTagMap.keySet();
@@ -354,25 +740,10 @@ public class AWSImageEntity extends AWSObjectEntity
 		snapshotTags.add(new Tag(instanceIdTag,instanceId));
 		snapshotTags.add(new Tag(imageIdTag, imageId));	
 			
-		createTagsRequest.setTags(snapshotTags);
-		createTagsRequest.setResources(Collections.singletonList(snapshot.getSnapshotId()));
-		
-		ec2Client.createTags(createTagsRequest);
+		tagWriter.add(snapshot.getSnapshotId(), snapshotTags);
 		logger.log("tagged snapshot id: " + snapshot.getSnapshotId());
 	}
 
-    public boolean isInFailedState(String imageId)
-    {
-        Image image = getImageForId(imageId);
-        return (image != null) & "failed".equalsIgnoreCase(image.getState());
-    }
-    
-    public boolean snpashotInFailedState(String snapshotId)
-    {
-        Snapshot image = getSnapshotForId(snapshotId);
-        return (image != null) & "failed".equalsIgnoreCase(image.getState());
-    }
-
 	public void waitForState(List<String> imageIds, String desiredState1, String desiredState2, int maxWaitSecs)
 	 		throws InterruptedException {
 		
@@ -381,45 +752,109 @@ public class AWSImageEntity extends AWSObjectEntity
 		Validate.notEmpty(desiredState1, "The desired state1 is empty!");
 		Validate.notEmpty(desiredState2, "The desired state2 is empty!");
 		
-		String collectiveImageState = "begin";  // a non existent test state to get the ball rolling
-		int totalWaitTime = 0;
-		
 		if (imageIds.size() == 0) {
 			return;
 		}
 		
-		while (!collectiveImageState.equalsIgnoreCase(desiredState1) &&
-			   !collectiveImageState.equalsIgnoreCase(desiredState2)) {
-			
-			List<Image> currentImageList = this.getImagesForIds(imageIds);
-			collectiveImageState = desiredState1;
-			
-			for (Image image: currentImageList) {
-				
-				if (image != null) {
-					
-					if (image.getState() != null) {
-						
-						if (!desiredState1.equalsIgnoreCase(image.getState()) &&
-							!desiredState2.equalsIgnoreCase(image.getState())) {
-							collectiveImageState = image.getState();
-						}
-						else {
-							
-						}
-					}
-				}
-				
+		CPWaiter waiter = new CPWaiter("Image", this.logger, CPWaiter.getDeadline(maxWaitSecs, this.deadlineMillis));
+		Map<String, String> imageStates = waiter.await(imageIds, this::getImageStates, Arrays.asList(desiredState1, desiredState2)
+				, Collections.singletonList(IMAGE_STATE_FAILED));
+		
+		for (Map.Entry<String, String> imageState: imageStates.entrySet()) {
+			if (!desiredState1.equalsIgnoreCase(imageState.getValue()) && !desiredState2.equalsIgnoreCase(imageState.getValue())) {
+				throw new CPRuntimeException("Image: " + imageState.getKey() + " is in the " + imageState.getValue() + " state, not " + desiredState1 + " or " + desiredState2 + "!");
 			}
-			this.logger.logDebug("Image wait time: " + totalWaitTime + " secs for state: " + desiredState1 + " or " + desiredState2);
-			Thread.sleep(5000); //sleep for 5 secs	
-			totalWaitTime = totalWaitTime + 10;
-			
-			if (totalWaitTime > maxWaitSecs) {	
-				this.logger.logDebug("waitForInstanceState max wait time of " + maxWaitSecs + " exceeded!");
-				throw new CPRuntimeException("waitForInstanceState max wait time of " + maxWaitSecs + " secs exceeded!");
+		}
+		if (imageStates.size() < imageIds.size()) {	
+			this.logger.logDebug("waitForImageState max wait time of " + maxWaitSecs + " exceeded!");
+			throw new CPRuntimeException("waitForImageState max wait time of " + maxWaitSecs + " secs exceeded!");
+		}
+	}
+
+	/**
+	 * @param imageIds
+	 * @return the state of each image found
+	 * @see #getImageMapForIds(List)
+	 */
+	public Map<String, String> getImageStates(List<String> imageIds) {
+		
+		Map<String, String> imageStates = new LinkedHashMap<String, String>();
+		
+		for (Image image: getImageMapForIds(imageIds).values()) {
+			imageStates.put(image.getImageId(), image.getState());
+		}
+		return imageStates;
+	}
+
+	/**
+	 * @param snapshotIds
+	 * @return the state of each snapshot found
+	 * @see #getSnapshotMapForIds(List)
+	 */
+	public Map<String, String> getSnapshotStates(List<String> snapshotIds) {
+		
+		Map<String, String> snapshotStates = new LinkedHashMap<String, String>();
+		
+		for (Snapshot snapshot: getSnapshotMapForIds(snapshotIds).values()) {
+			snapshotStates.put(snapshot.getSnapshotId(), snapshot.getState());
+		}
+		return snapshotStates;
+	}
+
+	/**
+	 * Describes the images by filter, DESCRIBE_BATCH_SIZE ids a call.  An image not found, e.g. one
+	 * just created and not yet visible, is left out instead of failing the call.
+	 * 
+	 * @param imageIds
+	 * @return image id -> image, for the images found, in the order of the ids
+	 */
+	public Map<String, Image> getImageMapForIds(List<String> imageIds) {
+		
+		Validate.notNull(imageIds,"Image id list is null!");
+		
+		Map<String, Image> found = new HashMap<String, Image>();
+		
+		for (int from = 0; from < imageIds.size(); from += DESCRIBE_BATCH_SIZE) {
+			List<String> batch = imageIds.subList(from, Math.min(from + DESCRIBE_BATCH_SIZE, imageIds.size()));
+			for (Image image: getImagesForFilter(Collections.singletonList(new Filter().withName("image-id").withValues(batch)), null)) {
+				found.put(image.getImageId(), image);
 			}
 		}
+		
+		Map<String, Image> images = new LinkedHashMap<String, Image>();
+		for (String imageId: imageIds) {
+			if (found.containsKey(imageId)) {
+				images.put(imageId, found.get(imageId));
+			}
+		}
+		return images;
+	}
+
+	/**
+	 * @param snapshotIds
+	 * @return snapshot id -> snapshot, for the snapshots found, in the order of the ids
+	 * @see #getImageMapForIds(List)
+	 */
+	public Map<String, Snapshot> getSnapshotMapForIds(List<String> snapshotIds) {
+		
+		Validate.notNull(snapshotIds,"Snapshot id list is null!");
+		
+		Map<String, Snapshot> found = new HashMap<String, Snapshot>();
+		
+		for (int from = 0; from < snapshotIds.size(); from += DESCRIBE_BATCH_SIZE) {
+			List<String> batch = snapshotIds.subList(from, Math.min(from + DESCRIBE_BATCH_SIZE, snapshotIds.size()));
+			for (Snapshot snapshot: getSnapshotsForFilter(Collections.singletonList(new Filter().withName("snapshot-id").withValues(batch)))) {
+				found.put(snapshot.getSnapshotId(), snapshot);
+			}
+		}
+		
+		Map<String, Snapshot> snapshots = new LinkedHashMap<String, Snapshot>();
+		for (String snapshotId: snapshotIds) {
+			if (found.containsKey(snapshotId)) {
+				snapshots.put(snapshotId, found.get(snapshotId));
+			}
+		}
+		return snapshots;
 	}
 
 	public List<Image> getImagesForIds(List<String> imageIds) {
@@ -429,7 +864,7 @@ public class AWSImageEntity extends AWSObjectEntity
 		DescribeImagesRequest request = new DescribeImagesRequest();
 		request.setImageIds(imageIds);
 		
-		DescribeImagesResult result = ec2Client.describeImages(request);
+		DescribeImagesResult result = describeCalls.call(() -> ec2Gateway.describeImages(request));
 
 		return result.getImages();
 	}
@@ -459,7 +894,7 @@ public class AWSImageEntity extends AWSObjectEntity
         	request.setOwners(owners);
         }
 
-        DescribeImagesResult result =  ec2Client.describeImages(request);
+        DescribeImagesResult result =  describeCalls.call(() -> ec2Gateway.describeImages(request));
         return result.getImages();
     }
 
@@ -470,7 +905,7 @@ public class AWSImageEntity extends AWSObjectEntity
         DeregisterImageRequest deregisterImageRequest = new DeregisterImageRequest();
         deregisterImageRequest.setImageId(imageId);
 		
-        return ec2Client.deregisterImage(deregisterImageRequest);
+        return mutatingCalls.call(() -> ec2Gateway.deregisterImage(deregisterImageRequest));
 	}
 	
 	public DeleteSnapshotResult deleteSnapshot(String snapshotId) {
@@ -480,7 +915,39 @@ public class AWSImageEntity extends AWSObjectEntity
         DeleteSnapshotRequest deleteSnapshotRequest = new DeleteSnapshotRequest();
         deleteSnapshotRequest.setSnapshotId(snapshotId);
 		
-        return ec2Client.deleteSnapshot(deleteSnapshotRequest);
+        return mutatingCalls.call(() -> ec2Gateway.deleteSnapshot(deleteSnapshotRequest));
+	}
+	
+	/**
+	 * Deregisters the image without blocking the calling thread
+	 * 
+	 * @param imageId
+	 * @return a future completed with the result or the AWS exception
+	 */
+	public CompletableFuture<DeregisterImageResult> deleteAsync(String imageId) {
+		
+        Validate.notEmpty(imageId, "The image id was empty!");	
+        
+        DeregisterImageRequest deregisterImageRequest = new DeregisterImageRequest();
+        deregisterImageRequest.setImageId(imageId);
+		
+        return mutatingCalls.callAsync(() -> ec2Gateway.deregisterImageAsync(deregisterImageRequest));
+	}
+	
+	/**
+	 * Deletes the snapshot without blocking the calling thread
+	 * 
+	 * @param snapshotId
+	 * @return a future completed with the result or the AWS exception
+	 */
+	public CompletableFuture<DeleteSnapshotResult> deleteSnapshotAsync(String snapshotId) {
+		
+        Validate.notEmpty(snapshotId, "The snapshot id was empty!");	
+        
+        DeleteSnapshotRequest deleteSnapshotRequest = new DeleteSnapshotRequest();
+        deleteSnapshotRequest.setSnapshotId(snapshotId);
+		
+        return mutatingCalls.callAsync(() -> ec2Gateway.deleteSnapshotAsync(deleteSnapshotRequest));
 	}
 	
 	public List<Snapshot> getSnapshotsForIds(List<String> snapshotIds) {
@@ -490,7 +957,7 @@ public class AWSImageEntity extends AWSObjectEntity
 		DescribeSnapshotsRequest request = new DescribeSnapshotsRequest();
 		request.setSnapshotIds(snapshotIds);
 		
-		DescribeSnapshotsResult result = ec2Client.describeSnapshots(request);
+		DescribeSnapshotsResult result = describeCalls.call(() -> ec2Gateway.describeSnapshots(request));
 
 		return result.getSnapshots();
 	}
@@ -516,13 +983,60 @@ public class AWSImageEntity extends AWSObjectEntity
     {
         Validate.notNull(filters, "The filter given is null!", new Object[0]);
 
-        DescribeSnapshotsRequest request = new DescribeSnapshotsRequest();
-        request.setFilters(filters);
+        List<Snapshot> snapshots = new ArrayList<Snapshot>();
+        
+        try (SnapshotPageIterator pages = getSnapshotPagesForFilter(filters, SnapshotPageIterator.MAX_PAGE_SIZE)) {
+        	while (pages.hasNext()) {
+        		snapshots.addAll(pages.next());
+        	}
+        }
+        return snapshots;
+    }
+    
+    /**
+     * Streams the snapshots matching the filter one page at a time rather than materializing
+     * the whole account's snapshot list.  The caller must close the iterator.
+     * 
+     * @param filters
+     * @param pageSize
+     * @return
+     */
+    public SnapshotPageIterator getSnapshotPagesForFilter(List<Filter> filters, int pageSize)
+    {
+        return getSnapshotPagesForFilter(filters, pageSize, null);
+    }
+
+    /**
+     * @param filters
+     * @param pageSize
+     * @param startToken the NextToken to resume from, null to start at the first page
+     * @return
+     */
+    public SnapshotPageIterator getSnapshotPagesForFilter(List<Filter> filters, int pageSize, String startToken)
+    {
+        Validate.notNull(filters, "The filter given is null!", new Object[0]);
 
-        DescribeSnapshotsResult result =  ec2Client.describeSnapshots(request);
-        return result.getSnapshots();
+        return new SnapshotPageIterator(ec2Gateway, describeCalls, filters, pageSize, startToken);
     }
     
+    /**
+     * @param image
+     * @return the ids of the EBS snapshots in the image's block device mappings
+     */
+    public static List<String> getEBSSnapshotIds(Image image)
+    {
+        Validate.notNull(image, "The image given is null!");
+
+        List<String> snapshotIds = new ArrayList<String>();
+
+        for (BlockDeviceMapping blockDevice: image.getBlockDeviceMappings()) {
+        	if (blockDevice.getEbs() != null && StringUtils.isNotEmpty(blockDevice.getEbs().getSnapshotId())) {
+        		snapshotIds.add(blockDevice.getEbs().getSnapshotId());
+        	}
+        }
+        return snapshotIds;
+    }
+
 	private String getTagValue(List<Tag>instanceTagList, String tagName) {
 		
 		String tagValue = "";
@@ -577,5 +1091,21 @@ public class AWSImageEntity extends AWSObjectEntity
 
 	}
 
-
+	/**
+	 * A backup in progress:  an AMI of the instance, or a snapshot of one of its volumes
+	 */
+	private static class Backup {
+		
+		private final Instance instance;
+		// null for an AMI
+		private final InstanceBlockDeviceMapping blockDevice;
+		// the AMI or snapshot id, null if the device has no EBS volume
+		private final CompletableFuture<String> backupId;
+		
+		private Backup(Instance instance, InstanceBlockDeviceMapping blockDevice, CompletableFuture<String> backupId) {
+			this.instance = instance;
+			this.blockDevice = blockDevice;
+			this.backupId = backupId;
+		}
+	}
 }
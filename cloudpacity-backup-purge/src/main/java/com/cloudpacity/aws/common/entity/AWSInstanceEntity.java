@@ -3,15 +3,16 @@ package com.cloudpacity.aws.common.entity;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 
 import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.DeleteTagsRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
@@ -26,7 +27,11 @@ import com.amazonaws.services.ec2.model.Tag;
 import com.cloudpacity.aws.common.CPCommonEnv;
 import com.cloudpacity.aws.common.error.CPRuntimeException;
 import com.cloudpacity.aws.common.error.MultipleObjectsReturnedException;
+import com.cloudpacity.aws.common.gateway.CPEC2Gateway;
+import com.cloudpacity.aws.common.gateway.CPEC2GatewayFactory;
 import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.common.util.CPRateController;
+import com.cloudpacity.aws.common.util.CPWaiter;
 
 /**
  * 
@@ -59,16 +64,25 @@ public class AWSInstanceEntity extends AWSObjectEntity
     public static final String BACKUP_STRATEGY_SNAPSHOT_RUNNING_CONST = "SnapshotRunning";
     public static final String BACKUP_STRATEGY_SNAPSHOT_STOPPED_CONST = "SnapshotStopped";
     
-    protected AmazonEC2 ec2Client;
+    protected CPEC2Gateway ec2Gateway;
+    protected CPRateController describeCalls;
+    protected CPRateController mutatingCalls;
     
     public AWSInstanceEntity(AWSCredentials awsCredentials, String regionName, CPLogger logger,CPCommonEnv env)
     {
-        super(logger,env);
-        ec2Client = null;
+        this(CPEC2GatewayFactory.create(regionName), regionName, logger, env);
         Validate.notNull(awsCredentials, "The AWS credentials supplied were null!", new Object[0]);
+    }
+    
+    public AWSInstanceEntity(CPEC2Gateway ec2Gateway, String regionName, CPLogger logger,CPCommonEnv env)
+    {
+        super(logger,env);
+        Validate.notNull(ec2Gateway, "The EC2 gateway is null!", new Object[0]);
         Validate.notEmpty(regionName, "The AWS region name provided is empty!", new Object[0]);
         this.logger = logger;
-        ec2Client = (AmazonEC2)((AmazonEC2ClientBuilder)AmazonEC2ClientBuilder.standard().withRegion(regionName)).build();
+        this.ec2Gateway = ec2Gateway;
+        describeCalls = getEC2DescribeRateController(regionName);
+        mutatingCalls = getEC2MutatingRateController(regionName);
     }
 
     public StartInstancesResult startInstancesByTag(String tagName, String tagValue)
@@ -130,7 +144,7 @@ public class AWSInstanceEntity extends AWSObjectEntity
         Validate.notEmpty(instanceIds, "The instance ids given are empty or null!", new Object[0]);
         StopInstancesRequest instanceReq = new StopInstancesRequest();
         instanceReq.setInstanceIds(instanceIds);
-        return ec2Client.stopInstances(instanceReq);
+        return mutatingCalls.call(() -> ec2Gateway.stopInstances(instanceReq));
     }
 
     public StopInstancesResult stopInstance(String instanceId)
@@ -146,7 +160,7 @@ public class AWSInstanceEntity extends AWSObjectEntity
         Validate.notEmpty(instanceIds, "The Instance Ids given are empty or null!", new Object[0]);
         StartInstancesRequest instanceReq = new StartInstancesRequest();
         instanceReq.setInstanceIds(instanceIds);
-        return ec2Client.startInstances(instanceReq);
+        return mutatingCalls.call(() -> ec2Gateway.startInstances(instanceReq));
     }
 
 //    public void backupByTag(String tagName, String tagValue)
@@ -184,7 +198,7 @@ public class AWSInstanceEntity extends AWSObjectEntity
         }
 
         deleteTagsRequest.setTags(tags);
-        ec2Client.deleteTags(deleteTagsRequest);
+        mutatingCalls.call(() -> ec2Gateway.deleteTags(deleteTagsRequest));
     }
 
     public static List<String> getInstanceDependencyIdArray(List<Tag> tags, String instanceDependencyTag)
@@ -228,7 +242,7 @@ public class AWSInstanceEntity extends AWSObjectEntity
         request.withFilters(new Filter[] {
             queryFilter
         });
-        DescribeInstancesResult result = ec2Client.describeInstances(request);
+        DescribeInstancesResult result = describeCalls.call(() -> ec2Gateway.describeInstances(request));
         return getInstancesFromResult(result);
     }
 
@@ -237,7 +251,7 @@ public class AWSInstanceEntity extends AWSObjectEntity
         Validate.notNull(filterTagValues, "The filter given is null!", new Object[0]);
         DescribeInstancesRequest request = new DescribeInstancesRequest();
         request.setFilters(filterTagValues);
-        DescribeInstancesResult result = ec2Client.describeInstances(request);
+        DescribeInstancesResult result = describeCalls.call(() -> ec2Gateway.describeInstances(request));
         return getInstancesFromResult(result);
     }
 
@@ -246,7 +260,7 @@ public class AWSInstanceEntity extends AWSObjectEntity
         Validate.notNull(instanceIds, "Instance id list is null!", new Object[0]);
         DescribeInstancesRequest request = new DescribeInstancesRequest();
         request.setInstanceIds(instanceIds);
-        DescribeInstancesResult result = ec2Client.describeInstances(request);
+        DescribeInstancesResult result = describeCalls.call(() -> ec2Gateway.describeInstances(request));
         return getInstancesFromResult(result);
     }
 
@@ -265,7 +279,7 @@ public class AWSInstanceEntity extends AWSObjectEntity
     public ArrayList<Instance> getAllInstances()
     {
         DescribeInstancesRequest request = new DescribeInstancesRequest();
-        DescribeInstancesResult result = ec2Client.describeInstances(request);
+        DescribeInstancesResult result = describeCalls.call(() -> ec2Gateway.describeInstances(request));
         return getInstancesFromResult(result);
     }
 
@@ -274,29 +288,38 @@ public class AWSInstanceEntity extends AWSObjectEntity
     {
         Validate.notNull(instanceIds, "Instance id list is null!", new Object[0]);
         Validate.notEmpty(desiredState, "The desired state is empty!", new Object[0]);
-        String collectiveInstanceState = "begin";
-        int totalWaitTime = 0;
         if(instanceIds.size() == 0)
             return;
-        while(!collectiveInstanceState.equalsIgnoreCase(desiredState)) 
+        CPWaiter waiter = new CPWaiter("Instance", logger, CPWaiter.getDeadline(maxWaitSecs, deadlineMillis));
+        Map<String, String> instanceStates = waiter.await(instanceIds, this::getInstanceStates, Collections.singletonList(desiredState)
+                , Collections.singletonList(TERMINATED_STATE));
+        for(Map.Entry<String, String> instanceState : instanceStates.entrySet())
         {
-            List<Instance> currentInstanceList = getInstancesForIds(instanceIds);
-            collectiveInstanceState = desiredState;
-            for(Iterator<Instance> iterator = currentInstanceList.iterator(); iterator.hasNext();)
-            {
-                Instance instance = (Instance)iterator.next();
-                if(instance != null && instance.getState() != null && !desiredState.equalsIgnoreCase(instance.getState().getName()))
-                    collectiveInstanceState = instance.getState().getName();
-            }
+            if(!desiredState.equalsIgnoreCase(instanceState.getValue()))
+                throw new CPRuntimeException((new StringBuilder("Instance: ")).append(instanceState.getKey()).append(" is ").append(instanceState.getValue()).append(", not ").append(desiredState).append("!").toString());
+        }
 
-            logger.log((new StringBuilder("Instance state wait time: ")).append(totalWaitTime).append(" secs for state: ").append(desiredState).toString());
-            Thread.sleep(10000L);
-            if((totalWaitTime += 10) > maxWaitSecs)
-            {
-                logger.log((new StringBuilder("waitForInstanceState max wait time of ")).append(maxWaitSecs).append(" exceeded!").toString());
-                throw new CPRuntimeException((new StringBuilder("waitForInstanceState max wait time of ")).append(maxWaitSecs).append(" secs exceeded!").toString());
-            }
+        if(instanceStates.size() < instanceIds.size())
+        {
+            logger.log((new StringBuilder("waitForInstanceState max wait time of ")).append(maxWaitSecs).append(" exceeded!").toString());
+            throw new CPRuntimeException((new StringBuilder("waitForInstanceState max wait time of ")).append(maxWaitSecs).append(" secs exceeded!").toString());
+        }
+    }
+
+    /**
+     * @param instanceIds
+     * @return the state name of each instance, from one describe call
+     */
+    public Map<String, String> getInstanceStates(List<String> instanceIds)
+    {
+        Map<String, String> instanceStates = new LinkedHashMap<String, String>();
+        for(Instance instance : getInstancesForIds(instanceIds))
+        {
+            if(instance != null && instance.getState() != null)
+                instanceStates.put(instance.getInstanceId(), instance.getState().getName());
         }
+
+        return instanceStates;
     }
 
     public List<String> getInstanceIdList(List<Instance> instanceList)
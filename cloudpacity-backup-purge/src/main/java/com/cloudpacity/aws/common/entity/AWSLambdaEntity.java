@@ -0,0 +1,79 @@
+package com.cloudpacity.aws.common.entity;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.model.InvocationType;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.common.util.CPClientCache;
+import com.cloudpacity.aws.common.util.CPLogger;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+public class AWSLambdaEntity extends AWSObjectEntity {
+
+	public static final String LAMBDA_INVOKE_OPERATION = "LambdaInvoke";
+	public static final String CLIENT_TYPE_LAMBDA = "Lambda";
+
+	protected AWSLambda lambdaClient = null;
+
+	public AWSLambdaEntity(CPLogger logger, CPCommonEnv env)
+	{
+		super(logger, env);
+		Validate.notEmpty(CPCommonEnv.getRegionName(), "The AWS region name provided is empty!");
+
+		lambdaClient = CPClientCache.get(CLIENT_TYPE_LAMBDA, CPCommonEnv.getRegionName(), null, () -> AWSLambdaClientBuilder.standard()
+				.withRegion(CPCommonEnv.getRegionName())
+				.build());
+	}
+
+	/**
+	 * Queues an asynchronous (Event) invocation of the function, it returns once Lambda has
+	 * accepted the event.
+	 *
+	 * @param functionName the function name or ARN
+	 * @param payload the JSON request
+	 * @return
+	 */
+	public InvokeResult invokeAsync(String functionName, String payload)
+	{
+		Validate.notEmpty(functionName, "The function name is empty!");
+		Validate.notEmpty(payload, "The payload is empty!");
+
+		InvokeRequest invokeRequest = new InvokeRequest()
+				.withFunctionName(functionName)
+				.withInvocationType(InvocationType.Event)
+				.withPayload(payload);
+
+		long startNanos = System.nanoTime();
+		try {
+			InvokeResult result = lambdaClient.invoke(invokeRequest);
+			CPMetrics.getInstance().recordCall(LAMBDA_INVOKE_OPERATION, startNanos, null);
+			logger.log("Invoked function '" + functionName + "' status: " + result.getStatusCode());
+			return result;
+		}
+		catch (RuntimeException re) {
+			CPMetrics.getInstance().recordCall(LAMBDA_INVOKE_OPERATION, startNanos, re);
+			throw re;
+		}
+	}
+}
@@ -13,11 +13,13 @@ import org.apache.commons.lang3.Validate;
 import com.amazonaws.services.ec2.model.Tag;
 import com.cloudpacity.aws.common.CPCommonEnv;
 import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.common.util.CPRateController;
 
 public class AWSObjectEntity
 {
 	protected CPLogger logger = null;	
 	protected CPCommonEnv env;
+	protected long deadlineMillis = Long.MAX_VALUE;
 
 	
 	public AWSObjectEntity (CPLogger logger,CPCommonEnv env) {
@@ -28,6 +30,30 @@ public class AWSObjectEntity
 		this.env = env;
 	}
 	
+	/**
+	 * Waits for resources end by the deadline, whatever wait time they were given.
+	 * 
+	 * @param deadlineMillis epoch millis, e.g. now plus the Lambda function's remaining time
+	 */
+	public void setDeadline(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+	
+	/**
+	 * EC2 throttles describe and mutating calls from separate buckets, so each gets its own
+	 * controller, shared by every entity calling the region.
+	 * 
+	 * @param regionName
+	 * @return
+	 */
+	protected static CPRateController getEC2DescribeRateController(String regionName) {
+		return CPRateController.forKey(regionName + "/ec2-describe");
+	}
+	
+	protected static CPRateController getEC2MutatingRateController(String regionName) {
+		return CPRateController.forKey(regionName + "/ec2-mutating");
+	}
+	
 	/**
 	 * 
 	 * @param tagName
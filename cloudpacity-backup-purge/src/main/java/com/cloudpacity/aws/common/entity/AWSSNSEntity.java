@@ -9,6 +9,8 @@ import com.amazonaws.services.sns.AmazonSNSClientBuilder;
 import com.amazonaws.services.sns.model.PublishRequest;
 import com.amazonaws.services.sns.model.PublishResult;
 import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.common.util.CPClientCache;
 import com.cloudpacity.aws.common.util.CPLogger;
 
 /**
@@ -32,6 +34,9 @@ import com.cloudpacity.aws.common.util.CPLogger;
  */
 public class AWSSNSEntity  extends AWSObjectEntity {
 
+	public static final String SNS_PUBLISH_OPERATION = "SNSPublish";
+	public static final String CLIENT_TYPE_SNS = "SNS";
+
 	protected AmazonSNS snsClient = null; 
 	
     public AWSSNSEntity(AWSCredentials awsCredentials, CPLogger logger,CPCommonEnv env)
@@ -40,24 +45,39 @@ public class AWSSNSEntity  extends AWSObjectEntity {
         Validate.notNull(awsCredentials, "The AWS credentials supplied were null!", new Object[0]);
         Validate.notEmpty(CPCommonEnv.getRegionName(), "The AWS region name provided is empty!", new Object[0]);
         this.logger = logger;
-        snsClient = AmazonSNSClientBuilder.standard()
+        snsClient = getSNSClient();
+    }
+
+    /**
+     * @return the process wide SNS client of the function's region
+     */
+    protected static AmazonSNS getSNSClient() {
+    	return CPClientCache.get(CLIENT_TYPE_SNS, CPCommonEnv.getRegionName(), null, () -> AmazonSNSClientBuilder.standard()
 				.withRegion(CPCommonEnv.getRegionName())
-				.build();
+				.build());
     }
     
 	
 	public static PublishResult postMessage(String message, CPLogger logger) {
 		
 		PublishRequest publishRequest = null;
-		AmazonSNS snsClient = AmazonSNSClientBuilder.standard()
-													.withRegion(CPCommonEnv.getRegionName())
-													.build();
+		AmazonSNS snsClient = getSNSClient();
 		if (StringUtils.isEmpty(CPCommonEnv.getSNSARN())) {
 			logger.log("Error: The SNS arn was not supplied in the environment variables!");
 		}
 		else {
 			publishRequest = new PublishRequest(CPCommonEnv.getSNSARN(), message);
 		}
-		return snsClient.publish(publishRequest);		
+
+		long startNanos = System.nanoTime();
+		try {
+			PublishResult result = snsClient.publish(publishRequest);
+			CPMetrics.getInstance().recordCall(SNS_PUBLISH_OPERATION, startNanos, null);
+			return result;
+		}
+		catch (RuntimeException re) {
+			CPMetrics.getInstance().recordCall(SNS_PUBLISH_OPERATION, startNanos, re);
+			throw re;
+		}
 	}
 }
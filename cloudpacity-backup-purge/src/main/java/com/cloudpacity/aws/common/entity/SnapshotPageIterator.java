@@ -0,0 +1,203 @@
+package com.cloudpacity.aws.common.entity;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsRequest;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Snapshot;
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.common.gateway.CPEC2Gateway;
+import com.cloudpacity.aws.common.util.CPRateController;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Iterates the snapshots matching a filter one describeSnapshots page at a time, following
+ * NextToken.  The following page is fetched in the background while the caller works on the
+ * current one, so at most two pages are held in memory.
+ *
+ * A start token EC2 rejects, e.g. one that expired since it was checkpointed, restarts the
+ * iteration at the first page.
+ *
+ */
+public class SnapshotPageIterator implements Iterator<List<Snapshot>>, AutoCloseable
+{
+    public static final int MIN_PAGE_SIZE = 5;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final String INVALID_TOKEN_ERROR_CODE = "InvalidPaginationToken";
+    public static final String INVALID_PARAMETER_ERROR_CODE = "InvalidParameterValue";
+
+    private final CPEC2Gateway ec2Gateway;
+    private final CPRateController describeCalls;
+    private final List<Filter> filters;
+    private final int pageSize;
+    private final ExecutorService prefetchExecutor;
+
+    private Future<DescribeSnapshotsResult> nextPage = null;
+    private String nextPageToken = null;
+    private String pageToken = null;
+    private boolean firstPage = true;
+    private boolean restarted = false;
+
+
+	public SnapshotPageIterator(CPEC2Gateway ec2Gateway, CPRateController describeCalls, List<Filter> filters, int pageSize) {
+		this(ec2Gateway, describeCalls, filters, pageSize, null);
+	}
+
+	/**
+	 *
+	 * @param ec2Gateway
+	 * @param describeCalls paces the describeSnapshots calls
+	 * @param filters
+	 * @param pageSize number of snapshots per page, clamped to the range EC2 accepts
+	 * @param startToken the NextToken to resume from, or null to start at the first page
+	 */
+	public SnapshotPageIterator(CPEC2Gateway ec2Gateway, CPRateController describeCalls, List<Filter> filters, int pageSize, String startToken) {
+
+		Validate.notNull(ec2Gateway, "The EC2 gateway is null!");
+		Validate.notNull(describeCalls, "The rate controller is null!");
+		Validate.notNull(filters, "The filter given is null!");
+
+		this.ec2Gateway = ec2Gateway;
+		this.describeCalls = describeCalls;
+		this.filters = new ArrayList<Filter>(filters);
+		this.pageSize = Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, pageSize));
+		this.prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "snapshot-page-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		fetch(startToken);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return nextPage != null;
+	}
+
+	@Override
+	public List<Snapshot> next() {
+
+		if (nextPage == null) {
+			throw new NoSuchElementException("No more snapshot pages");
+		}
+
+		DescribeSnapshotsResult result;
+		try {
+			result = await(nextPage);
+		}
+		catch (AmazonServiceException ase) {
+			if (!firstPage || StringUtils.isEmpty(nextPageToken) || !isInvalidToken(ase)) {
+				throw ase;
+			}
+			restarted = true;
+			fetch(null);
+			result = await(nextPage);
+		}
+		this.firstPage = false;
+		this.pageToken = this.nextPageToken;
+
+		if (StringUtils.isNotEmpty(result.getNextToken())) {
+			fetch(result.getNextToken());
+		}
+		else {
+			nextPage = null;
+			nextPageToken = null;
+			prefetchExecutor.shutdown();
+		}
+
+		return result.getSnapshots();
+	}
+
+	/**
+	 * @return the token that was used to request the page last returned by next(), null for the first page
+	 */
+	public String getPageToken() {
+		return pageToken;
+	}
+
+	/**
+	 * @return the token of the page that will be returned by the next call to next(), null if none remain
+	 * or the next page is the first one
+	 */
+	public String getNextPageToken() {
+		return nextPageToken;
+	}
+
+	/**
+	 * @return true if the start token was rejected and the iteration restarted at the first page
+	 */
+	public boolean isRestarted() {
+		return restarted;
+	}
+
+	@Override
+	public void close() {
+		if (nextPage != null) {
+			nextPage.cancel(true);
+			nextPage = null;
+		}
+		prefetchExecutor.shutdownNow();
+	}
+
+	private void fetch(String token) {
+
+		DescribeSnapshotsRequest request = new DescribeSnapshotsRequest();
+		request.setFilters(filters);
+		request.setMaxResults(pageSize);
+		if (StringUtils.isNotEmpty(token)) {
+			request.setNextToken(token);
+		}
+
+		this.nextPageToken = token;
+		this.nextPage = prefetchExecutor.submit(() -> describeCalls.call(() -> ec2Gateway.describeSnapshots(request)));
+	}
+
+	private static boolean isInvalidToken(AmazonServiceException ase) {
+		return INVALID_TOKEN_ERROR_CODE.equals(ase.getErrorCode())
+				|| (INVALID_PARAMETER_ERROR_CODE.equals(ase.getErrorCode()) && StringUtils.containsIgnoreCase(ase.getErrorMessage(), "token"));
+	}
+
+	private static DescribeSnapshotsResult await(Future<DescribeSnapshotsResult> page) {
+
+		try {
+			return page.get();
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new CPRuntimeException("Interrupted while waiting for a snapshot page");
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ee.getCause();
+			}
+			throw new CPRuntimeException("Error fetching a snapshot page: " + ee.getCause());
+		}
+	}
+}
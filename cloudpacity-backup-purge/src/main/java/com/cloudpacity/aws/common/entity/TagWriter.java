@@ -0,0 +1,257 @@
+package com.cloudpacity.aws.common.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.common.gateway.CPEC2Gateway;
+import com.cloudpacity.aws.common.util.CPRateController;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Collects the tags to write to EC2 resources and writes them on flush, grouping the calls by tag,
+ * a key and value, rather than by a resource's whole tag set.  A resource with a tag no other
+ * resource gets, e.g. its name, needs a createTags call of its own, which carries all of its
+ * tags.  A tag shared by resources without a call of their own, e.g. the backup timestamp, goes to
+ * all of them in one call, and the tags going to the same resources share their calls.  When
+ * grouping the resources by their whole tag set takes fewer calls, e.g. many resources getting the
+ * same set, that grouping is written instead.  A call has up to MAX_RESOURCES_PER_CALL resources and
+ * MAX_TAGS_PER_CALL tags.
+ *
+ * EC2 is eventually consistent, a resource just created may not be found by createTags yet, so a
+ * NotFound error is retried up to NOT_FOUND_RETRIES times, the delay doubling from
+ * NOT_FOUND_DELAY_MILLIS.
+ *
+ */
+public class TagWriter
+{
+    public static final int MAX_RESOURCES_PER_CALL = 1000;
+    public static final int MAX_TAGS_PER_CALL = 50;
+    public static final int NOT_FOUND_RETRIES = 5;
+    public static final long NOT_FOUND_DELAY_MILLIS = 500;
+
+    private final CPEC2Gateway ec2Gateway;
+    private final CPRateController mutatingCalls;
+    // resource id -> tag key -> value, the value of a key added again replaces the earlier one
+    private final Map<String, Map<String, String>> tagsByResource = new LinkedHashMap<String, Map<String, String>>();
+
+
+	/**
+	 * @param ec2Gateway
+	 * @param mutatingCalls paces the createTags calls
+	 */
+	public TagWriter(CPEC2Gateway ec2Gateway, CPRateController mutatingCalls) {
+
+		Validate.notNull(ec2Gateway, "The EC2 gateway is null!");
+		Validate.notNull(mutatingCalls, "The rate controller is null!");
+
+		this.ec2Gateway = ec2Gateway;
+		this.mutatingCalls = mutatingCalls;
+	}
+
+	/**
+	 * @param resourceId
+	 * @param tags written to the resource on flush
+	 */
+	public synchronized void add(String resourceId, List<Tag> tags) {
+
+		Validate.notEmpty(resourceId, "The resource id is empty!");
+		Validate.notNull(tags, "The tag list is null!");
+
+		if (tags.isEmpty()) {
+			return;
+		}
+
+		Map<String, String> resourceTags = tagsByResource.computeIfAbsent(resourceId, r -> new LinkedHashMap<String, String>());
+		for (Tag tag : tags) {
+			resourceTags.put(tag.getKey(), tag.getValue());
+		}
+	}
+
+	/**
+	 * Writes the tags added since the last flush.  A failed call does not stop the others, once they
+	 * are made a CPRuntimeException names the resources of the failed ones.
+	 *
+	 * @return the number of createTags calls made
+	 */
+	public synchronized int flush() {
+
+		Map<List<String>, List<Tag>> byTag = groupByTag();
+		Map<List<String>, List<Tag>> byTagSet = groupByTagSet();
+		Map<List<String>, List<Tag>> tagsByResources = (countCalls(byTag) <= countCalls(byTagSet)) ? byTag : byTagSet;
+
+		int calls = 0;
+		Set<String> failedIds = new LinkedHashSet<String>();
+		AmazonClientException failure = null;
+
+		for (Map.Entry<List<String>, List<Tag>> resourcesTags : tagsByResources.entrySet()) {
+
+			List<String> resourceIds = resourcesTags.getKey();
+			List<Tag> tags = resourcesTags.getValue();
+
+			for (int fromResource = 0; fromResource < resourceIds.size(); fromResource += MAX_RESOURCES_PER_CALL) {
+				for (int fromTag = 0; fromTag < tags.size(); fromTag += MAX_TAGS_PER_CALL) {
+
+					CreateTagsRequest createTagsRequest = new CreateTagsRequest()
+							.withResources(new ArrayList<String>(resourceIds.subList(fromResource, Math.min(fromResource + MAX_RESOURCES_PER_CALL, resourceIds.size()))))
+							.withTags(new ArrayList<Tag>(tags.subList(fromTag, Math.min(fromTag + MAX_TAGS_PER_CALL, tags.size()))));
+
+					try {
+						calls += createTags(createTagsRequest);
+					}
+					catch (AmazonClientException ace) {
+						failedIds.addAll(createTagsRequest.getResources());
+						failure = ace;
+					}
+				}
+			}
+		}
+		tagsByResource.clear();
+
+		if (failure != null) {
+			throw new CPRuntimeException("Tagging failed for " + failedIds + ": " + failure.getMessage());
+		}
+		return calls;
+	}
+
+	/**
+	 * @return the resources -> the tags going to exactly those resources, a resource with a tag
+	 * of its own getting all of its tags in its own call
+	 */
+	private Map<List<String>, List<Tag>> groupByTag() {
+
+		// tag -> the resources getting it, in the order they were added
+		Map<Tag, List<String>> resourcesByTag = new LinkedHashMap<Tag, List<String>>();
+		for (Map.Entry<String, Map<String, String>> resourceTags : tagsByResource.entrySet()) {
+			for (Map.Entry<String, String> tag : resourceTags.getValue().entrySet()) {
+				resourcesByTag.computeIfAbsent(new Tag(tag.getKey(), tag.getValue()), t -> new ArrayList<String>()).add(resourceTags.getKey());
+			}
+		}
+
+		Set<String> ownCallIds = new HashSet<String>();
+		for (List<String> resourceIds : resourcesByTag.values()) {
+			if (resourceIds.size() == 1) {
+				ownCallIds.add(resourceIds.get(0));
+			}
+		}
+
+		Map<List<String>, List<Tag>> tagsByResources = new LinkedHashMap<List<String>, List<Tag>>();
+		for (Map.Entry<Tag, List<String>> tagResources : resourcesByTag.entrySet()) {
+
+			List<String> sharedIds = new ArrayList<String>();
+			for (String resourceId : tagResources.getValue()) {
+				if (ownCallIds.contains(resourceId))
+					tagsByResources.computeIfAbsent(Collections.singletonList(resourceId), r -> new ArrayList<Tag>()).add(tagResources.getKey());
+				else
+					sharedIds.add(resourceId);
+			}
+			if (!sharedIds.isEmpty()) {
+				tagsByResources.computeIfAbsent(sharedIds, r -> new ArrayList<Tag>()).add(tagResources.getKey());
+			}
+		}
+		return tagsByResources;
+	}
+
+	/**
+	 * @return the resources -> the tag set they all get, fewer calls than groupByTag() when many
+	 * resources get the same set
+	 */
+	private Map<List<String>, List<Tag>> groupByTagSet() {
+
+		// tag key -> value, the tag set -> its resources
+		Map<Map<String, String>, List<String>> resourcesByTagSet = new LinkedHashMap<Map<String, String>, List<String>>();
+		for (Map.Entry<String, Map<String, String>> resourceTags : tagsByResource.entrySet()) {
+			resourcesByTagSet.computeIfAbsent(resourceTags.getValue(), t -> new ArrayList<String>()).add(resourceTags.getKey());
+		}
+
+		Map<List<String>, List<Tag>> tagsByResources = new LinkedHashMap<List<String>, List<Tag>>();
+		for (Map.Entry<Map<String, String>, List<String>> tagSetResources : resourcesByTagSet.entrySet()) {
+
+			List<Tag> tags = new ArrayList<Tag>();
+			for (Map.Entry<String, String> tag : tagSetResources.getKey().entrySet()) {
+				tags.add(new Tag(tag.getKey(), tag.getValue()));
+			}
+			tagsByResources.put(tagSetResources.getValue(), tags);
+		}
+		return tagsByResources;
+	}
+
+	/**
+	 * @param tagsByResources
+	 * @return the createTags calls writing the tags take, without NotFound retries
+	 */
+	private static int countCalls(Map<List<String>, List<Tag>> tagsByResources) {
+
+		int calls = 0;
+		for (Map.Entry<List<String>, List<Tag>> resourcesTags : tagsByResources.entrySet()) {
+			calls += ((resourcesTags.getKey().size() + MAX_RESOURCES_PER_CALL - 1) / MAX_RESOURCES_PER_CALL)
+					* ((resourcesTags.getValue().size() + MAX_TAGS_PER_CALL - 1) / MAX_TAGS_PER_CALL);
+		}
+		return calls;
+	}
+
+	/**
+	 * @param createTagsRequest
+	 * @return the number of createTags calls made
+	 */
+	private int createTags(CreateTagsRequest createTagsRequest) {
+
+		long delayMillis = NOT_FOUND_DELAY_MILLIS;
+
+		for (int attempt = 1; ; attempt++) {
+			try {
+				mutatingCalls.call(() -> ec2Gateway.createTags(createTagsRequest));
+				return attempt;
+			}
+			catch (AmazonServiceException ase) {
+				if (attempt > NOT_FOUND_RETRIES || !StringUtils.endsWith(ase.getErrorCode(), ".NotFound")) {
+					throw ase;
+				}
+			}
+
+			try {
+				Thread.sleep(delayMillis);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new CPRuntimeException("Interrupted while tagging " + createTagsRequest.getResources());
+			}
+			delayMillis *= 2;
+		}
+	}
+
+	/**
+	 * @return the number of resources waiting for the next flush
+	 */
+	public synchronized int size() {
+
+		return tagsByResource.size();
+	}
+}
@@ -0,0 +1,72 @@
+package com.cloudpacity.aws.common.gateway;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.ec2.AmazonEC2Async;
+import com.amazonaws.services.ec2.model.DeleteSnapshotRequest;
+import com.amazonaws.services.ec2.model.DeleteSnapshotResult;
+import com.amazonaws.services.ec2.model.DeregisterImageRequest;
+import com.amazonaws.services.ec2.model.DeregisterImageResult;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Gateway over the async EC2 client.  Async operations are completed from the client's own
+ * executor through an AsyncHandler, so callers never block a thread per request and the number
+ * of request threads is set by the client's executor rather than by the number in flight.
+ * The blocking operations use the same client.
+ *
+ */
+public class CPEC2AsyncGateway extends CPEC2SyncGateway
+{
+	protected final AmazonEC2Async ec2AsyncClient;
+
+
+	public CPEC2AsyncGateway(AmazonEC2Async ec2AsyncClient) {
+		super(ec2AsyncClient);
+		this.ec2AsyncClient = ec2AsyncClient;
+	}
+
+	@Override
+	public CompletableFuture<DeregisterImageResult> deregisterImageAsync(DeregisterImageRequest request) {
+		CompletableFuture<DeregisterImageResult> future = new CompletableFuture<DeregisterImageResult>();
+		ec2AsyncClient.deregisterImageAsync(request, completing(future));
+		return future;
+	}
+
+	@Override
+	public CompletableFuture<DeleteSnapshotResult> deleteSnapshotAsync(DeleteSnapshotRequest request) {
+		CompletableFuture<DeleteSnapshotResult> future = new CompletableFuture<DeleteSnapshotResult>();
+		ec2AsyncClient.deleteSnapshotAsync(request, completing(future));
+		return future;
+	}
+
+	private static <REQUEST extends AmazonWebServiceRequest, RESULT> AsyncHandler<REQUEST, RESULT> completing(CompletableFuture<RESULT> future) {
+
+		return new AsyncHandler<REQUEST, RESULT>() {
+
+			public void onSuccess(REQUEST request, RESULT result) {
+				future.complete(result);
+			}
+
+			public void onError(Exception exception) {
+				future.completeExceptionally(exception);
+			}
+		};
+	}
+}
@@ -0,0 +1,78 @@
+package com.cloudpacity.aws.common.gateway;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.CreateImageResult;
+import com.amazonaws.services.ec2.model.CreateSnapshotRequest;
+import com.amazonaws.services.ec2.model.CreateSnapshotResult;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.amazonaws.services.ec2.model.DeleteSnapshotRequest;
+import com.amazonaws.services.ec2.model.DeleteSnapshotResult;
+import com.amazonaws.services.ec2.model.DeleteTagsRequest;
+import com.amazonaws.services.ec2.model.DeleteTagsResult;
+import com.amazonaws.services.ec2.model.DeregisterImageRequest;
+import com.amazonaws.services.ec2.model.DeregisterImageResult;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsRequest;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsResult;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesResult;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesResult;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The EC2 operations the entities use.  Entities talk to EC2 only through this interface so the
+ * transport (sync or async client) can be chosen per deployment, and a test double can stand in
+ * for AWS entirely.
+ *
+ * The async operations return a future completed with the result or with the AWS exception.
+ *
+ */
+public interface CPEC2Gateway
+{
+	DescribeImagesResult describeImages(DescribeImagesRequest request);
+
+	DescribeSnapshotsResult describeSnapshots(DescribeSnapshotsRequest request);
+
+	DescribeInstancesResult describeInstances(DescribeInstancesRequest request);
+
+	DeregisterImageResult deregisterImage(DeregisterImageRequest request);
+
+	DeleteSnapshotResult deleteSnapshot(DeleteSnapshotRequest request);
+
+	CreateTagsResult createTags(CreateTagsRequest request);
+
+	DeleteTagsResult deleteTags(DeleteTagsRequest request);
+
+	CreateImageResult createImage(CreateImageRequest request);
+
+	CreateSnapshotResult createSnapshot(CreateSnapshotRequest request);
+
+	StartInstancesResult startInstances(StartInstancesRequest request);
+
+	StopInstancesResult stopInstances(StopInstancesRequest request);
+
+	CompletableFuture<DeregisterImageResult> deregisterImageAsync(DeregisterImageRequest request);
+
+	CompletableFuture<DeleteSnapshotResult> deleteSnapshotAsync(DeleteSnapshotRequest request);
+}
@@ -0,0 +1,126 @@
+package com.cloudpacity.aws.common.gateway;
+
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.ec2.AmazonEC2AsyncClientBuilder;
+import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.common.util.CPClientCache;
+import com.cloudpacity.aws.common.util.CPRateController;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+public class CPEC2GatewayFactory
+{
+	public static final String GATEWAY_MODE_SYNC = "sync";
+	public static final String GATEWAY_MODE_ASYNC = "async";
+	public static final String CLIENT_TYPE_EC2 = "EC2";
+	public static final String CLIENT_TYPE_EC2_ASYNC = "EC2Async";
+	public static final String CLIENT_TYPE_EC2_NO_RETRY = "EC2NoRetry";
+
+
+	/**
+	 * Builds the gateway selected by the EC2GatewayMode environment variable, recording its calls
+	 * in CPMetrics unless MetricsEnabled is false
+	 *
+	 * @param regionName
+	 * @return
+	 */
+	public static CPEC2Gateway create(String regionName) {
+
+		return create(regionName, null);
+	}
+
+	/**
+	 * @param regionName
+	 * @param credentialsProvider the client's credentials, null for the default provider chain
+	 * @return
+	 */
+	public static CPEC2Gateway create(String regionName, AWSCredentialsProvider credentialsProvider) {
+
+		return instrument(createClientGateway(regionName, credentialsProvider));
+	}
+
+	/**
+	 * A gateway for the calls that are not safe to repeat blindly, e.g. CreateImage and
+	 * CreateSnapshot:  its client makes no SDK retries, see CPRateController.noRetryClientConfiguration().
+	 *
+	 * @param regionName
+	 * @param credentialsProvider the client's credentials, null for the default provider chain
+	 * @return
+	 */
+	public static CPEC2Gateway createWithoutRetries(String regionName, AWSCredentialsProvider credentialsProvider) {
+
+		Validate.notEmpty(regionName, "The AWS region name provided is empty!");
+
+		return instrument(new CPEC2SyncGateway(CPClientCache.get(CLIENT_TYPE_EC2_NO_RETRY, regionName, credentialsProvider, () -> {
+			AmazonEC2ClientBuilder builder = AmazonEC2ClientBuilder.standard()
+					.withRegion(regionName)
+					.withClientConfiguration(CPRateController.noRetryClientConfiguration());
+			if (credentialsProvider != null)
+				builder.setCredentials(credentialsProvider);
+			return builder.build();
+		})));
+	}
+
+	/**
+	 * @param gateway e.g. an in-process EC2 simulator
+	 * @return the gateway recording its calls in CPMetrics, unless MetricsEnabled is false
+	 */
+	public static CPEC2Gateway instrument(CPEC2Gateway gateway) {
+
+		Validate.notNull(gateway, "The EC2 gateway is null!");
+
+		if (CPCommonEnv.isMetricsEnabled())
+			return new CPInstrumentedEC2Gateway(gateway, CPMetrics.getInstance());
+		else
+			return gateway;
+	}
+
+	private static CPEC2Gateway createClientGateway(String regionName, AWSCredentialsProvider credentialsProvider) {
+
+		Validate.notEmpty(regionName, "The AWS region name provided is empty!");
+
+		// the clients outlive the invocation, a warm container reuses them
+		if (GATEWAY_MODE_ASYNC.equalsIgnoreCase(CPCommonEnv.getEC2GatewayMode())) {
+			return new CPEC2AsyncGateway(CPClientCache.get(CLIENT_TYPE_EC2_ASYNC, regionName, credentialsProvider, () -> {
+				int asyncThreads = CPCommonEnv.getEC2AsyncThreads();
+				AmazonEC2AsyncClientBuilder builder = AmazonEC2AsyncClientBuilder.standard()
+						.withRegion(regionName)
+						.withClientConfiguration(CPRateController.clientConfiguration())
+						.withExecutorFactory(() -> Executors.newFixedThreadPool(asyncThreads));
+				if (credentialsProvider != null)
+					builder.setCredentials(credentialsProvider);
+				return builder.build();
+			}));
+		}
+
+		return new CPEC2SyncGateway(CPClientCache.get(CLIENT_TYPE_EC2, regionName, credentialsProvider, () -> {
+			AmazonEC2ClientBuilder builder = AmazonEC2ClientBuilder.standard()
+					.withRegion(regionName)
+					.withClientConfiguration(CPRateController.clientConfiguration());
+			if (credentialsProvider != null)
+				builder.setCredentials(credentialsProvider);
+			return builder.build();
+		}));
+	}
+}
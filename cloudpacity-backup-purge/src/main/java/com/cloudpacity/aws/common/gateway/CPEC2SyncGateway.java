@@ -0,0 +1,120 @@
+package com.cloudpacity.aws.common.gateway;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.CreateImageResult;
+import com.amazonaws.services.ec2.model.CreateSnapshotRequest;
+import com.amazonaws.services.ec2.model.CreateSnapshotResult;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.amazonaws.services.ec2.model.DeleteSnapshotRequest;
+import com.amazonaws.services.ec2.model.DeleteSnapshotResult;
+import com.amazonaws.services.ec2.model.DeleteTagsRequest;
+import com.amazonaws.services.ec2.model.DeleteTagsResult;
+import com.amazonaws.services.ec2.model.DeregisterImageRequest;
+import com.amazonaws.services.ec2.model.DeregisterImageResult;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsRequest;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsResult;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesResult;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesResult;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Gateway over the blocking EC2 client.  The async operations each take a thread from an
+ * unbounded daemon pool for the length of the request, callers bound the number in flight.
+ *
+ */
+public class CPEC2SyncGateway implements CPEC2Gateway
+{
+	private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "ec2-sync-gateway");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	protected final AmazonEC2 ec2Client;
+
+
+	public CPEC2SyncGateway(AmazonEC2 ec2Client) {
+		Validate.notNull(ec2Client, "The EC2 client is null!");
+		this.ec2Client = ec2Client;
+	}
+
+	public DescribeImagesResult describeImages(DescribeImagesRequest request) {
+		return ec2Client.describeImages(request);
+	}
+
+	public DescribeSnapshotsResult describeSnapshots(DescribeSnapshotsRequest request) {
+		return ec2Client.describeSnapshots(request);
+	}
+
+	public DescribeInstancesResult describeInstances(DescribeInstancesRequest request) {
+		return ec2Client.describeInstances(request);
+	}
+
+	public DeregisterImageResult deregisterImage(DeregisterImageRequest request) {
+		return ec2Client.deregisterImage(request);
+	}
+
+	public DeleteSnapshotResult deleteSnapshot(DeleteSnapshotRequest request) {
+		return ec2Client.deleteSnapshot(request);
+	}
+
+	public CreateTagsResult createTags(CreateTagsRequest request) {
+		return ec2Client.createTags(request);
+	}
+
+	public DeleteTagsResult deleteTags(DeleteTagsRequest request) {
+		return ec2Client.deleteTags(request);
+	}
+
+	public CreateImageResult createImage(CreateImageRequest request) {
+		return ec2Client.createImage(request);
+	}
+
+	public CreateSnapshotResult createSnapshot(CreateSnapshotRequest request) {
+		return ec2Client.createSnapshot(request);
+	}
+
+	public StartInstancesResult startInstances(StartInstancesRequest request) {
+		return ec2Client.startInstances(request);
+	}
+
+	public StopInstancesResult stopInstances(StopInstancesRequest request) {
+		return ec2Client.stopInstances(request);
+	}
+
+	public CompletableFuture<DeregisterImageResult> deregisterImageAsync(DeregisterImageRequest request) {
+		return CompletableFuture.supplyAsync(() -> deregisterImage(request), ASYNC_EXECUTOR);
+	}
+
+	public CompletableFuture<DeleteSnapshotResult> deleteSnapshotAsync(DeleteSnapshotRequest request) {
+		return CompletableFuture.supplyAsync(() -> deleteSnapshot(request), ASYNC_EXECUTOR);
+	}
+}
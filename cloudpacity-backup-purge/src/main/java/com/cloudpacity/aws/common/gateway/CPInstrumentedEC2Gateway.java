@@ -0,0 +1,148 @@
+package com.cloudpacity.aws.common.gateway;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.CreateImageResult;
+import com.amazonaws.services.ec2.model.CreateSnapshotRequest;
+import com.amazonaws.services.ec2.model.CreateSnapshotResult;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.amazonaws.services.ec2.model.DeleteSnapshotRequest;
+import com.amazonaws.services.ec2.model.DeleteSnapshotResult;
+import com.amazonaws.services.ec2.model.DeleteTagsRequest;
+import com.amazonaws.services.ec2.model.DeleteTagsResult;
+import com.amazonaws.services.ec2.model.DeregisterImageRequest;
+import com.amazonaws.services.ec2.model.DeregisterImageResult;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsRequest;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsResult;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesResult;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesResult;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Records the latency, throttles and errors of every call made through another gateway in
+ * CPMetrics, under the EC2 operation's name.
+ *
+ */
+public class CPInstrumentedEC2Gateway implements CPEC2Gateway
+{
+	protected final CPEC2Gateway delegate;
+	protected final CPMetrics metrics;
+
+
+	public CPInstrumentedEC2Gateway(CPEC2Gateway delegate, CPMetrics metrics) {
+		Validate.notNull(delegate, "The EC2 gateway is null!");
+		Validate.notNull(metrics, "The metrics are null!");
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	public DescribeImagesResult describeImages(DescribeImagesRequest request) {
+		return timed("DescribeImages", () -> delegate.describeImages(request));
+	}
+
+	public DescribeSnapshotsResult describeSnapshots(DescribeSnapshotsRequest request) {
+		return timed("DescribeSnapshots", () -> delegate.describeSnapshots(request));
+	}
+
+	public DescribeInstancesResult describeInstances(DescribeInstancesRequest request) {
+		return timed("DescribeInstances", () -> delegate.describeInstances(request));
+	}
+
+	public DeregisterImageResult deregisterImage(DeregisterImageRequest request) {
+		return timed("DeregisterImage", () -> delegate.deregisterImage(request));
+	}
+
+	public DeleteSnapshotResult deleteSnapshot(DeleteSnapshotRequest request) {
+		return timed("DeleteSnapshot", () -> delegate.deleteSnapshot(request));
+	}
+
+	public CreateTagsResult createTags(CreateTagsRequest request) {
+		return timed("CreateTags", () -> delegate.createTags(request));
+	}
+
+	public DeleteTagsResult deleteTags(DeleteTagsRequest request) {
+		return timed("DeleteTags", () -> delegate.deleteTags(request));
+	}
+
+	public CreateImageResult createImage(CreateImageRequest request) {
+		return timed("CreateImage", () -> delegate.createImage(request));
+	}
+
+	public CreateSnapshotResult createSnapshot(CreateSnapshotRequest request) {
+		return timed("CreateSnapshot", () -> delegate.createSnapshot(request));
+	}
+
+	public StartInstancesResult startInstances(StartInstancesRequest request) {
+		return timed("StartInstances", () -> delegate.startInstances(request));
+	}
+
+	public StopInstancesResult stopInstances(StopInstancesRequest request) {
+		return timed("StopInstances", () -> delegate.stopInstances(request));
+	}
+
+	public CompletableFuture<DeregisterImageResult> deregisterImageAsync(DeregisterImageRequest request) {
+		return timedAsync("DeregisterImage", () -> delegate.deregisterImageAsync(request));
+	}
+
+	public CompletableFuture<DeleteSnapshotResult> deleteSnapshotAsync(DeleteSnapshotRequest request) {
+		return timedAsync("DeleteSnapshot", () -> delegate.deleteSnapshotAsync(request));
+	}
+
+	private <T> T timed(String operation, Supplier<T> call) {
+
+		long startNanos = System.nanoTime();
+		try {
+			T result = call.get();
+			metrics.recordCall(operation, startNanos, null);
+			return result;
+		}
+		catch (RuntimeException re) {
+			metrics.recordCall(operation, startNanos, re);
+			throw re;
+		}
+	}
+
+	private <T> CompletableFuture<T> timedAsync(String operation, Supplier<CompletableFuture<T>> call) {
+
+		long startNanos = System.nanoTime();
+		CompletableFuture<T> future;
+		try {
+			future = call.get();
+		}
+		catch (RuntimeException re) {
+			metrics.recordCall(operation, startNanos, re);
+			throw re;
+		}
+
+		future.whenComplete((result, error) -> metrics.recordCall(operation, startNanos,
+				(error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error));
+		return future;
+	}
+}
@@ -0,0 +1,115 @@
+package com.cloudpacity.aws.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * A lock free latency histogram with fixed millisecond buckets.  Percentiles are reported as
+ * the upper bound of the bucket they fall in.
+ *
+ */
+public class CPLatencyHistogram
+{
+    // bucket i holds latencies up to BUCKET_BOUNDS_MILLIS[i], the last bucket holds the rest
+    public static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMillis = new LongAdder();
+    private final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+
+
+    public void record(long millis)
+    {
+        bucketCounts.incrementAndGet(bucketIndex(millis));
+        count.increment();
+        sumMillis.add(millis);
+        maxMillis.accumulate(millis);
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getSumMillis()
+    {
+        return sumMillis.sum();
+    }
+
+    public long getMaxMillis()
+    {
+        return maxMillis.get();
+    }
+
+    public long getBucketCount(int bucket)
+    {
+        return bucketCounts.get(bucket);
+    }
+
+    public int getBucketTotal()
+    {
+        return bucketCounts.length();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the upper bound of the bucket holding the quantile, the maximum for the last bucket
+     */
+    public long getPercentileMillis(double quantile)
+    {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKET_BOUNDS_MILLIS.length; bucket++) {
+            seen += bucketCounts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(BUCKET_BOUNDS_MILLIS[bucket], getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * @param bucket
+     * @return a label such as "<=50ms", or ">30000ms" for the last bucket
+     */
+    public static String getBucketLabel(int bucket)
+    {
+        if (bucket < BUCKET_BOUNDS_MILLIS.length) {
+            return "<=" + BUCKET_BOUNDS_MILLIS[bucket] + "ms";
+        }
+        return ">" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1] + "ms";
+    }
+
+    private static int bucketIndex(long millis)
+    {
+        for (int bucket = 0; bucket < BUCKET_BOUNDS_MILLIS.length; bucket++) {
+            if (millis <= BUCKET_BOUNDS_MILLIS[bucket]) {
+                return bucket;
+            }
+        }
+        return BUCKET_BOUNDS_MILLIS.length;
+    }
+}
@@ -0,0 +1,244 @@
+package com.cloudpacity.aws.common.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The process wide metrics of a run:  per API operation call stats and run level counters.
+ * drainEMF() renders them as CloudWatch Embedded Metric Format (EMF) JSON lines, which become
+ * CloudWatch metrics when written to the Lambda log, and starts a new set of metrics.
+ *
+ */
+public class CPMetrics
+{
+    public static final String UNIT_COUNT = "Count";
+    public static final String UNIT_GIGABYTES = "Gigabytes";
+    public static final String UNIT_MILLISECONDS = "Milliseconds";
+
+    public static final String DIMENSION_SERVICE = "Service";
+    public static final String DIMENSION_OPERATION = "Operation";
+
+    private static final CPMetrics INSTANCE = new CPMetrics();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static class Counter {
+        final String unit;
+        final DoubleAdder value = new DoubleAdder();
+
+        Counter(String unit) {
+            this.unit = unit;
+        }
+    }
+
+    private static class Run {
+        final long startNanos = System.nanoTime();
+        final Map<String, CPOperationStats> operations = new ConcurrentHashMap<String, CPOperationStats>();
+        final Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    }
+
+    private volatile Run run = new Run();
+
+
+    public static CPMetrics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Records one attempt of an API operation
+     *
+     * @param operation e.g. "DescribeSnapshots"
+     * @param startNanos System.nanoTime() when the call was made
+     * @param error the call's exception, null if it succeeded
+     */
+    public void recordCall(String operation, long startNanos, Throwable error)
+    {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        boolean throttled = error instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) error);
+
+        getOperationStats(operation).record(millis, throttled, error != null);
+    }
+
+    /**
+     * Discards the metrics recorded so far, e.g. those of a warm container's previous run
+     */
+    public void reset()
+    {
+        run = new Run();
+    }
+
+    public CPOperationStats getOperationStats(String operation)
+    {
+        return run.operations.computeIfAbsent(operation, CPOperationStats::new);
+    }
+
+    public void increment(String counter)
+    {
+        add(counter, 1, UNIT_COUNT);
+    }
+
+    public void add(String counter, double amount, String unit)
+    {
+        run.counters.computeIfAbsent(counter, name -> new Counter(unit)).value.add(amount);
+    }
+
+    public double getCounter(String counter)
+    {
+        Counter value = run.counters.get(counter);
+        return (value == null) ? 0 : value.value.sum();
+    }
+
+    /**
+     * Renders the metrics recorded since the last drain and starts over
+     *
+     * @param namespace the CloudWatch namespace
+     * @param service the Service dimension's value
+     * @return one EMF document per operation, then one for the run's counters if any were recorded
+     */
+    public List<String> drainEMF(String namespace, String service)
+    {
+        Validate.notEmpty(namespace, "The metrics namespace is empty!");
+        Validate.notEmpty(service, "The metrics service is empty!");
+
+        Run drained = run;
+        run = new Run();
+
+        long timestamp = System.currentTimeMillis();
+        List<String> documents = new ArrayList<String>();
+
+        try {
+            for (CPOperationStats stats : drained.operations.values()) {
+                documents.add(toEMF(namespace, service, timestamp, stats));
+            }
+            if (!drained.counters.isEmpty()) {
+                documents.add(toEMF(namespace, service, timestamp, drained));
+            }
+        }
+        catch (IOException ioe) {
+            throw new CPRuntimeException("Error rendering the run's metrics: " + ioe.getMessage());
+        }
+        return documents;
+    }
+
+    private static String toEMF(String namespace, String service, long timestamp, CPOperationStats stats) throws IOException
+    {
+        StringWriter writer = new StringWriter();
+
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(writer)) {
+
+            CPLatencyHistogram latency = stats.getLatency();
+
+            json.writeStartObject();
+            writeMetadata(json, namespace, timestamp, true,
+                    new String[] {"Calls", "Throttles", "Errors", "LatencyP50", "LatencyP90", "LatencyP99", "LatencyMax", "LatencyAvg"},
+                    new String[] {UNIT_COUNT, UNIT_COUNT, UNIT_COUNT, UNIT_MILLISECONDS, UNIT_MILLISECONDS, UNIT_MILLISECONDS, UNIT_MILLISECONDS, UNIT_MILLISECONDS});
+            json.writeStringField(DIMENSION_SERVICE, service);
+            json.writeStringField(DIMENSION_OPERATION, stats.getOperation());
+            json.writeNumberField("Calls", stats.getCalls());
+            json.writeNumberField("Throttles", stats.getThrottles());
+            json.writeNumberField("Errors", stats.getErrors());
+            json.writeNumberField("LatencyP50", latency.getPercentileMillis(0.50));
+            json.writeNumberField("LatencyP90", latency.getPercentileMillis(0.90));
+            json.writeNumberField("LatencyP99", latency.getPercentileMillis(0.99));
+            json.writeNumberField("LatencyMax", latency.getMaxMillis());
+            json.writeNumberField("LatencyAvg", (latency.getCount() == 0) ? 0 : latency.getSumMillis() / latency.getCount());
+
+            // the full histogram is kept as a log property for Logs Insights queries
+            json.writeObjectFieldStart("LatencyHistogram");
+            for (int bucket = 0; bucket < latency.getBucketTotal(); bucket++) {
+                json.writeNumberField(CPLatencyHistogram.getBucketLabel(bucket), latency.getBucketCount(bucket));
+            }
+            json.writeEndObject();
+
+            json.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    private static String toEMF(String namespace, String service, long timestamp, Run drained) throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        List<String> names = new ArrayList<String>(drained.counters.keySet());
+        names.add("RunDuration");
+
+        String[] units = new String[names.size()];
+        for (int i = 0; i < names.size() - 1; i++) {
+            units[i] = drained.counters.get(names.get(i)).unit;
+        }
+        units[names.size() - 1] = UNIT_MILLISECONDS;
+
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(writer)) {
+
+            json.writeStartObject();
+            writeMetadata(json, namespace, timestamp, false, names.toArray(new String[names.size()]), units);
+            json.writeStringField(DIMENSION_SERVICE, service);
+            for (int i = 0; i < names.size() - 1; i++) {
+                json.writeNumberField(names.get(i), drained.counters.get(names.get(i)).value.sum());
+            }
+            json.writeNumberField("RunDuration", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - drained.startNanos));
+            json.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    private static void writeMetadata(JsonGenerator json, String namespace, long timestamp, boolean perOperation
+            , String[] metricNames, String[] units) throws IOException
+    {
+        json.writeObjectFieldStart("_aws");
+        json.writeNumberField("Timestamp", timestamp);
+        json.writeArrayFieldStart("CloudWatchMetrics");
+        json.writeStartObject();
+        json.writeStringField("Namespace", namespace);
+
+        json.writeArrayFieldStart("Dimensions");
+        json.writeStartArray();
+        json.writeString(DIMENSION_SERVICE);
+        if (perOperation) {
+            json.writeString(DIMENSION_OPERATION);
+        }
+        json.writeEndArray();
+        json.writeEndArray();
+
+        json.writeArrayFieldStart("Metrics");
+        for (int i = 0; i < metricNames.length; i++) {
+            json.writeStartObject();
+            json.writeStringField("Name", metricNames[i]);
+            json.writeStringField("Unit", units[i]);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+
+        json.writeEndObject();
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+}
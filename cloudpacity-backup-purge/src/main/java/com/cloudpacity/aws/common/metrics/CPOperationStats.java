@@ -0,0 +1,78 @@
+package com.cloudpacity.aws.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Call count, latency, throttles and errors of one AWS API operation.  Every attempt is a call,
+ * so a retried request counts once per attempt.
+ *
+ */
+public class CPOperationStats
+{
+    private final String operation;
+    private final CPLatencyHistogram latency = new CPLatencyHistogram();
+    private final LongAdder throttles = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+
+    public CPOperationStats(String operation)
+    {
+        this.operation = operation;
+    }
+
+    /**
+     * @param millis the call's latency
+     * @param throttled the call was rejected by throttling
+     * @param failed the call failed for any other reason
+     */
+    public void record(long millis, boolean throttled, boolean failed)
+    {
+        latency.record(millis);
+        if (throttled) {
+            throttles.increment();
+        }
+        else if (failed) {
+            errors.increment();
+        }
+    }
+
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    public CPLatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    public long getCalls()
+    {
+        return latency.getCount();
+    }
+
+    public long getThrottles()
+    {
+        return throttles.sum();
+    }
+
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+}
@@ -0,0 +1,76 @@
+package com.cloudpacity.aws.common.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Process wide AWS clients, keyed by client type, region and credentials provider.  A client is
+ * built on first use and kept for the life of the container, so warm invocations reuse its
+ * connection pool, TLS sessions and resolved credentials.  The clients are never shut down.
+ * Building a client is recorded in CPMetrics as a "ClientCreate" call, which a warm invocation
+ * does not make.
+ *
+ */
+public class CPClientCache
+{
+    public static final String CLIENT_CREATE_OPERATION = "ClientCreate";
+
+    private static final ConcurrentMap<List<Object>, Object> CLIENTS = new ConcurrentHashMap<List<Object>, Object>();
+
+
+    /**
+     * @param clientType e.g. "EC2", separates the clients of different services or configurations
+     * @param regionName
+     * @param credentialsProvider null for the default provider chain, providers are compared by identity
+     * @param factory builds the client the first time it is needed
+     * @return the cached client
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String clientType, String regionName, AWSCredentialsProvider credentialsProvider, Supplier<T> factory)
+    {
+        Validate.notEmpty(clientType, "The client type is empty!");
+        Validate.notEmpty(regionName, "The AWS region name provided is empty!");
+        Validate.notNull(factory, "The client factory is null!");
+
+        return (T) CLIENTS.computeIfAbsent(Arrays.asList(clientType, regionName, credentialsProvider), key -> create(factory));
+    }
+
+    /**
+     * @return the number of clients built so far
+     */
+    public static int size()
+    {
+        return CLIENTS.size();
+    }
+
+    private static Object create(Supplier<?> factory)
+    {
+        long startNanos = System.nanoTime();
+        Object client = factory.get();
+        CPMetrics.getInstance().recordCall(CLIENT_CREATE_OPERATION, startNanos, null);
+        return client;
+    }
+}
@@ -0,0 +1,89 @@
+package com.cloudpacity.aws.common.util;
+
+import java.util.ArrayDeque;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * A thread safe, append only line buffer holding at most about maxChars characters.  The first
+ * half of the capacity keeps the earliest lines, the second half the latest ones; lines pushed
+ * out of the middle are counted and reported in their place.  Appends are amortized constant time.
+ *
+ */
+public class CPLogBuffer
+{
+    private final int headCapacity;
+    private final int tailCapacity;
+
+    private final StringBuilder head = new StringBuilder();
+    private final ArrayDeque<String> tail = new ArrayDeque<String>();
+    private int tailLength = 0;
+    private boolean headFull = false;
+    private long droppedLines = 0;
+
+
+    public CPLogBuffer(int maxChars)
+    {
+        Validate.isTrue(maxChars > 0, "The log buffer size must be positive!");
+
+        this.headCapacity = maxChars / 2;
+        this.tailCapacity = maxChars - headCapacity;
+    }
+
+    /**
+     * @param line a complete line, including its line separator
+     */
+    public synchronized void append(String line)
+    {
+        if (!headFull) {
+            if (head.length() + line.length() <= headCapacity) {
+                head.append(line);
+                return;
+            }
+            headFull = true;
+        }
+
+        tail.addLast(line);
+        tailLength += line.length();
+
+        // always keep the latest line, even one longer than the tail's capacity
+        while (tailLength > tailCapacity && tail.size() > 1) {
+            tailLength -= tail.removeFirst().length();
+            droppedLines++;
+        }
+    }
+
+    public synchronized long getDroppedLines()
+    {
+        return droppedLines;
+    }
+
+    public synchronized String toString()
+    {
+        StringBuilder buffer = new StringBuilder(head.length() + tailLength + 64);
+
+        buffer.append(head);
+        if (droppedLines > 0) {
+            buffer.append("... ").append(droppedLines).append(" lines dropped ...").append(System.lineSeparator());
+        }
+        for (String line: tail) {
+            buffer.append(line);
+        }
+        return buffer.toString();
+    }
+}
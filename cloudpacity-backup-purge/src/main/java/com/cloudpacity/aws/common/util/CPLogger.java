@@ -1,10 +1,12 @@
 package com.cloudpacity.aws.common.util;
 
+import java.time.Clock;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.cloudpacity.aws.common.CPCommonEnv;
 /**
  * 
  * Copyright 2015 Cloudpacity
@@ -21,87 +23,138 @@ import com.amazonaws.services.lambda.runtime.LambdaLogger;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  * 
+ * The log and summary messages are kept in bounded CPLogBuffers, so appending is linear and the
+ * messages posted at the end of a run stay within LogBufferMaxChars each.  A logger may be shared
+ * by concurrent workers, or each may get its own from newLogger().
+ * 
  * @author Scott Wheeler
  *
  */
 public class CPLogger
 {
     public static final int DEFAULT_DEBUG_QUEUE_SIZE = 20;
-    protected LambdaLogger logger;
-    protected ZonedDateTime currDateTime;
-    protected ZoneId zoneCDT;
-    protected String timezone;
     public static final String DEFAULT_TIME_ZONE = "America/Chicago";
+    protected static final String LINE_SEPARATOR = System.lineSeparator();
+    protected final LambdaLogger logger;
+    protected final String timezone;
+    protected final ZoneId zoneId;
+    protected final Clock clock;
+    protected final int maxBufferChars;
+    protected final String prefix;
 	protected final ArrayBlockingQueue<String> debugMessageQueue = new ArrayBlockingQueue<String>(DEFAULT_DEBUG_QUEUE_SIZE);
-    protected String logMessages = "";
-    protected String summaryLogMessages = "";
+    protected final CPLogBuffer logMessages;
+    protected final CPLogBuffer summaryLogMessages;
 
     
     public CPLogger(LambdaLogger logger)
     {
-        this.logger = logger;
-        this.timezone = DEFAULT_TIME_ZONE;
+        this(logger, DEFAULT_TIME_ZONE);
     }
 
     public CPLogger(LambdaLogger logger, String timezone)
     {
-        this.timezone = timezone;
+        this(logger, Clock.system(ZoneId.of(timezone)), CPCommonEnv.getLogBufferMaxChars());
+    }
+
+    /**
+     * @param logger
+     * @param clock supplies the time and zone of the log line timestamps
+     * @param maxBufferChars the capacity of each of the log and summary buffers
+     */
+    public CPLogger(LambdaLogger logger, Clock clock, int maxBufferChars)
+    {
+        this(logger, clock, maxBufferChars, "");
+    }
+
+    protected CPLogger(LambdaLogger logger, Clock clock, int maxBufferChars, String prefix)
+    {
         this.logger = logger;
+        this.maxBufferChars = maxBufferChars;
+        this.prefix = prefix;
+        this.clock = clock;
+        this.zoneId = clock.getZone();
+        this.timezone = zoneId.getId();
+        this.logMessages = new CPLogBuffer(maxBufferChars);
+        this.summaryLogMessages = new CPLogBuffer(maxBufferChars);
     }
     
+    /**
+     * @param prefix starts each line the new logger writes to the Lambda log, e.g. "[us-west-2] "
+     * @return a logger with its own messages, writing to the same Lambda log
+     */
+    public CPLogger newLogger(String prefix)
+    {
+        return new CPLogger(logger, clock, maxBufferChars, this.prefix + prefix);
+    }
+
     public void logSummary(String message)
     {
-        summaryLogMessages = summaryLogMessages +  message + System.getProperty("line.separator");
+        summaryLogMessages.append(message + LINE_SEPARATOR);
     }
 
     public void log(String message)
     {
-        zoneCDT = ZoneId.of(this.timezone);
-        currDateTime = ZonedDateTime.now(zoneCDT);
-        logger.log(currDateTime.toString() + ":  " + message);
-        logMessages = logMessages + currDateTime.toString() + ": " + message + System.getProperty("line.separator");
+        String timestamp = ZonedDateTime.now(clock).toString();
+        logger.log(prefix + timestamp + ":  " + message);
+        logMessages.append(timestamp + ": " + message + LINE_SEPARATOR);
+    }
+
+    /**
+     * Adds another logger's log messages, e.g. those of a worker's logger, to this logger's
+     * messages without writing them to the Lambda log again.
+     */
+    public void appendLogMessages(CPLogger other)
+    {
+        logMessages.append(other.getLogMessages());
+    }
+
+    /**
+     * Writes the message to the Lambda log as is, without a timestamp and without keeping it in
+     * the log messages, e.g. for EMF metric documents.
+     */
+    public void logRaw(String message)
+    {
+        logger.log(message + LINE_SEPARATOR);
     }
 
     public void logDebug(String message)
     {
-        zoneCDT = ZoneId.of(this.timezone);
-        currDateTime = ZonedDateTime.now(zoneCDT);
         addDebugMessage(message);
     }
 
     protected void addDebugMessage(String message)
     {
-        while (debugMessageQueue.size() >= DEFAULT_DEBUG_QUEUE_SIZE ) {
-        	debugMessageQueue.poll();
+        synchronized (debugMessageQueue) {
+	        while (!debugMessageQueue.offer(message)) {
+	        	debugMessageQueue.poll();
+	        }
         }
-        
-        debugMessageQueue.add(message);
     }
 
     public String getDebugMessages()
     {
-		String debugMessages = "";
+		StringBuilder debugMessages = new StringBuilder();
 		
 		for (String debugLine: debugMessageQueue) {
-			debugMessages = debugMessages + debugLine + System.getProperty("line.separator");
+			debugMessages.append(debugLine).append(LINE_SEPARATOR);
 		}
-		return debugMessages;
+		return debugMessages.toString();
     }
     
     public String getLogMessages() {
-    	return this.logMessages;
+    	return this.logMessages.toString();
     }
 
     public String getSummaryLogMessages() {
-    	return this.summaryLogMessages;
+    	return this.summaryLogMessages.toString();
     }
     
     public String getCompoundMessages() {
 	   
     	return getSummaryLogMessages() 
-    			+  System.getProperty("line.separator")
-    			+ System.getProperty("line.separator") 
-    			+ System.getProperty("line.separator")
+    			+ LINE_SEPARATOR
+    			+ LINE_SEPARATOR
+    			+ LINE_SEPARATOR
     			+ getLogMessages();
     }
     
@@ -0,0 +1,337 @@
+package com.cloudpacity.aws.common.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Paces AWS API calls with an additive increase / multiplicative decrease (AIMD) request rate.
+ * Every successful call raises the rate so that it grows by about ADDITIVE_INCREASE calls per
+ * second each second, every throttling response cuts it by DECREASE_FACTOR.  Throttled and
+ * retryable server errors are retried with full-jitter exponential backoff.
+ *
+ * Controllers are shared process wide by key, e.g. one per region and API bucket, so every
+ * entity calling the same API bucket is paced together.  Clients used with a controller should
+ * be built with clientConfiguration() so the SDK does not hide throttling behind its own retries,
+ * and service errors are retried in one layer only.
+ *
+ */
+public class CPRateController
+{
+    public static final double DEFAULT_INITIAL_RATE = 5.0;
+    public static final double DEFAULT_MIN_RATE = 0.5;
+    public static final double DEFAULT_MAX_RATE = 100.0;
+    public static final double ADDITIVE_INCREASE = 1.0;
+    public static final double DECREASE_FACTOR = 0.5;
+    public static final int DEFAULT_MAX_RETRIES = 8;
+    public static final long BASE_BACKOFF_MILLIS = 100;
+    public static final long MAX_BACKOFF_MILLIS = 20000;
+
+    private static final ConcurrentMap<String, CPRateController> CONTROLLERS = new ConcurrentHashMap<String, CPRateController>();
+    private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rate-controller-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final double minRate;
+    private final double maxRate;
+    private final int maxRetries;
+
+    private double rate;
+    private long nextPermitNanos = System.nanoTime();
+    private long throttleCount = 0;
+
+
+    public CPRateController(String name, double initialRate, double minRate, double maxRate, int maxRetries)
+    {
+        Validate.isTrue(minRate > 0 && minRate <= maxRate, "The rate limits are invalid!");
+        Validate.isTrue(maxRetries >= 0, "The max retries is negative!");
+
+        this.name = name;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.maxRetries = maxRetries;
+        this.rate = Math.max(minRate, Math.min(maxRate, initialRate));
+    }
+
+    /**
+     * @param key e.g. "us-east-1/ec2-mutating"
+     * @return the process wide controller for the key, created with the defaults on first use
+     */
+    public static CPRateController forKey(String key)
+    {
+        Validate.notEmpty(key, "The rate controller key is empty!");
+        return CONTROLLERS.computeIfAbsent(key, k -> new CPRateController(k, DEFAULT_INITIAL_RATE, DEFAULT_MIN_RATE, DEFAULT_MAX_RATE, DEFAULT_MAX_RETRIES));
+    }
+
+    /**
+     * The SDK only retries the errors that never reach the controller's retries:  IO errors and
+     * timeouts, and clock skew errors, which the SDK corrects between attempts.  Throttling and
+     * server errors are left to the controller, so a call makes at most maxRetries + 1 requests
+     * for them.
+     *
+     * @return a client configuration whose SDK retries skip throttling and server errors
+     */
+    public static ClientConfiguration clientConfiguration()
+    {
+        RetryPolicy.RetryCondition retryCondition = (request, exception, retriesAttempted) ->
+        	(!(exception instanceof AmazonServiceException) || RetryUtils.isClockSkewError(exception))
+        	&& PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(request, exception, retriesAttempted);
+
+        return new ClientConfiguration().withRetryPolicy(
+        		new RetryPolicy(retryCondition, PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY, true));
+    }
+
+    /**
+     * For a client whose calls are not safe to repeat blindly, e.g. a create:  the SDK retries
+     * nothing, not even an IO error or a timeout after which the request may have been carried
+     * out, so the caller decides whether to repeat the call.
+     *
+     * @return a client configuration without SDK retries
+     */
+    public static ClientConfiguration noRetryClientConfiguration()
+    {
+        return new ClientConfiguration().withRetryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY);
+    }
+
+    /**
+     * Waits for a permit at the current rate and runs the call, retrying throttled calls and
+     * retryable server errors.
+     *
+     * @param call
+     * @return the call's result
+     */
+    public <T> T call(Callable<T> call)
+    {
+        return call(call, true);
+    }
+
+    /**
+     * call() for a call that is not safe to repeat after a server error, which may have carried
+     * it out:  only throttled calls, which were not carried out, are retried.
+     *
+     * @param call
+     * @return the call's result
+     */
+    public <T> T callThrottled(Callable<T> call)
+    {
+        return call(call, false);
+    }
+
+    private <T> T call(Callable<T> call, boolean retryServerErrors)
+    {
+        for (int attempt = 0; ; attempt++) {
+
+            acquirePermit();
+            try {
+                T result = call.call();
+                onSuccess();
+                return result;
+            }
+            catch (AmazonServiceException ase) {
+                boolean throttled = RetryUtils.isThrottlingException(ase);
+                if (throttled) {
+                    onThrottle();
+                }
+                if ((!throttled && !(retryServerErrors && isRetryableServerError(ase))) || attempt >= maxRetries) {
+                    throw ase;
+                }
+            }
+            catch (RuntimeException re) {
+                throw re;
+            }
+            catch (Exception e) {
+                throw new CPRuntimeException("Error calling " + name + ": " + e);
+            }
+
+            sleep(backoffMillis(attempt));
+        }
+    }
+
+    /**
+     * Async form of call().  Waits for a permit on the calling thread, then starts the call;
+     * throttled attempts are retried from a shared scheduler thread after the backoff.  A retry
+     * reserves its permit without blocking and is scheduled again for the permit's time, so the
+     * scheduler thread never waits for a permit.
+     *
+     * @param call starts the request and returns its future
+     * @return a future completed with the result or with the exception of the final attempt
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call)
+    {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        try {
+            acquirePermit();
+        }
+        catch (RuntimeException re) {
+            result.completeExceptionally(re);
+            return result;
+        }
+        attemptAsync(call, 0, result);
+        return result;
+    }
+
+    /**
+     * Runs on the scheduler thread once a retry's backoff has passed
+     */
+    private <T> void retryAsync(Supplier<CompletableFuture<T>> call, int attempt, CompletableFuture<T> result)
+    {
+        long waitNanos = reservePermit();
+
+        if (waitNanos > 0) {
+            RETRY_SCHEDULER.schedule(() -> attemptAsync(call, attempt, result), waitNanos, TimeUnit.NANOSECONDS);
+        }
+        else {
+            attemptAsync(call, attempt, result);
+        }
+    }
+
+    /**
+     * Starts an attempt, its permit already taken
+     */
+    private <T> void attemptAsync(Supplier<CompletableFuture<T>> call, int attempt, CompletableFuture<T> result)
+    {
+        CompletableFuture<T> attemptFuture;
+        try {
+            attemptFuture = call.get();
+        }
+        catch (RuntimeException re) {
+            result.completeExceptionally(re);
+            return;
+        }
+
+        attemptFuture.whenComplete((value, error) -> {
+
+            if (error == null) {
+                onSuccess();
+                result.complete(value);
+                return;
+            }
+
+            Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+            boolean retry = false;
+
+            if (cause instanceof AmazonServiceException) {
+                AmazonServiceException ase = (AmazonServiceException) cause;
+                boolean throttled = RetryUtils.isThrottlingException(ase);
+                if (throttled) {
+                    onThrottle();
+                }
+                retry = (throttled || isRetryableServerError(ase)) && attempt < maxRetries;
+            }
+
+            if (retry) {
+                RETRY_SCHEDULER.schedule(() -> retryAsync(call, attempt + 1, result), backoffMillis(attempt), TimeUnit.MILLISECONDS);
+            }
+            else {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    public synchronized double getRate()
+    {
+        return rate;
+    }
+
+    public synchronized long getThrottleCount()
+    {
+        return throttleCount;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    private void acquirePermit()
+    {
+        long waitNanos = reservePermit();
+
+        if (waitNanos > 0) {
+            sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+    }
+
+    /**
+     * @return the nanos until the permit reserved for the caller can be used
+     */
+    private synchronized long reservePermit()
+    {
+        long now = System.nanoTime();
+        long permitNanos = Math.max(now, nextPermitNanos);
+        nextPermitNanos = permitNanos + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        return permitNanos - now;
+    }
+
+    private synchronized void onSuccess()
+    {
+        // +ADDITIVE_INCREASE/rate per call is about +ADDITIVE_INCREASE calls/sec every second
+        rate = Math.min(maxRate, rate + ADDITIVE_INCREASE / rate);
+    }
+
+    private synchronized void onThrottle()
+    {
+        throttleCount++;
+        rate = Math.max(minRate, rate * DECREASE_FACTOR);
+    }
+
+    private static boolean isRetryableServerError(AmazonClientException ace)
+    {
+        return ace instanceof AmazonServiceException && ((AmazonServiceException) ace).getStatusCode() >= 500;
+    }
+
+    /**
+     * full jitter:  a random wait between 0 and the capped exponential backoff
+     */
+    private static long backoffMillis(int attempt)
+    {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new CPRuntimeException("Interrupted while pacing AWS calls");
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.cloudpacity.aws.common.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Waits for AWS resources to reach a state.  Each poll describes every resource still pending in
+ * one batched call, a resource is settled as soon as it reaches a target or failed state and is
+ * not described again, and the delay between polls doubles from INITIAL_DELAY_MILLIS up to
+ * MAX_DELAY_MILLIS with equal jitter, so concurrent waiters don't poll in step.  The wait ends at
+ * a deadline in epoch millis, e.g. the time a Lambda function's remaining time runs out.
+ *
+ */
+public class CPWaiter
+{
+    public static final long INITIAL_DELAY_MILLIS = 1000;
+    public static final long MAX_DELAY_MILLIS = 15000;
+
+    private final String resourceType;
+    private final CPLogger logger;
+    private final long deadlineMillis;
+
+
+    /**
+     * @param resourceType e.g. "Image", for the log
+     * @param logger
+     * @param deadlineMillis epoch millis
+     */
+    public CPWaiter(String resourceType, CPLogger logger, long deadlineMillis)
+    {
+        Validate.notEmpty(resourceType, "The resource type is empty!");
+        Validate.notNull(logger, "The logger is null!");
+
+        this.resourceType = resourceType;
+        this.logger = logger;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @param maxWaitSecs
+     * @param deadlineMillis epoch millis, e.g. the entity's deadline
+     * @return the earlier of maxWaitSecs from now and the deadline
+     */
+    public static long getDeadline(int maxWaitSecs, long deadlineMillis)
+    {
+        return Math.min(System.currentTimeMillis() + maxWaitSecs * 1000L, deadlineMillis);
+    }
+
+    /**
+     * @param ids the resources to wait for
+     * @param describeStates describes the given pending ids in one call, returning the state of each
+     * id found.  An id not found yet, e.g. one just created, stays pending.
+     * @param targetStates
+     * @param failedStates states the resource can't leave for a target state, e.g. "failed"
+     * @return the state each settled id ended in, in the order of ids.  An id missing from the
+     * result was still pending at the deadline.
+     * @throws InterruptedException
+     */
+    public Map<String, String> await(Collection<String> ids, Function<List<String>, Map<String, String>> describeStates
+            , Collection<String> targetStates, Collection<String> failedStates) throws InterruptedException
+    {
+        Validate.notNull(ids, "The id list is null!");
+        Validate.notNull(describeStates, "The describe function is null!");
+        Validate.notEmpty(targetStates, "The target states are empty!");
+        Validate.notNull(failedStates, "The failed states are null!");
+
+        Set<String> settledStates = new HashSet<String>();
+        for (String state : targetStates)
+            settledStates.add(state.toLowerCase());
+        for (String state : failedStates)
+            settledStates.add(state.toLowerCase());
+
+        Set<String> pendingIds = new LinkedHashSet<String>(ids);
+        Map<String, String> states = new LinkedHashMap<String, String>();
+        long startMillis = System.currentTimeMillis();
+        long delayMillis = INITIAL_DELAY_MILLIS;
+
+        while (!pendingIds.isEmpty())
+        {
+            for (Map.Entry<String, String> idState : describeStates.apply(new ArrayList<String>(pendingIds)).entrySet())
+            {
+                if (idState.getValue() != null && settledStates.contains(idState.getValue().toLowerCase())
+                        && pendingIds.remove(idState.getKey()))
+                    states.put(idState.getKey(), idState.getValue());
+            }
+            if (pendingIds.isEmpty())
+                break;
+
+            long remainingMillis = deadlineMillis - System.currentTimeMillis();
+            if (remainingMillis <= 0)
+            {
+                logger.log(resourceType + " wait deadline passed with " + pendingIds.size() + " pending: " + pendingIds);
+                break;
+            }
+
+            long sleepMillis = Math.min(remainingMillis, delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1));
+            logger.logDebug(resourceType + " wait time: " + (System.currentTimeMillis() - startMillis) / 1000 + " secs, "
+                    + pendingIds.size() + " pending for state: " + targetStates);
+            Thread.sleep(sleepMillis);
+            delayMillis = Math.min(delayMillis * 2, MAX_DELAY_MILLIS);
+        }
+
+        // keep the order of the ids given
+        Map<String, String> orderedStates = new LinkedHashMap<String, String>();
+        for (String id : ids)
+        {
+            if (states.containsKey(id))
+                orderedStates.put(id, states.get(id));
+        }
+        return orderedStates;
+    }
+}
@@ -1,5 +1,8 @@
 package com.cloudpacity.aws.purge;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.lang3.StringUtils;
 
 import com.cloudpacity.aws.common.CPCommonEnv;
@@ -30,7 +33,51 @@ public class CPBackupPurgeEnv extends CPCommonEnv{
     public static final String ENV_VAR_FILTER2_TAG_NAME = "Filter2TagName";
     public static final String ENV_VAR_FILTER2_TAG_VALUE = "Filter2TagValue";
     public static final String ENV_VAR_FILTER3_TAG_NAME = "Filter3TagName";
-    public static final String ENV_VAR_FILTER3_TAG_VALUE = "Filter3TagValue"; 
+    public static final String ENV_VAR_FILTER3_TAG_VALUE = "Filter3TagValue";
+    public static final String ENV_VAR_SNAPSHOT_PAGE_SIZE = "SnapshotPageSize";
+    public static final String ENV_VAR_PIPELINE_QUEUE_SIZE = "PipelineQueueSize";
+    public static final String ENV_VAR_DELETE_PARALLELISM = "DeleteParallelism";
+    public static final String ENV_VAR_CASCADE_SNAPSHOT_DELETE = "CascadeSnapshotDelete";
+    public static final String ENV_VAR_CONTINUATION_MARGIN_SECS = "ContinuationMarginSeconds";
+    public static final String ENV_VAR_CHECKPOINT_STORE = "CheckpointStore";
+    public static final String ENV_VAR_CHECKPOINT_TABLE = "CheckpointTable";
+    public static final String ENV_VAR_CHECKPOINT_FILE = "CheckpointFile";
+    public static final String ENV_VAR_MAX_CHECKPOINT_RESUMES = "MaxCheckpointResumes";
+    public static final String ENV_VAR_CHECKPOINT_LEASE_MINUTES = "CheckpointLeaseMinutes";
+    public static final String ENV_VAR_PURGE_REGIONS = "PurgeRegions";
+    public static final String ENV_VAR_PURGE_ACCOUNT_ROLES = "PurgeAccountRoles";
+    public static final String ENV_VAR_MAX_CONCURRENT_ACCOUNTS = "MaxConcurrentAccounts";
+    public static final String ENV_VAR_PURGE_MODE = "PurgeMode";
+    public static final String ENV_VAR_PURGE_PLAN_LOCATION = "PurgePlanLocation";
+    public static final String ENV_VAR_PURGE_PLAN_MAX_AGE_HOURS = "PurgePlanMaxAgeHours";
+    public static final String ENV_VAR_EXPIRY_INDEX_LOCATION = "ExpiryIndexLocation";
+    public static final String ENV_VAR_EXPIRY_INDEX_RECONCILE_DAYS = "ExpiryIndexReconcileDays";
+
+    public static final int DEFAULT_SNAPSHOT_PAGE_SIZE = 500;
+    public static final int DEFAULT_PIPELINE_QUEUE_SIZE = 1000;
+    public static final int DEFAULT_DELETE_PARALLELISM = 8;
+    // time left after listing stops, to finish the listed resources and chain the next invocation, at most a quarter of the time left
+    public static final int DEFAULT_CONTINUATION_MARGIN_SECS = 60;
+    public static final String DEFAULT_CHECKPOINT_STORE = "none";
+    public static final String DEFAULT_CHECKPOINT_TABLE = "CPBackupPurgeCheckpoint";
+    public static final String DEFAULT_CHECKPOINT_FILE = "/tmp/cp-backup-purge-checkpoints.ser";
+    // a run taken over this many times by new runs is given up, the next run starts over
+    public static final int DEFAULT_MAX_CHECKPOINT_RESUMES = 3;
+    // a run whose checkpoint was saved this recently is still running, above the 15 minute Lambda limit
+    public static final int DEFAULT_CHECKPOINT_LEASE_MINUTES = 20;
+    public static final int DEFAULT_MAX_CONCURRENT_ACCOUNTS = 4;
+    // purge as resources are evaluated, only plan the purge, or execute a saved plan
+    public static final String PURGE_MODE_PURGE = "purge";
+    public static final String PURGE_MODE_PLAN = "plan";
+    public static final String PURGE_MODE_EXECUTE = "execute";
+    // a local file only serves a plan executed by the container that wrote it, otherwise use "s3://bucket/key"
+    public static final String DEFAULT_PURGE_PLAN_LOCATION = "/tmp/cp-backup-purge-plan-{account}-{region}.json";
+    // an older plan is refused, its resources may have been retagged or replaced since
+    public static final int DEFAULT_PURGE_PLAN_MAX_AGE_HOURS = 24;
+    // no expiry index unless a location is set, e.g. "s3://bucket/cp-expiry-{account}-{region}.idx"
+    public static final String DEFAULT_EXPIRY_INDEX_LOCATION = "";
+    // a full listing rebuilds the index after this many days, runs in between list only the due and the new resources
+    public static final int DEFAULT_EXPIRY_INDEX_RECONCILE_DAYS = 7;
 
     public static String getDefaultTimeZone()
     {
@@ -48,7 +95,7 @@ public class CPBackupPurgeEnv extends CPCommonEnv{
 			return DEFAULT_RETENTION_DAYS;
 		}
 		try {
-			return new Integer(defaultRetentionDaysString);
+			return Integer.parseInt(defaultRetentionDaysString);
 		}
 		catch (NumberFormatException nfe) {
 			return DEFAULT_RETENTION_DAYS;
@@ -78,7 +125,178 @@ public class CPBackupPurgeEnv extends CPCommonEnv{
     public static String getFilter3TagValue() {
 		return System.getenv(ENV_VAR_FILTER3_TAG_VALUE);
     }
-    
+
+    public static int getSnapshotPageSize()
+    {
+		return getIntEnv(ENV_VAR_SNAPSHOT_PAGE_SIZE, DEFAULT_SNAPSHOT_PAGE_SIZE);
+    }
+
+    public static int getPipelineQueueSize()
+    {
+		return getIntEnv(ENV_VAR_PIPELINE_QUEUE_SIZE, DEFAULT_PIPELINE_QUEUE_SIZE);
+    }
+
+    public static int getDeleteParallelism()
+    {
+		return Math.max(1, getIntEnv(ENV_VAR_DELETE_PARALLELISM, DEFAULT_DELETE_PARALLELISM));
+    }
+
+    /**
+     * @return true to delete an AMI's EBS snapshots as soon as the AMI is deregistered
+     */
+    public static boolean isCascadeSnapshotDelete()
+    {
+		return Boolean.parseBoolean(StringUtils.trimToEmpty(System.getenv(ENV_VAR_CASCADE_SNAPSHOT_DELETE)));
+    }
+
+    public static int getContinuationMarginSeconds()
+    {
+		return Math.max(0, getIntEnv(ENV_VAR_CONTINUATION_MARGIN_SECS, DEFAULT_CONTINUATION_MARGIN_SECS));
+    }
+
+    /**
+     * @return "none", "dynamodb", "file" or "memory"
+     */
+    public static String getCheckpointStore()
+    {
+		return getStringEnv(ENV_VAR_CHECKPOINT_STORE, DEFAULT_CHECKPOINT_STORE);
+    }
+
+    public static String getCheckpointTable()
+    {
+		return getStringEnv(ENV_VAR_CHECKPOINT_TABLE, DEFAULT_CHECKPOINT_TABLE);
+    }
+
+    public static String getCheckpointFile()
+    {
+		return getStringEnv(ENV_VAR_CHECKPOINT_FILE, DEFAULT_CHECKPOINT_FILE);
+    }
+
+    public static int getMaxCheckpointResumes()
+    {
+		return Math.max(0, getIntEnv(ENV_VAR_MAX_CHECKPOINT_RESUMES, DEFAULT_MAX_CHECKPOINT_RESUMES));
+    }
+
+    public static int getCheckpointLeaseMinutes()
+    {
+		return Math.max(0, getIntEnv(ENV_VAR_CHECKPOINT_LEASE_MINUTES, DEFAULT_CHECKPOINT_LEASE_MINUTES));
+    }
+
+    /**
+     * @return the regions to purge concurrently, from the comma separated PurgeRegions, empty to
+     * purge AWS_DEFAULT_REGION only
+     */
+    public static List<String> getPurgeRegions()
+    {
+		return getListEnv(ENV_VAR_PURGE_REGIONS);
+    }
+
+    /**
+     * @return the ARNs of the roles to assume, one per account to purge, from the comma separated
+     * PurgeAccountRoles, empty to purge this function's account only
+     */
+    public static List<String> getPurgeAccountRoles()
+    {
+		return getListEnv(ENV_VAR_PURGE_ACCOUNT_ROLES);
+    }
+
+    /**
+     * @return the most accounts purged at the same time
+     */
+    public static int getMaxConcurrentAccounts()
+    {
+		return Math.max(1, getIntEnv(ENV_VAR_MAX_CONCURRENT_ACCOUNTS, DEFAULT_MAX_CONCURRENT_ACCOUNTS));
+    }
+
+    /**
+     * @param envVar
+     * @return the distinct, trimmed values of the comma separated variable
+     */
+    protected static List<String> getListEnv(String envVar)
+    {
+		List<String> values = new ArrayList<String>();
+
+		for (String value : StringUtils.split(StringUtils.trimToEmpty(System.getenv(envVar)), ',')) {
+			value = value.trim();
+			if (!value.isEmpty() && !values.contains(value)) {
+				values.add(value);
+			}
+		}
+		return values;
+    }
+
+    /**
+     * @return "purge", "plan" or "execute"
+     */
+    public static String getPurgeMode()
+    {
+		return getStringEnv(ENV_VAR_PURGE_MODE, PURGE_MODE_PURGE).toLowerCase();
+    }
+
+    /**
+     * @param accountId
+     * @param regionName
+     * @return the file or "s3://bucket/key" of the account and region's purge plan, with the
+     * "{account}" and "{region}" placeholders of PurgePlanLocation replaced
+     */
+    public static String getPurgePlanLocation(String accountId, String regionName)
+    {
+		return getStringEnv(ENV_VAR_PURGE_PLAN_LOCATION, DEFAULT_PURGE_PLAN_LOCATION)
+				.replace("{account}", StringUtils.defaultString(accountId))
+				.replace("{region}", StringUtils.defaultString(regionName));
+    }
+
+    public static int getPurgePlanMaxAgeHours()
+    {
+		return Math.max(1, getIntEnv(ENV_VAR_PURGE_PLAN_MAX_AGE_HOURS, DEFAULT_PURGE_PLAN_MAX_AGE_HOURS));
+    }
+
+    /**
+     * @param accountId
+     * @param regionName
+     * @return the file or "s3://bucket/key" of the account and region's expiry index, with the
+     * "{account}" and "{region}" placeholders of ExpiryIndexLocation replaced, empty if not set
+     */
+    public static String getExpiryIndexLocation(String accountId, String regionName)
+    {
+		return getStringEnv(ENV_VAR_EXPIRY_INDEX_LOCATION, DEFAULT_EXPIRY_INDEX_LOCATION)
+				.replace("{account}", StringUtils.defaultString(accountId))
+				.replace("{region}", StringUtils.defaultString(regionName));
+    }
+
+    /**
+     * @return the days after which a full listing rebuilds the expiry index.  A run in between
+     * also lists the resources created since, so only a resource retagged with a shorter retention
+     * after it was indexed may be purged up to this many days late.
+     */
+    public static int getExpiryIndexReconcileDays()
+    {
+		return getIntEnv(ENV_VAR_EXPIRY_INDEX_RECONCILE_DAYS, DEFAULT_EXPIRY_INDEX_RECONCILE_DAYS);
+    }
+
+    protected static String getStringEnv(String envVar, String defaultValue)
+    {
+		String value = System.getenv(envVar);
+		if (StringUtils.isEmpty(value)) {
+			return defaultValue;
+		}
+		return value.trim();
+    }
+
+    protected static int getIntEnv(String envVar, int defaultValue)
+    {
+		String valueString = System.getenv(envVar);
+		if (StringUtils.isEmpty(valueString)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(valueString.trim());
+		}
+		catch (NumberFormatException nfe) {
+			return defaultValue;
+		}
+    }
+
    
     
     
@@ -0,0 +1,46 @@
+package com.cloudpacity.aws.purge.checkpoint;
+
+import com.cloudpacity.aws.purge.pojo.PurgeCheckpoint;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Durable storage of purge run checkpoints.  Each run is keyed by its originatingLambdaRequestId,
+ * and the store remembers the latest run saved for each scope so a new run can find one that
+ * stopped without completing.
+ *
+ */
+public interface CPCheckpointStore {
+
+	/**
+	 * @param runId
+	 * @return the run's checkpoint, null if none was saved
+	 */
+	PurgeCheckpoint load(String runId);
+
+	/**
+	 * @param scope
+	 * @return the checkpoint of the scope's latest run if it has not completed, otherwise null
+	 */
+	PurgeCheckpoint loadLatestIncomplete(String scope);
+
+	/**
+	 * Saves the checkpoint and makes its run the latest of its scope
+	 *
+	 * @param checkpoint
+	 */
+	void save(PurgeCheckpoint checkpoint);
+}
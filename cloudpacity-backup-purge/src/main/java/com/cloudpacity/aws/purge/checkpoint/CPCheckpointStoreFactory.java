@@ -0,0 +1,50 @@
+package com.cloudpacity.aws.purge.checkpoint;
+
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.purge.CPBackupPurgeEnv;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+public class CPCheckpointStoreFactory {
+
+	public static final String STORE_NONE = "none";
+	public static final String STORE_DYNAMODB = "dynamodb";
+	public static final String STORE_FILE = "file";
+	public static final String STORE_MEMORY = "memory";
+
+	/**
+	 * Builds the store selected by the CheckpointStore environment variable
+	 *
+	 * @return the store, null if checkpoints are not kept
+	 */
+	public static CPCheckpointStore create() {
+
+		String storeType = CPBackupPurgeEnv.getCheckpointStore();
+
+		if (STORE_NONE.equalsIgnoreCase(storeType))
+			return null;
+		if (STORE_DYNAMODB.equalsIgnoreCase(storeType))
+			return new CPDynamoDBCheckpointStore(CPBackupPurgeEnv.getCheckpointTable(), CPBackupPurgeEnv.getRegionName());
+		if (STORE_FILE.equalsIgnoreCase(storeType))
+			return new CPFileCheckpointStore(CPBackupPurgeEnv.getCheckpointFile());
+		if (STORE_MEMORY.equalsIgnoreCase(storeType))
+			return new CPMemoryCheckpointStore();
+
+		throw new CPRuntimeException("Unknown checkpoint store '" + storeType + "'");
+	}
+}
@@ -0,0 +1,201 @@
+package com.cloudpacity.aws.purge.checkpoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.common.util.CPClientCache;
+import com.cloudpacity.aws.purge.pojo.PurgeCheckpoint;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Keeps checkpoints in a DynamoDB table with the string hash key "RunId".  A run's checkpoint is
+ * one item; the latest run of each scope is found through a pointer item keyed "latest:<scope>".
+ * Every item carries an "ExpirationTime" in epoch seconds, DEFAULT_DB_RETENTION_DAYS out, for the
+ * table's time to live.
+ *
+ * An item is limited to 400 KB, so at most MAX_SAVED_DELETED_RESOURCE_IDS deleted resource ids
+ * are saved.  The ids only spare a resumed run the deletes of resources a listing still returns
+ * shortly after their deletion, such a resource missing from the set is deleted again and found
+ * already deleted.
+ *
+ */
+public class CPDynamoDBCheckpointStore implements CPCheckpointStore {
+
+	public static final String ATTR_RUN_ID = "RunId";
+	public static final String ATTR_SCOPE = "Scope";
+	public static final String ATTR_STATUS = "Status";
+	public static final String ATTR_PHASE = "Phase";
+	public static final String ATTR_SNAPSHOT_PAGE_TOKEN = "SnapshotPageToken";
+	public static final String ATTR_DELETED_RESOURCE_IDS = "DeletedResourceIds";
+	public static final String ATTR_DELETED_IMAGE_COUNT = "DeletedImageCount";
+	public static final String ATTR_DELETED_SNAPSHOT_COUNT = "DeletedSnapshotCount";
+	public static final String ATTR_FAILED_DELETE_COUNT = "FailedDeleteCount";
+	public static final String ATTR_RESUME_COUNT = "ResumeCount";
+	public static final String ATTR_UPDATED_TIME = "UpdatedTime";
+	public static final String ATTR_LATEST_RUN_ID = "LatestRunId";
+	public static final String ATTR_EXPIRATION_TIME = "ExpirationTime";
+	public static final String LATEST_KEY_PREFIX = "latest:";
+	public static final String CLIENT_TYPE_DYNAMODB = "DynamoDB";
+	// about 230 KB of snapshot ids
+	public static final int MAX_SAVED_DELETED_RESOURCE_IDS = 10000;
+
+	protected final AmazonDynamoDB dynamoDBClient;
+	protected final String tableName;
+
+
+	public CPDynamoDBCheckpointStore(String tableName, String regionName) {
+		this(CPClientCache.get(CLIENT_TYPE_DYNAMODB, regionName, null,
+				() -> AmazonDynamoDBClientBuilder.standard().withRegion(regionName).build()), tableName);
+	}
+
+	public CPDynamoDBCheckpointStore(AmazonDynamoDB dynamoDBClient, String tableName) {
+		Validate.notNull(dynamoDBClient, "The DynamoDB client is null!");
+		Validate.notEmpty(tableName, "The checkpoint table name is empty!");
+
+		this.dynamoDBClient = dynamoDBClient;
+		this.tableName = tableName;
+	}
+
+	public PurgeCheckpoint load(String runId) {
+		Validate.notEmpty(runId, "The run id is empty!");
+
+		Map<String, AttributeValue> item = getItem(runId);
+		return (item == null) ? null : toCheckpoint(item);
+	}
+
+	public PurgeCheckpoint loadLatestIncomplete(String scope) {
+		Validate.notEmpty(scope, "The checkpoint scope is empty!");
+
+		Map<String, AttributeValue> latest = getItem(LATEST_KEY_PREFIX + scope);
+		if (latest == null || !latest.containsKey(ATTR_LATEST_RUN_ID))
+			return null;
+
+		PurgeCheckpoint checkpoint = load(latest.get(ATTR_LATEST_RUN_ID).getS());
+		return (checkpoint == null || checkpoint.isComplete()) ? null : checkpoint;
+	}
+
+	public void save(PurgeCheckpoint checkpoint) {
+		Validate.notNull(checkpoint, "The checkpoint is null!");
+		Validate.notEmpty(checkpoint.getRunId(), "The checkpoint's run id is empty!");
+		Validate.notEmpty(checkpoint.getScope(), "The checkpoint's scope is empty!");
+
+		checkpoint.setUpdatedTime(System.currentTimeMillis());
+		String expirationTime = String.valueOf(TimeUnit.MILLISECONDS.toSeconds(checkpoint.getUpdatedTime())
+				+ TimeUnit.DAYS.toSeconds(CPCommonEnv.DEFAULT_DB_RETENTION_DAYS));
+
+		Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+		item.put(ATTR_RUN_ID, new AttributeValue(checkpoint.getRunId()));
+		item.put(ATTR_SCOPE, new AttributeValue(checkpoint.getScope()));
+		item.put(ATTR_STATUS, new AttributeValue(checkpoint.getStatus()));
+		putIfNotEmpty(item, ATTR_PHASE, checkpoint.getPhase());
+		putIfNotEmpty(item, ATTR_SNAPSHOT_PAGE_TOKEN, checkpoint.getSnapshotPageToken());
+		// string sets may not be empty
+		if (!checkpoint.getDeletedResourceIds().isEmpty())
+			item.put(ATTR_DELETED_RESOURCE_IDS, new AttributeValue().withSS(getSavedDeletedResourceIds(checkpoint)));
+		item.put(ATTR_DELETED_IMAGE_COUNT, new AttributeValue().withN(String.valueOf(checkpoint.getDeletedImageCount())));
+		item.put(ATTR_DELETED_SNAPSHOT_COUNT, new AttributeValue().withN(String.valueOf(checkpoint.getDeletedSnapshotCount())));
+		item.put(ATTR_FAILED_DELETE_COUNT, new AttributeValue().withN(String.valueOf(checkpoint.getFailedDeleteCount())));
+		item.put(ATTR_RESUME_COUNT, new AttributeValue().withN(String.valueOf(checkpoint.getResumeCount())));
+		item.put(ATTR_UPDATED_TIME, new AttributeValue().withN(String.valueOf(checkpoint.getUpdatedTime())));
+		item.put(ATTR_EXPIRATION_TIME, new AttributeValue().withN(expirationTime));
+
+		Map<String, AttributeValue> latest = new HashMap<String, AttributeValue>();
+		latest.put(ATTR_RUN_ID, new AttributeValue(LATEST_KEY_PREFIX + checkpoint.getScope()));
+		latest.put(ATTR_LATEST_RUN_ID, new AttributeValue(checkpoint.getRunId()));
+		latest.put(ATTR_EXPIRATION_TIME, new AttributeValue().withN(expirationTime));
+
+		// the run's item first, so the pointer never names a run that was not saved
+		timed("DynamoDBPutItem", () -> dynamoDBClient.putItem(new PutItemRequest(tableName, item)));
+		timed("DynamoDBPutItem", () -> dynamoDBClient.putItem(new PutItemRequest(tableName, latest)));
+	}
+
+	private Map<String, AttributeValue> getItem(String runId) {
+
+		Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+		key.put(ATTR_RUN_ID, new AttributeValue(runId));
+
+		return timed("DynamoDBGetItem", () -> dynamoDBClient.getItem(new GetItemRequest(tableName, key, true)).getItem());
+	}
+
+	private static PurgeCheckpoint toCheckpoint(Map<String, AttributeValue> item) {
+
+		PurgeCheckpoint checkpoint = new PurgeCheckpoint(getString(item, ATTR_RUN_ID), getString(item, ATTR_SCOPE));
+		checkpoint.setStatus(getString(item, ATTR_STATUS));
+		checkpoint.setPhase(getString(item, ATTR_PHASE));
+		checkpoint.setSnapshotPageToken(getString(item, ATTR_SNAPSHOT_PAGE_TOKEN));
+		if (item.containsKey(ATTR_DELETED_RESOURCE_IDS))
+			checkpoint.getDeletedResourceIds().addAll(item.get(ATTR_DELETED_RESOURCE_IDS).getSS());
+		checkpoint.setDeletedImageCount((int) getNumber(item, ATTR_DELETED_IMAGE_COUNT));
+		checkpoint.setDeletedSnapshotCount((int) getNumber(item, ATTR_DELETED_SNAPSHOT_COUNT));
+		checkpoint.setFailedDeleteCount((int) getNumber(item, ATTR_FAILED_DELETE_COUNT));
+		checkpoint.setResumeCount((int) getNumber(item, ATTR_RESUME_COUNT));
+		checkpoint.setUpdatedTime(getNumber(item, ATTR_UPDATED_TIME));
+		return checkpoint;
+	}
+
+	private static List<String> getSavedDeletedResourceIds(PurgeCheckpoint checkpoint) {
+
+		List<String> resourceIds = new ArrayList<String>(MAX_SAVED_DELETED_RESOURCE_IDS);
+		for (String resourceId : checkpoint.getDeletedResourceIds()) {
+			if (resourceIds.size() >= MAX_SAVED_DELETED_RESOURCE_IDS)
+				break;
+			resourceIds.add(resourceId);
+		}
+		return resourceIds;
+	}
+
+	private static void putIfNotEmpty(Map<String, AttributeValue> item, String name, String value) {
+		if (StringUtils.isNotEmpty(value))
+			item.put(name, new AttributeValue(value));
+	}
+
+	private static String getString(Map<String, AttributeValue> item, String name) {
+		return item.containsKey(name) ? item.get(name).getS() : null;
+	}
+
+	private static long getNumber(Map<String, AttributeValue> item, String name) {
+		return item.containsKey(name) ? Long.parseLong(item.get(name).getN()) : 0;
+	}
+
+	private static <T> T timed(String operation, Supplier<T> call) {
+
+		long startNanos = System.nanoTime();
+		try {
+			T result = call.get();
+			CPMetrics.getInstance().recordCall(operation, startNanos, null);
+			return result;
+		}
+		catch (RuntimeException re) {
+			CPMetrics.getInstance().recordCall(operation, startNanos, re);
+			throw re;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.cloudpacity.aws.purge.checkpoint;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.purge.pojo.PurgeCheckpoint;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * An in-memory store that rewrites a local file on every save and reads it back when built, for
+ * local runs that should survive a restart.  The file is replaced atomically through a temp file.
+ *
+ */
+public class CPFileCheckpointStore extends CPMemoryCheckpointStore {
+
+	protected final File file;
+
+
+	public CPFileCheckpointStore(String fileName) {
+		Validate.notEmpty(fileName, "The checkpoint file name is empty!");
+
+		this.file = new File(fileName);
+		if (file.exists())
+			read();
+	}
+
+	@Override
+	public synchronized void save(PurgeCheckpoint checkpoint) {
+		super.save(checkpoint);
+		write();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void read() {
+		try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+			checkpoints.putAll((Map<String, PurgeCheckpoint>) in.readObject());
+			latestRunIds.putAll((Map<String, String>) in.readObject());
+		}
+		catch (IOException | ClassNotFoundException e) {
+			throw new CPRuntimeException("Error reading the checkpoint file " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void write() {
+		File tempFile = new File(file.getPath() + ".tmp");
+
+		try {
+			try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tempFile))) {
+				out.writeObject(checkpoints);
+				out.writeObject(latestRunIds);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error writing the checkpoint file " + file + ": " + ioe.getMessage());
+		}
+	}
+}
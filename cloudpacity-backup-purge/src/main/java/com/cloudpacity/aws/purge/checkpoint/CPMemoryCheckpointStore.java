@@ -0,0 +1,78 @@
+package com.cloudpacity.aws.purge.checkpoint;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import com.cloudpacity.aws.purge.pojo.PurgeCheckpoint;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Keeps checkpoints in memory, for a local run whose invocations share one process, and as the
+ * base of CPFileCheckpointStore.  Saved checkpoints are copied, so later changes to a run's
+ * checkpoint are not seen until it is saved again.
+ *
+ */
+public class CPMemoryCheckpointStore implements CPCheckpointStore {
+
+	protected final Map<String, PurgeCheckpoint> checkpoints = new HashMap<String, PurgeCheckpoint>();
+	protected final Map<String, String> latestRunIds = new HashMap<String, String>();
+
+
+	public synchronized PurgeCheckpoint load(String runId) {
+		Validate.notEmpty(runId, "The run id is empty!");
+		return copy(checkpoints.get(runId));
+	}
+
+	public synchronized PurgeCheckpoint loadLatestIncomplete(String scope) {
+		Validate.notEmpty(scope, "The checkpoint scope is empty!");
+
+		String runId = latestRunIds.get(scope);
+		PurgeCheckpoint checkpoint = (runId == null) ? null : checkpoints.get(runId);
+
+		return (checkpoint == null || checkpoint.isComplete()) ? null : copy(checkpoint);
+	}
+
+	public synchronized void save(PurgeCheckpoint checkpoint) {
+		Validate.notNull(checkpoint, "The checkpoint is null!");
+		Validate.notEmpty(checkpoint.getRunId(), "The checkpoint's run id is empty!");
+		Validate.notEmpty(checkpoint.getScope(), "The checkpoint's scope is empty!");
+
+		checkpoint.setUpdatedTime(System.currentTimeMillis());
+		checkpoints.put(checkpoint.getRunId(), copy(checkpoint));
+		latestRunIds.put(checkpoint.getScope(), checkpoint.getRunId());
+	}
+
+	protected static PurgeCheckpoint copy(PurgeCheckpoint checkpoint) {
+
+		if (checkpoint == null)
+			return null;
+
+		PurgeCheckpoint copy = new PurgeCheckpoint(checkpoint.getRunId(), checkpoint.getScope());
+		copy.setStatus(checkpoint.getStatus());
+		copy.setPhase(checkpoint.getPhase());
+		copy.setSnapshotPageToken(checkpoint.getSnapshotPageToken());
+		copy.getDeletedResourceIds().addAll(checkpoint.getDeletedResourceIds());
+		copy.setDeletedImageCount(checkpoint.getDeletedImageCount());
+		copy.setDeletedSnapshotCount(checkpoint.getDeletedSnapshotCount());
+		copy.setFailedDeleteCount(checkpoint.getFailedDeleteCount());
+		copy.setResumeCount(checkpoint.getResumeCount());
+		copy.setUpdatedTime(checkpoint.getUpdatedTime());
+		return copy;
+	}
+}
@@ -0,0 +1,346 @@
+package com.cloudpacity.aws.purge.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.purge.pojo.PurgeItem;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The AMIs and snapshots of an account and region sorted by the day they are due for purge, in
+ * a compact binary file:  a header, then per resource its purge epoch day, type and id.  A run
+ * maps the file and reads only the prefix of the resources due today, the rest of the file is
+ * not touched until the index is rewritten.
+ *
+ * Rewriting merges the resources the run evaluated again into the entries it left alone, copying
+ * those as they are, and replaces the file atomically.  The resources an index run lists as
+ * created since the full listing may already be in the index, their entries are replaced too.
+ *
+ */
+public class CPExpiryIndex {
+
+	public static final int MAGIC = 0x43505849;
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+	public static final byte TYPE_IMAGE = 0;
+	public static final byte TYPE_SNAPSHOT = 1;
+
+	private final Path file;
+	private final MappedByteBuffer buffer;
+	private final long reconciledTime;
+	private final int entryCount;
+
+	/**
+	 * One resource of the index, ordered by purge day, then by id
+	 */
+	public static class Entry implements Comparable<Entry> {
+
+		private final PurgeItem.ResourceType resourceType;
+		private final String resourceId;
+		private final long purgeEpochDay;
+
+		public Entry(PurgeItem.ResourceType resourceType, String resourceId, long purgeEpochDay) {
+			this.resourceType = resourceType;
+			this.resourceId = resourceId;
+			this.purgeEpochDay = purgeEpochDay;
+		}
+
+		public PurgeItem.ResourceType getResourceType() {
+			return resourceType;
+		}
+
+		public String getResourceId() {
+			return resourceId;
+		}
+
+		public long getPurgeEpochDay() {
+			return purgeEpochDay;
+		}
+
+		public int compareTo(Entry other) {
+			int byDay = Long.compare(purgeEpochDay, other.purgeEpochDay);
+			return (byDay != 0) ? byDay : resourceId.compareTo(other.resourceId);
+		}
+
+		public String toString() {
+			return resourceType + " " + resourceId + " day " + purgeEpochDay;
+		}
+	}
+
+
+	private CPExpiryIndex(Path file, MappedByteBuffer buffer) {
+
+		this.file = file;
+		this.buffer = buffer;
+
+		if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+			throw new CPRuntimeException("'" + file + "' is not an expiry index");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new CPRuntimeException("The expiry index '" + file + "' has the unsupported version " + buffer.getInt(4));
+		}
+		this.reconciledTime = buffer.getLong(8);
+		this.entryCount = buffer.getInt(16);
+	}
+
+	/**
+	 * @param file
+	 * @return the index mapped read only
+	 */
+	public static CPExpiryIndex open(Path file) {
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new CPExpiryIndex(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error opening the expiry index '" + file + "': " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * @return epoch millis of the full listing the index was built from
+	 */
+	public long getReconciledTime() {
+		return reconciledTime;
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * @param nowEpochDay
+	 * @return the entries due on or before the day, read from the start of the file only
+	 */
+	public List<Entry> readDue(long nowEpochDay) {
+
+		List<Entry> due = new ArrayList<Entry>();
+		EntryReader reader = new EntryReader();
+
+		while (reader.next() && reader.purgeEpochDay <= nowEpochDay) {
+			due.add(reader.toEntry());
+		}
+		return due;
+	}
+
+	/**
+	 * @return every entry, in purge day order
+	 */
+	public List<Entry> readAll() {
+		return readDue(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Writes the index again:  the entries of this index except the replaced ones, merged with the
+	 * updated entries.  The reconciled time is kept.
+	 *
+	 * @param target the file to replace, may be this index's file
+	 * @param dueEpochDay the day the replaced entries are due by, later entries are copied as they are
+	 * @param replacedIds the resources the run read from the index, evaluated again or found gone
+	 * @param relistedIds the resources the run listed as created since the full listing, replaced
+	 * whatever day they are due
+	 * @param updates the new entries of the resources still present
+	 * @return the number of entries written
+	 */
+	public int rewrite(Path target, long dueEpochDay, Set<String> replacedIds, Set<String> relistedIds, Collection<Entry> updates) {
+
+		List<Entry> sortedUpdates = new ArrayList<Entry>(updates);
+		Collections.sort(sortedUpdates);
+
+		int written = 0;
+		int nextUpdate = 0;
+		EntryReader reader = new EntryReader();
+		Path tempFile = tempFile(target);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+			writeHeader(out, reconciledTime, 0);
+
+			while (reader.next()) {
+				if (reader.purgeEpochDay <= dueEpochDay && replacedIds.contains(reader.resourceId())) {
+					continue;
+				}
+				if (!relistedIds.isEmpty() && relistedIds.contains(reader.resourceId())) {
+					continue;
+				}
+				while (nextUpdate < sortedUpdates.size() && reader.compareTo(sortedUpdates.get(nextUpdate)) > 0) {
+					writeEntry(out, sortedUpdates.get(nextUpdate++));
+					written++;
+				}
+				// the id is only decoded when an update falls on the same day or resources were relisted
+				out.write(reader.bytes(), 0, reader.length());
+				written++;
+			}
+			while (nextUpdate < sortedUpdates.size()) {
+				writeEntry(out, sortedUpdates.get(nextUpdate++));
+				written++;
+			}
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error writing the expiry index '" + target + "': " + ioe.getMessage());
+		}
+
+		commit(tempFile, target, written);
+		return written;
+	}
+
+	/**
+	 * Writes a new index from a full listing
+	 *
+	 * @param target
+	 * @param reconciledTime epoch millis of the listing
+	 * @param entries
+	 */
+	public static void write(Path target, long reconciledTime, Collection<Entry> entries) {
+
+		List<Entry> sorted = new ArrayList<Entry>(entries);
+		Collections.sort(sorted);
+		Path tempFile = tempFile(target);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+			writeHeader(out, reconciledTime, sorted.size());
+			for (Entry entry : sorted) {
+				writeEntry(out, entry);
+			}
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error writing the expiry index '" + target + "': " + ioe.getMessage());
+		}
+
+		commit(tempFile, target, sorted.size());
+	}
+
+	private static void writeHeader(DataOutputStream out, long reconciledTime, int entryCount) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(reconciledTime);
+		out.writeInt(entryCount);
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+
+		byte[] id = entry.getResourceId().getBytes(StandardCharsets.US_ASCII);
+		Validate.isTrue(id.length <= 255, "The resource id is too long for the expiry index: " + entry.getResourceId());
+
+		out.writeInt((int) entry.getPurgeEpochDay());
+		out.writeByte((entry.getResourceType() == PurgeItem.ResourceType.IMAGE) ? TYPE_IMAGE : TYPE_SNAPSHOT);
+		out.writeByte(id.length);
+		out.write(id);
+	}
+
+	private static Path tempFile(Path target) {
+		return Paths.get(target.toString() + ".tmp");
+	}
+
+	/**
+	 * Sets the entry count of the written file and moves it in place of the target
+	 */
+	private static void commit(Path tempFile, Path target, int entryCount) {
+
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4).putInt(0, entryCount), 16);
+			channel.force(true);
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error writing the expiry index '" + target + "': " + ioe.getMessage());
+		}
+
+		try {
+			Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error replacing the expiry index '" + target + "': " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Walks the mapped entries in file order, decoding an id only when asked for it
+	 */
+	private class EntryReader {
+
+		private final ByteBuffer entries = buffer.duplicate();
+		private final byte[] entryBytes = new byte[4 + 1 + 1 + 255];
+		private int position = HEADER_BYTES;
+		private int index = 0;
+		private int entryLength;
+		private long purgeEpochDay;
+		private String resourceId;
+
+		boolean next() {
+
+			if (index == entryCount) {
+				return false;
+			}
+			try {
+				entryLength = 6 + (buffer.get(position + 5) & 0xff);
+				entries.position(position);
+				entries.get(entryBytes, 0, entryLength);
+			}
+			catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+				throw new CPRuntimeException("The expiry index '" + file + "' is truncated at entry " + index);
+			}
+			purgeEpochDay = buffer.getInt(position);
+			resourceId = null;
+			position += entryLength;
+			index++;
+			return true;
+		}
+
+		String resourceId() {
+			if (resourceId == null) {
+				resourceId = new String(entryBytes, 6, entryLength - 6, StandardCharsets.US_ASCII);
+			}
+			return resourceId;
+		}
+
+		byte[] bytes() {
+			return entryBytes;
+		}
+
+		int length() {
+			return entryLength;
+		}
+
+		int compareTo(Entry entry) {
+			int byDay = Long.compare(purgeEpochDay, entry.getPurgeEpochDay());
+			return (byDay != 0) ? byDay : resourceId().compareTo(entry.getResourceId());
+		}
+
+		Entry toEntry() {
+			PurgeItem.ResourceType resourceType = (entryBytes[4] == TYPE_IMAGE) ? PurgeItem.ResourceType.IMAGE : PurgeItem.ResourceType.SNAPSHOT;
+			return new Entry(resourceType, resourceId(), purgeEpochDay);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.cloudpacity.aws.purge.index;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.purge.plan.CPPurgePlanStore;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Keeps expiry indexes in a local file, such as one under /tmp, or in S3 with an
+ * "s3://bucket/key" location.  An index in S3 is read through a copy under /tmp, which is what
+ * gets mapped, and a warm container reuses the copy while it matches the object's ETag.
+ *
+ * A full listing continued in another invocation keeps the entries recorded so far in a partial
+ * index beside the index, see getPartialLocation().  A local partial index is only found again by
+ * a continuation running in the same container.
+ *
+ */
+public class CPExpiryIndexStore {
+
+	public static final String LOCAL_COPY_DIRECTORY = "/tmp";
+	public static final String S3_PUT_OPERATION = CPPurgePlanStore.S3_PUT_OPERATION;
+	public static final String S3_GET_OPERATION = CPPurgePlanStore.S3_GET_OPERATION;
+	public static final String S3_DELETE_OPERATION = "S3DeleteObject";
+	public static final String PARTIAL_SUFFIX = ".partial";
+
+	// location -> ETag of the object the local copy was downloaded or uploaded as
+	private static final Map<String, String> LOCAL_COPY_ETAGS = new ConcurrentHashMap<String, String>();
+
+
+	/**
+	 * @param location
+	 * @return the index, or null if there is none yet
+	 */
+	public static CPExpiryIndex open(String location) {
+
+		Path file = getLocalPath(location);
+
+		if (location.startsWith(CPPurgePlanStore.S3_PREFIX)) {
+			String[] bucketKey = CPPurgePlanStore.parseS3Location(location);
+			GetObjectRequest request = new GetObjectRequest(bucketKey[0], bucketKey[1]);
+			String localETag = LOCAL_COPY_ETAGS.get(location);
+			if (localETag != null && Files.exists(file)) {
+				request.withNonmatchingETagConstraint(localETag);
+			}
+
+			long startNanos = System.nanoTime();
+			try {
+				// null when the local copy is current
+				ObjectMetadata metadata = CPPurgePlanStore.getS3Client().getObject(request, file.toFile());
+				CPMetrics.getInstance().recordCall(S3_GET_OPERATION, startNanos, null);
+				if (metadata != null) {
+					LOCAL_COPY_ETAGS.put(location, metadata.getETag());
+				}
+			}
+			catch (AmazonS3Exception s3e) {
+				CPMetrics.getInstance().recordCall(S3_GET_OPERATION, startNanos, s3e);
+				if (s3e.getStatusCode() == 404) {
+					LOCAL_COPY_ETAGS.remove(location);
+					return null;
+				}
+				throw s3e;
+			}
+		}
+		else if (!Files.exists(file)) {
+			return null;
+		}
+
+		return CPExpiryIndex.open(file);
+	}
+
+	/**
+	 * @param location the index's location
+	 * @return the location of the partial index a continued full listing is recorded in
+	 */
+	public static String getPartialLocation(String location) {
+
+		Validate.notEmpty(location, "The expiry index location is empty!");
+
+		return location + PARTIAL_SUFFIX;
+	}
+
+	/**
+	 * @param location
+	 * @return the file an index is written to before publish(), the location itself unless in S3
+	 */
+	public static Path getLocalPath(String location) {
+
+		Validate.notEmpty(location, "The expiry index location is empty!");
+
+		if (!location.startsWith(CPPurgePlanStore.S3_PREFIX)) {
+			return Paths.get(location);
+		}
+		String fileName = "cp-expiry-index-" + location.substring(CPPurgePlanStore.S3_PREFIX.length()).replaceAll("[^A-Za-z0-9._-]", "_");
+		return Paths.get(LOCAL_COPY_DIRECTORY, fileName);
+	}
+
+	/**
+	 * Uploads the written local file, if the location is in S3
+	 *
+	 * @param location
+	 */
+	public static void publish(String location) {
+
+		if (!location.startsWith(CPPurgePlanStore.S3_PREFIX)) {
+			return;
+		}
+
+		String[] bucketKey = CPPurgePlanStore.parseS3Location(location);
+		long startNanos = System.nanoTime();
+		try {
+			String eTag = CPPurgePlanStore.getS3Client().putObject(bucketKey[0], bucketKey[1], getLocalPath(location).toFile()).getETag();
+			CPMetrics.getInstance().recordCall(S3_PUT_OPERATION, startNanos, null);
+			LOCAL_COPY_ETAGS.put(location, eTag);
+		}
+		catch (RuntimeException re) {
+			CPMetrics.getInstance().recordCall(S3_PUT_OPERATION, startNanos, re);
+			throw re;
+		}
+	}
+
+	/**
+	 * Deletes the index and its local copy, if there are any
+	 *
+	 * @param location
+	 */
+	public static void delete(String location) {
+
+		Path file = getLocalPath(location);
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error deleting the expiry index '" + file + "': " + ioe.getMessage());
+		}
+
+		if (!location.startsWith(CPPurgePlanStore.S3_PREFIX)) {
+			return;
+		}
+
+		String[] bucketKey = CPPurgePlanStore.parseS3Location(location);
+		long startNanos = System.nanoTime();
+		try {
+			CPPurgePlanStore.getS3Client().deleteObject(bucketKey[0], bucketKey[1]);
+			CPMetrics.getInstance().recordCall(S3_DELETE_OPERATION, startNanos, null);
+			LOCAL_COPY_ETAGS.remove(location);
+		}
+		catch (RuntimeException re) {
+			CPMetrics.getInstance().recordCall(S3_DELETE_OPERATION, startNanos, re);
+			throw re;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.cloudpacity.aws.purge.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloudpacity.aws.purge.pojo.PurgeItem;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The expiry index entries of the resources a run evaluated, less the ones it deleted.  A
+ * snapshot backing an AMI is indexed for the later of its own and the AMI's purge day, so it is
+ * not read back before the AMI is deregistered.  AMIs are evaluated before snapshots, so the
+ * AMI's day is known by then.
+ *
+ * A full listing continued in another invocation starts from the entries the earlier ones
+ * recorded, see addAll().
+ *
+ */
+public class CPExpiryIndexUpdate {
+
+	private final Map<String, CPExpiryIndex.Entry> entries = new ConcurrentHashMap<String, CPExpiryIndex.Entry>();
+	private final Map<String, Long> imageEpochDays = new ConcurrentHashMap<String, Long>();
+
+
+	/**
+	 * @param item an evaluated item, with its purge day set
+	 * @param backingImageId the AMI a snapshot backs, null if none
+	 */
+	public void record(PurgeItem item, String backingImageId) {
+
+		long purgeEpochDay = item.getPurgeEpochDay();
+
+		if (item.getResourceType() == PurgeItem.ResourceType.IMAGE) {
+			imageEpochDays.put(item.getResourceId(), purgeEpochDay);
+		}
+		else if (backingImageId != null && imageEpochDays.containsKey(backingImageId)) {
+			purgeEpochDay = Math.max(purgeEpochDay, imageEpochDays.get(backingImageId));
+		}
+
+		entries.put(item.getResourceId(), new CPExpiryIndex.Entry(item.getResourceType(), item.getResourceId(), purgeEpochDay));
+	}
+
+	/**
+	 * @param entries recorded by an earlier invocation of the run
+	 */
+	public void addAll(Collection<CPExpiryIndex.Entry> entries) {
+
+		for (CPExpiryIndex.Entry entry : entries) {
+			if (entry.getResourceType() == PurgeItem.ResourceType.IMAGE) {
+				imageEpochDays.put(entry.getResourceId(), entry.getPurgeEpochDay());
+			}
+			this.entries.put(entry.getResourceId(), entry);
+		}
+	}
+
+	/**
+	 * @param resourceId a deleted AMI or snapshot
+	 */
+	public void remove(String resourceId) {
+		entries.remove(resourceId);
+	}
+
+	public Collection<CPExpiryIndex.Entry> getEntries() {
+		return new ArrayList<CPExpiryIndex.Entry>(entries.values());
+	}
+
+	public int size() {
+		return entries.size();
+	}
+}
@@ -2,6 +2,10 @@ package com.cloudpacity.aws.purge.lambda;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -11,11 +15,17 @@ import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.cloudpacity.aws.common.auth.CPRoleCredentials;
+import com.cloudpacity.aws.common.entity.AWSLambdaEntity;
 import com.cloudpacity.aws.common.entity.AWSSNSEntity;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.common.util.CPClientCache;
 import com.cloudpacity.aws.common.util.CPLogger;
 import com.cloudpacity.aws.purge.CPBackupPurgeEnv;
 import com.cloudpacity.aws.purge.pojo.BackupPurgeRequest;
 import com.cloudpacity.aws.purge.service.CPBackupPurge;
+import com.cloudpacity.aws.purge.service.CPMultiAccountBackupPurge;
+import com.cloudpacity.aws.purge.service.CPMultiRegionBackupPurge;
 
 /**
  * 
@@ -38,8 +48,13 @@ import com.cloudpacity.aws.purge.service.CPBackupPurge;
  */
 public class CPBackupPurgeLambda  implements RequestHandler<BackupPurgeRequest, String> {
 
+    public static final String METRIC_COLD_STARTS = "ColdStarts";
+    // invocations handled by this container, the first one is the cold start
+    private static final AtomicInteger CONTAINER_INVOCATIONS = new AtomicInteger();
+
     protected AWSCredentials awsCredentials;
     protected CPLogger logger;
+    private boolean coldStart = false;
     
     public CPBackupPurgeLambda()    {
         awsCredentials = (new EnvironmentVariableCredentialsProvider()).getCredentials();
@@ -51,24 +66,63 @@ public class CPBackupPurgeLambda  implements RequestHandler<BackupPurgeRequest,
     		String returnCode = "";
 	        logger = new CPLogger(context.getLogger());
 	        logger.log("BEGIN BACKUP PROCESS");
+	        int containerInvocations = CONTAINER_INVOCATIONS.incrementAndGet();
+	        coldStart = (containerInvocations == 1);
+	        logger.log((containerInvocations == 1 ? "Cold start" : "Warm start, invocation " + containerInvocations + " of this container")
+	        		+ ", " + CPClientCache.size() + " cached AWS clients");
 
 	        if(request == null)
 	            request = new BackupPurgeRequest();
 	        
-	        request.setAwsAccountId(context.getInvokedFunctionArn().split(":")[4]);
+	        // a chained invocation for another account purges the account of its role
+	        if (StringUtils.isEmpty(request.getRoleArn()))
+	        	request.setAwsAccountId(context.getInvokedFunctionArn().split(":")[4]);
+	        else
+	        	request.setAwsAccountId(CPRoleCredentials.getAccountId(request.getRoleArn()));
 
 	        validateBackupPurgeRequest(request, context);
 	        logger.log(request.toString());
 	        
-	        populateBackupRequest(request, context);
+	        request = populateBackupRequest(request, context);
 	        
-	        CPBackupPurge backupPurge = new CPBackupPurge(logger, awsCredentials);
+	        long deadlineMillis = getDeadline(context);
+
+	        // a chained invocation continues a single account and region
+	        List<String> purgeRegions = CPBackupPurgeEnv.getPurgeRegions();
+	        List<String> purgeAccountRoles = CPBackupPurgeEnv.getPurgeAccountRoles();
+	        if (StringUtils.isEmpty(request.getRegionName()) && !purgeAccountRoles.isEmpty()) {
+	        	if (purgeRegions.isEmpty())
+	        		purgeRegions.add(CPBackupPurgeEnv.getRegionName());
+	        	CPMultiAccountBackupPurge multiAccountPurge = new CPMultiAccountBackupPurge(logger, awsCredentials, purgeAccountRoles, purgeRegions
+	        			, CPBackupPurgeEnv.getMaxConcurrentAccounts());
+	        	multiAccountPurge.setDeadline(deadlineMillis);
+	        	returnCode = multiAccountPurge.invoke(request);
+	        	return reportFanOut(returnCode, multiAccountPurge.getContinuationRequests(), context);
+	        }
+	        if (StringUtils.isEmpty(request.getRegionName()) && !purgeRegions.isEmpty()) {
+	        	CPMultiRegionBackupPurge multiRegionPurge = new CPMultiRegionBackupPurge(logger, awsCredentials, purgeRegions);
+	        	multiRegionPurge.setDeadline(deadlineMillis);
+	        	returnCode = multiRegionPurge.invoke(request);
+	        	return reportFanOut(returnCode, multiRegionPurge.getContinuationRequests(), context);
+	        }
+
+	        String regionName = StringUtils.isEmpty(request.getRegionName()) ? CPBackupPurgeEnv.getRegionName() : request.getRegionName();
+	        CPBackupPurge backupPurge = new CPBackupPurge(logger, awsCredentials, regionName);
+	        backupPurge.setDeadline(deadlineMillis);
+	        if (StringUtils.isNotEmpty(request.getRoleArn()))
+	        	backupPurge.setCredentialsProvider(CPRoleCredentials.getCredentialsProvider(request.getRoleArn()));
 	        returnCode = backupPurge.invoke(request);
+
+	        if (CPBackupPurge.RETURN_CODE_CONTINUE.equalsIgnoreCase(returnCode)) {
+	        	returnCode = continueBackupPurge(backupPurge.getContinuationRequest(), context);
+	        }
 	        
 	        // if complete, send message to SNS
 	        if (CPBackupPurge.RETURN_CODE_COMPLETE.equalsIgnoreCase(returnCode)) {
 	        	AWSSNSEntity.postMessage(logger.getCompoundMessages(), this.logger);
 	        }
+	        // the run's metrics were emitted by invoke(), this emits the SNS publish or Lambda invoke
+	        emitMetrics();
 	        
 	        return returnCode;
 		}
@@ -77,10 +131,96 @@ public class CPBackupPurgeLambda  implements RequestHandler<BackupPurgeRequest,
 	   		logger.log(logger.getDebugMessages());
 	   		logger.log(e.getMessage());
 	   		logger.log(ExceptionUtils.getStackTrace(e));
+	   		emitMetrics();
 	   		return e.getMessage();
 	   }  
     }
     
+    /**
+     * Stops listing early enough to finish the listed resources and chain the next invocation.  The
+     * margin is cut to a quarter of the remaining time, a ContinuationMarginSeconds as long as the
+     * function's timeout would put every invocation past its deadline from the start.
+     * 
+     * @param context
+     * @return the deadline in epoch millis
+     */
+    private long getDeadline(Context context)
+    {
+        long remainingMillis = context.getRemainingTimeInMillis();
+        long marginMillis = TimeUnit.SECONDS.toMillis(CPBackupPurgeEnv.getContinuationMarginSeconds());
+
+        if (marginMillis > remainingMillis / 4) {
+        	logger.log(CPBackupPurgeEnv.ENV_VAR_CONTINUATION_MARGIN_SECS + " " + CPBackupPurgeEnv.getContinuationMarginSeconds()
+        			+ " leaves too little of the remaining " + remainingMillis + " ms, the margin is cut to " + (remainingMillis / 4) + " ms");
+        	marginMillis = remainingMillis / 4;
+        }
+        return System.currentTimeMillis() + remainingMillis - marginMillis;
+    }
+
+    /**
+     * Posts one report for the concurrently purged accounts or regions.  Each account and region
+     * that stopped at the deadline continues in its own chained invocation, which reports on its own.
+     * 
+     * @param returnCode
+     * @param continuationRequests
+     * @param context
+     * @return
+     */
+    private String reportFanOut(String returnCode, List<BackupPurgeRequest> continuationRequests, Context context)
+    {
+        for (BackupPurgeRequest continuationRequest : continuationRequests) {
+        	if (CPBackupPurge.RETURN_CODE_CONTINUE.equals(continueBackupPurge(continuationRequest, context)))
+        		logger.logSummary((StringUtils.isEmpty(continuationRequest.getRoleArn()) ? "" : "Account " + continuationRequest.getAwsAccountId() + " ")
+        				+ "Region " + continuationRequest.getRegionName() + " continues in a chained invocation");
+        }
+
+        AWSSNSEntity.postMessage(logger.getCompoundMessages(), this.logger);
+        emitMetrics();
+
+        return returnCode;
+    }
+
+    /**
+     * Emits the metrics recorded since the purge emitted its own, with the invocation's ColdStarts
+     * count, so every path reports whether the container was cold
+     */
+    private void emitMetrics()
+    {
+        if (logger == null)
+        	return;
+
+        CPMetrics.getInstance().add(METRIC_COLD_STARTS, coldStart ? 1 : 0, CPMetrics.UNIT_COUNT);
+        CPBackupPurge.emitMetrics(logger);
+    }
+
+    /**
+     * Invokes this function asynchronously with the continuation, unless the run has reached the
+     * recursion cap or its time limit
+     * 
+     * @param continuationRequest
+     * @param context
+     * @return RETURN_CODE_CONTINUE if the next invocation was queued, RETURN_CODE_COMPLETE if the run stops here
+     */
+    private String continueBackupPurge(BackupPurgeRequest continuationRequest, Context context)
+    {
+        Validate.notNull(continuationRequest, "The continuation request is null!", new Object[0]);
+
+        long runMinutes = ChronoUnit.MINUTES.between(continuationRequest.getRequestStartTime(), ZonedDateTime.now(continuationRequest.getRequestStartTime().getZone()));
+
+        if (continuationRequest.getRecursionCount() > CPBackupPurgeEnv.getMaxRecursiveCalls()) {
+        	logger.logSummary("Backup Purge stopped: the run reached the limit of " + CPBackupPurgeEnv.getMaxRecursiveCalls() + " recursive calls");
+        	return CPBackupPurge.RETURN_CODE_COMPLETE;
+        }
+        if (runMinutes >= CPBackupPurgeEnv.getMaxRunMinutes()) {
+        	logger.logSummary("Backup Purge stopped: the run has taken " + runMinutes + " of at most " + CPBackupPurgeEnv.getMaxRunMinutes() + " minutes");
+        	return CPBackupPurge.RETURN_CODE_COMPLETE;
+        }
+
+        logger.log("Continuing the backup purge: " + continuationRequest.toJson());
+        new AWSLambdaEntity(logger, new CPBackupPurgeEnv()).invokeAsync(context.getInvokedFunctionArn(), continuationRequest.toJson());
+        return CPBackupPurge.RETURN_CODE_CONTINUE;
+    }
+
     private void validateBackupPurgeRequest(BackupPurgeRequest request, Context context)
     {
         Validate.notNull(request, "The backup request is null!", new Object[0]);
@@ -93,6 +233,9 @@ public class CPBackupPurgeLambda  implements RequestHandler<BackupPurgeRequest,
         Validate.notNull(request, "The backup request is null!", new Object[0]);
         Validate.notNull(context, "The Lambda context is null!", new Object[0]);
         BackupPurgeRequest backupPurgeRequest = new BackupPurgeRequest();
+        backupPurgeRequest.setAwsAccountId(request.getAwsAccountId());
+        backupPurgeRequest.setRegionName(request.getRegionName());
+        backupPurgeRequest.setRoleArn(request.getRoleArn());
         ZoneId zoneCDT = ZoneId.of(CPBackupPurgeEnv.getDefaultTimeZone());
         ZonedDateTime iterationStartDateTime = ZonedDateTime.now(zoneCDT);
         
@@ -110,6 +253,21 @@ public class CPBackupPurgeLambda  implements RequestHandler<BackupPurgeRequest,
         	backupPurgeRequest.setOriginatingLambdaRequestId(context.getAwsRequestId());
         else
         	backupPurgeRequest.setOriginatingLambdaRequestId(request.getOriginatingLambdaRequestId());
+
+        // Continuation of a chained run
+        backupPurgeRequest.setPhase(request.getPhase());
+        backupPurgeRequest.setSnapshotPageToken(request.getSnapshotPageToken());
+        backupPurgeRequest.setRecursionCount(request.getRecursionCount());
+        backupPurgeRequest.setDeletedImageCount(request.getDeletedImageCount());
+        backupPurgeRequest.setDeletedSnapshotCount(request.getDeletedSnapshotCount());
+        backupPurgeRequest.setFailedDeleteCount(request.getFailedDeleteCount());
+        backupPurgeRequest.setExpiryIndexListTime(request.getExpiryIndexListTime());
+
+        // plan and execute modes
+        backupPurgeRequest.setPurgeMode(request.getPurgeMode());
+        backupPurgeRequest.setPlanPartition(request.getPlanPartition());
+        backupPurgeRequest.setPlanPartitionCount(request.getPlanPartitionCount());
+        backupPurgeRequest.setPlanPosition(request.getPlanPosition());
         	
         
         return backupPurgeRequest;
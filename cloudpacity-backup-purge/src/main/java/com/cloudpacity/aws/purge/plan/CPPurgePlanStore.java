@@ -0,0 +1,137 @@
+package com.cloudpacity.aws.purge.plan;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.cloudpacity.aws.common.CPCommonEnv;
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.common.util.CPClientCache;
+import com.cloudpacity.aws.purge.pojo.PurgePlan;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Saves and loads purge plans as JSON, either in a local file such as one under /tmp, or in S3
+ * with an "s3://bucket/key" location.  A local file is replaced atomically.  A local file is only
+ * seen by the container that wrote it, so a plan read by another invocation, which may run in
+ * another container, must be in S3.
+ *
+ */
+public class CPPurgePlanStore {
+
+	public static final String S3_PREFIX = "s3://";
+	public static final String CLIENT_TYPE_S3 = "S3";
+	public static final String S3_PUT_OPERATION = "S3PutObject";
+	public static final String S3_GET_OPERATION = "S3GetObject";
+
+
+	public static void save(PurgePlan plan, String location) {
+
+		Validate.notNull(plan, "The purge plan is null!");
+		Validate.notEmpty(location, "The purge plan location is empty!");
+
+		String json = plan.toJson();
+
+		if (location.startsWith(S3_PREFIX)) {
+			String[] bucketKey = parseS3Location(location);
+			long startNanos = System.nanoTime();
+			try {
+				getS3Client().putObject(bucketKey[0], bucketKey[1], json);
+				CPMetrics.getInstance().recordCall(S3_PUT_OPERATION, startNanos, null);
+			}
+			catch (RuntimeException re) {
+				CPMetrics.getInstance().recordCall(S3_PUT_OPERATION, startNanos, re);
+				throw re;
+			}
+			return;
+		}
+
+		Path file = Paths.get(location);
+		Path tempFile = Paths.get(location + ".tmp");
+		try {
+			Files.write(tempFile, json.getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error writing the purge plan '" + location + "': " + ioe.getMessage());
+		}
+	}
+
+	public static PurgePlan load(String location) {
+
+		Validate.notEmpty(location, "The purge plan location is empty!");
+
+		if (location.startsWith(S3_PREFIX)) {
+			String[] bucketKey = parseS3Location(location);
+			long startNanos = System.nanoTime();
+			try {
+				String json = getS3Client().getObjectAsString(bucketKey[0], bucketKey[1]);
+				CPMetrics.getInstance().recordCall(S3_GET_OPERATION, startNanos, null);
+				return PurgePlan.fromJson(json);
+			}
+			catch (RuntimeException re) {
+				CPMetrics.getInstance().recordCall(S3_GET_OPERATION, startNanos, re);
+				throw re;
+			}
+		}
+
+		try {
+			return PurgePlan.fromJson(new String(Files.readAllBytes(Paths.get(location)), StandardCharsets.UTF_8));
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error reading the purge plan '" + location + "': " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * @param location
+	 * @return true if every container can read the location, i.e. it is in S3
+	 */
+	public static boolean isShared(String location) {
+		return location != null && location.startsWith(S3_PREFIX);
+	}
+
+	/**
+	 * @param location "s3://bucket/key"
+	 * @return the bucket and the key
+	 */
+	public static String[] parseS3Location(String location) {
+
+		String bucketKey = location.substring(S3_PREFIX.length());
+		int slash = bucketKey.indexOf('/');
+		Validate.isTrue(slash > 0 && slash < bucketKey.length() - 1, "The location is not a valid S3 location: " + location);
+
+		return new String[] {bucketKey.substring(0, slash), bucketKey.substring(slash + 1)};
+	}
+
+	/**
+	 * @return the process wide S3 client of the function's region
+	 */
+	public static AmazonS3 getS3Client() {
+		return CPClientCache.get(CLIENT_TYPE_S3, CPCommonEnv.getRegionName(), null, () -> AmazonS3ClientBuilder.standard()
+				.withRegion(CPCommonEnv.getRegionName())
+				.build());
+	}
+}
@@ -1,18 +1,47 @@
 package com.cloudpacity.aws.purge.pojo;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
 public class BackupPurgeRequest {
 
 	
 	private String awsAccountId;
+	private String regionName;
+	private String roleArn;
     private ZonedDateTime requestStartTime;
     private String originatingLambdaRequestId;
     private String currentLambdaRequestId;
 
+    // continuation of a run that stopped before the Lambda time limit
+    public static final String PHASE_IMAGES = "Images";
+    public static final String PHASE_SNAPSHOTS = "Snapshots";
+    // the due resources of the expiry index
+    public static final String PHASE_INDEX = "Index";
+    private String phase;
+    private String snapshotPageToken;
+    private int recursionCount = 0;
+    private int deletedImageCount = 0;
+    private int deletedSnapshotCount = 0;
+    private int failedDeleteCount = 0;
+    // the full listing rebuilding the expiry index, carried over to its continuations
+    private long expiryIndexListTime = 0;
+
+    // plan and execute modes
+    public static final String PHASE_EXECUTE = "Execute";
+    private String purgeMode;
+    private int planPartition = 0;
+    private int planPartitionCount = 1;
+    private int planPosition = 0;
+
 
 	public String getAwsAccountId() {
 		return awsAccountId;
@@ -21,6 +50,28 @@ public class BackupPurgeRequest {
 	public void setAwsAccountId(String awsAccountId) {
 		this.awsAccountId = awsAccountId;
 	}
+
+	/**
+	 * @return the region to purge, empty for AWS_DEFAULT_REGION or the PurgeRegions
+	 */
+	public String getRegionName() {
+		return regionName;
+	}
+
+	public void setRegionName(String regionName) {
+		this.regionName = regionName;
+	}
+
+	/**
+	 * @return the role assumed to purge the account, empty to purge with the function's own role
+	 */
+	public String getRoleArn() {
+		return roleArn;
+	}
+
+	public void setRoleArn(String roleArn) {
+		this.roleArn = roleArn;
+	}
 	
     
 	public String getOriginatingLambdaRequestId()
@@ -73,4 +124,183 @@ public class BackupPurgeRequest {
             return "";
         }
     }
+
+    /**
+     * @return the phase to resume, null for a new run
+     */
+    public String getPhase()
+    {
+        return phase;
+    }
+
+    public void setPhase(String phase)
+    {
+        this.phase = phase;
+    }
+
+    /**
+     * @return the NextToken of the snapshot page to resume from, null for the first page
+     */
+    public String getSnapshotPageToken()
+    {
+        return snapshotPageToken;
+    }
+
+    public void setSnapshotPageToken(String snapshotPageToken)
+    {
+        this.snapshotPageToken = snapshotPageToken;
+    }
+
+    /**
+     * @return the number of invocations that preceded this one in the run
+     */
+    public int getRecursionCount()
+    {
+        return recursionCount;
+    }
+
+    public void setRecursionCount(int recursionCount)
+    {
+        this.recursionCount = recursionCount;
+    }
+
+    public int getDeletedImageCount()
+    {
+        return deletedImageCount;
+    }
+
+    public void setDeletedImageCount(int deletedImageCount)
+    {
+        this.deletedImageCount = deletedImageCount;
+    }
+
+    public int getDeletedSnapshotCount()
+    {
+        return deletedSnapshotCount;
+    }
+
+    public void setDeletedSnapshotCount(int deletedSnapshotCount)
+    {
+        this.deletedSnapshotCount = deletedSnapshotCount;
+    }
+
+    public int getFailedDeleteCount()
+    {
+        return failedDeleteCount;
+    }
+
+    public void setFailedDeleteCount(int failedDeleteCount)
+    {
+        this.failedDeleteCount = failedDeleteCount;
+    }
+
+    /**
+     * @return epoch millis the full listing rebuilding the expiry index started, 0 if the run
+     * does not rebuild it
+     */
+    public long getExpiryIndexListTime()
+    {
+        return expiryIndexListTime;
+    }
+
+    public void setExpiryIndexListTime(long expiryIndexListTime)
+    {
+        this.expiryIndexListTime = expiryIndexListTime;
+    }
+
+    /**
+     * @return "purge", "plan" or "execute", empty for the PurgeMode setting
+     */
+    public String getPurgeMode()
+    {
+        return purgeMode;
+    }
+
+    public void setPurgeMode(String purgeMode)
+    {
+        this.purgeMode = purgeMode;
+    }
+
+    /**
+     * @return the part of the plan this worker executes, from 0 to planPartitionCount - 1
+     */
+    public int getPlanPartition()
+    {
+        return planPartition;
+    }
+
+    public void setPlanPartition(int planPartition)
+    {
+        this.planPartition = planPartition;
+    }
+
+    public int getPlanPartitionCount()
+    {
+        return planPartitionCount;
+    }
+
+    public void setPlanPartitionCount(int planPartitionCount)
+    {
+        this.planPartitionCount = planPartitionCount;
+    }
+
+    /**
+     * @return the index of the plan entry to resume the execution from
+     */
+    public int getPlanPosition()
+    {
+        return planPosition;
+    }
+
+    public void setPlanPosition(int planPosition)
+    {
+        this.planPosition = planPosition;
+    }
+
+    /**
+     * @return the request as the JSON payload of a Lambda invocation
+     */
+    public String toJson()
+    {
+        StringWriter writer = new StringWriter();
+
+        try (JsonGenerator json = new JsonFactory().createGenerator(writer))
+        {
+            json.writeStartObject();
+            writeStringField(json, "awsAccountId", awsAccountId);
+            writeStringField(json, "regionName", regionName);
+            writeStringField(json, "roleArn", roleArn);
+            writeStringField(json, "originatingLambdaRequestId", originatingLambdaRequestId);
+            writeStringField(json, "requestStartTimeString", getRequestStartTimeString());
+            writeStringField(json, "phase", phase);
+            writeStringField(json, "snapshotPageToken", snapshotPageToken);
+            json.writeNumberField("recursionCount", recursionCount);
+            json.writeNumberField("deletedImageCount", deletedImageCount);
+            json.writeNumberField("deletedSnapshotCount", deletedSnapshotCount);
+            json.writeNumberField("failedDeleteCount", failedDeleteCount);
+            if (expiryIndexListTime != 0)
+                json.writeNumberField("expiryIndexListTime", expiryIndexListTime);
+            writeStringField(json, "purgeMode", purgeMode);
+            json.writeNumberField("planPartition", planPartition);
+            json.writeNumberField("planPartitionCount", planPartitionCount);
+            json.writeNumberField("planPosition", planPosition);
+            json.writeEndObject();
+        }
+        catch (IOException ioe)
+        {
+            throw new CPRuntimeException("Error writing the backup purge request: " + ioe.getMessage());
+        }
+        return writer.toString();
+    }
+
+    private static void writeStringField(JsonGenerator json, String name, String value) throws IOException
+    {
+        if (value != null && !value.isEmpty())
+            json.writeStringField(name, value);
+    }
+
+    public String toString()
+    {
+        return toJson();
+    }
 }
\ No newline at end of file
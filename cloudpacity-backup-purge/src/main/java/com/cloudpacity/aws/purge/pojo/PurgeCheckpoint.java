@@ -0,0 +1,167 @@
+package com.cloudpacity.aws.purge.pojo;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The durable progress of a purge run, keyed by the run's originatingLambdaRequestId.  Every
+ * resource listed before the snapshot page token has been handled; the deleted resource ids are
+ * those deleted since the checkpoint was taken, so a resumed run does not evaluate them again.
+ * The resume count is the number of times a new run has taken the run over after it stopped.
+ *
+ */
+public class PurgeCheckpoint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String STATUS_RUNNING = "Running";
+	public static final String STATUS_COMPLETE = "Complete";
+
+	private String runId;
+	private String scope;
+	private String status = STATUS_RUNNING;
+	private String phase;
+	private String snapshotPageToken;
+	private final Set<String> deletedResourceIds = ConcurrentHashMap.newKeySet();
+	private int deletedImageCount = 0;
+	private int deletedSnapshotCount = 0;
+	private int failedDeleteCount = 0;
+	private int resumeCount = 0;
+	private long updatedTime = 0;
+
+
+	public PurgeCheckpoint() {
+	}
+
+	/**
+	 * @param runId the run's originatingLambdaRequestId
+	 * @param scope the account and region the run purges, a store keeps the latest run per scope
+	 */
+	public PurgeCheckpoint(String runId, String scope) {
+		this.runId = runId;
+		this.scope = scope;
+	}
+
+	public String getRunId() {
+		return runId;
+	}
+
+	public void setRunId(String runId) {
+		this.runId = runId;
+	}
+
+	public String getScope() {
+		return scope;
+	}
+
+	public void setScope(String scope) {
+		this.scope = scope;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public boolean isComplete() {
+		return STATUS_COMPLETE.equals(status);
+	}
+
+	public String getPhase() {
+		return phase;
+	}
+
+	public void setPhase(String phase) {
+		this.phase = phase;
+	}
+
+	public String getSnapshotPageToken() {
+		return snapshotPageToken;
+	}
+
+	public void setSnapshotPageToken(String snapshotPageToken) {
+		this.snapshotPageToken = snapshotPageToken;
+	}
+
+	/**
+	 * @return the live, thread safe set of deleted resource ids
+	 */
+	public Set<String> getDeletedResourceIds() {
+		return deletedResourceIds;
+	}
+
+	public void addDeletedResourceId(String resourceId) {
+		deletedResourceIds.add(resourceId);
+	}
+
+	public boolean isDeleted(String resourceId) {
+		return deletedResourceIds.contains(resourceId);
+	}
+
+	public int getDeletedImageCount() {
+		return deletedImageCount;
+	}
+
+	public void setDeletedImageCount(int deletedImageCount) {
+		this.deletedImageCount = deletedImageCount;
+	}
+
+	public int getDeletedSnapshotCount() {
+		return deletedSnapshotCount;
+	}
+
+	public void setDeletedSnapshotCount(int deletedSnapshotCount) {
+		this.deletedSnapshotCount = deletedSnapshotCount;
+	}
+
+	public int getFailedDeleteCount() {
+		return failedDeleteCount;
+	}
+
+	public void setFailedDeleteCount(int failedDeleteCount) {
+		this.failedDeleteCount = failedDeleteCount;
+	}
+
+	public int getResumeCount() {
+		return resumeCount;
+	}
+
+	public void setResumeCount(int resumeCount) {
+		this.resumeCount = resumeCount;
+	}
+
+	/**
+	 * @return epoch millis of the last save
+	 */
+	public long getUpdatedTime() {
+		return updatedTime;
+	}
+
+	public void setUpdatedTime(long updatedTime) {
+		this.updatedTime = updatedTime;
+	}
+
+	public String toString() {
+		return "Checkpoint run: '" + runId + "' scope: '" + scope + "' status: " + status + " phase: " + phase
+				+ " page token: '" + snapshotPageToken + "' deleted ids: " + deletedResourceIds.size() + " resumes: " + resumeCount;
+	}
+}
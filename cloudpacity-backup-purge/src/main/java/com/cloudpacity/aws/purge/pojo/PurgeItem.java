@@ -0,0 +1,110 @@
+package com.cloudpacity.aws.purge.pojo;
+
+import java.time.LocalDate;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Snapshot;
+
+/**
+ * A listed AMI or snapshot as it moves through the purge pipeline, along with the purge
+ * decision computed for it.
+ *
+ */
+public class PurgeItem {
+
+	public enum ResourceType { IMAGE, SNAPSHOT }
+
+	private final ResourceType resourceType;
+	private final String resourceId;
+	private final Image image;
+	private final Snapshot snapshot;
+	private String pageToken = null;
+	private String name = "";
+	private long purgeEpochDay;
+	private int retentionDays;
+
+
+	private PurgeItem(ResourceType resourceType, String resourceId, Image image, Snapshot snapshot) {
+		this.resourceType = resourceType;
+		this.resourceId = resourceId;
+		this.image = image;
+		this.snapshot = snapshot;
+	}
+
+	public static PurgeItem forImage(Image image) {
+		return new PurgeItem(ResourceType.IMAGE, image.getImageId(), image, null);
+	}
+
+	public static PurgeItem forSnapshot(Snapshot snapshot) {
+		return new PurgeItem(ResourceType.SNAPSHOT, snapshot.getSnapshotId(), null, snapshot);
+	}
+
+	/**
+	 * @param snapshot
+	 * @param pageToken the NextToken the snapshot's page was requested with, null for the first page
+	 * @return
+	 */
+	public static PurgeItem forSnapshot(Snapshot snapshot, String pageToken) {
+		PurgeItem item = forSnapshot(snapshot);
+		item.pageToken = pageToken;
+		return item;
+	}
+
+	public ResourceType getResourceType() {
+		return resourceType;
+	}
+
+	public String getResourceId() {
+		return resourceId;
+	}
+
+	public Image getImage() {
+		return image;
+	}
+
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public String getPageToken() {
+		return pageToken;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the UTC day, counted from 1970-01-01, on which the item is due for purge
+	 */
+	public long getPurgeEpochDay() {
+		return purgeEpochDay;
+	}
+
+	public void setPurgeEpochDay(long purgeEpochDay) {
+		this.purgeEpochDay = purgeEpochDay;
+	}
+
+	/**
+	 * @return the days the item is retained from its creation, from its tag or the default
+	 */
+	public int getRetentionDays() {
+		return retentionDays;
+	}
+
+	public void setRetentionDays(int retentionDays) {
+		this.retentionDays = retentionDays;
+	}
+
+	public LocalDate getPurgeDate() {
+		return LocalDate.ofEpochDay(purgeEpochDay);
+	}
+
+	public String toString() {
+		return resourceType + " '" + name + "' id: '" + resourceId + "'";
+	}
+}
@@ -0,0 +1,307 @@
+package com.cloudpacity.aws.purge.pojo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The AMIs and snapshots of an account and region that are due for purge, in the order they are
+ * to be deleted:  the AMIs, then the snapshots.  A plan is computed once and may be saved as
+ * JSON, reviewed as a dry run, split across workers and executed, or executed again after a
+ * failure, without listing the account.  A plan whose listing spans several invocations is
+ * saved incomplete at the end of each one, and only the invocation finishing the listing
+ * marks it complete.
+ *
+ */
+public class PurgePlan {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private String runId;
+	private String accountId;
+	private String regionName;
+	private long createdTime;
+	private boolean complete = false;
+	private final List<PurgePlanEntry> entries = new ArrayList<PurgePlanEntry>();
+	private final Set<String> imageIds = new HashSet<String>();
+	private final Set<String> resourceIds = new HashSet<String>();
+
+
+	public PurgePlan() {
+	}
+
+	public PurgePlan(String runId, String accountId, String regionName) {
+		this.runId = runId;
+		this.accountId = accountId;
+		this.regionName = regionName;
+		this.createdTime = System.currentTimeMillis();
+	}
+
+	public synchronized void addEntry(PurgePlanEntry entry) {
+		Validate.notNull(entry, "The plan entry is null!");
+
+		entries.add(entry);
+		resourceIds.add(entry.getResourceId());
+		if (entry.getResourceType() == PurgeItem.ResourceType.IMAGE) {
+			imageIds.add(entry.getResourceId());
+		}
+	}
+
+	/**
+	 * @param imageId
+	 * @return true if the AMI is planned for purge
+	 */
+	public synchronized boolean containsImage(String imageId) {
+		return imageIds.contains(imageId);
+	}
+
+	/**
+	 * @param resourceId
+	 * @return true if the AMI or snapshot is planned for purge
+	 */
+	public synchronized boolean contains(String resourceId) {
+		return resourceIds.contains(resourceId);
+	}
+
+	/**
+	 * Splits the plan for parallel workers.  An AMI's snapshots go to the AMI's partition, so a
+	 * worker never deletes a snapshot before another worker has deregistered its AMI.
+	 *
+	 * @param partition from 0 to partitionCount - 1
+	 * @param partitionCount
+	 * @return the entries of the partition, in plan order
+	 */
+	public synchronized PurgePlan partition(int partition, int partitionCount) {
+		Validate.isTrue(partitionCount > 0 && partition >= 0 && partition < partitionCount,
+				"The plan partition " + partition + " of " + partitionCount + " is not valid!");
+
+		if (partitionCount == 1) {
+			return this;
+		}
+
+		Map<String, String> snapshotImageIds = new HashMap<String, String>();
+		for (PurgePlanEntry entry : entries) {
+			for (String snapshotId : entry.getBackingSnapshots().keySet()) {
+				snapshotImageIds.put(snapshotId, entry.getResourceId());
+			}
+		}
+
+		PurgePlan plan = new PurgePlan(runId, accountId, regionName);
+		plan.createdTime = createdTime;
+		plan.complete = complete;
+
+		for (PurgePlanEntry entry : entries) {
+			String key = snapshotImageIds.getOrDefault(entry.getResourceId(), entry.getResourceId());
+			if (Math.floorMod(key.hashCode(), partitionCount) == partition) {
+				plan.addEntry(entry);
+			}
+		}
+		return plan;
+	}
+
+	public String getRunId() {
+		return runId;
+	}
+
+	public String getAccountId() {
+		return accountId;
+	}
+
+	public String getRegionName() {
+		return regionName;
+	}
+
+	/**
+	 * @return epoch millis
+	 */
+	public long getCreatedTime() {
+		return createdTime;
+	}
+
+	/**
+	 * @return true once every resource of the account and region has been listed
+	 */
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+
+	public synchronized void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public synchronized List<PurgePlanEntry> getEntries() {
+		return new ArrayList<PurgePlanEntry>(entries);
+	}
+
+	public synchronized int getImageCount() {
+		return imageIds.size();
+	}
+
+	public synchronized int getSnapshotCount() {
+		return entries.size() - imageIds.size();
+	}
+
+	public synchronized long getSizeGiB() {
+		long sizeGiB = 0;
+		for (PurgePlanEntry entry : entries) {
+			sizeGiB += entry.getSizeGiB();
+		}
+		return sizeGiB;
+	}
+
+	public synchronized String toJson() {
+
+		StringWriter writer = new StringWriter();
+
+		try (JsonGenerator json = JSON_FACTORY.createGenerator(writer)) {
+			json.writeStartObject();
+			json.writeStringField("runId", runId);
+			json.writeStringField("accountId", accountId);
+			json.writeStringField("regionName", regionName);
+			json.writeNumberField("createdTime", createdTime);
+			json.writeBooleanField("complete", complete);
+
+			json.writeArrayFieldStart("entries");
+			for (PurgePlanEntry entry : entries) {
+				json.writeStartObject();
+				json.writeStringField("type", entry.getResourceType().name());
+				json.writeStringField("id", entry.getResourceId());
+				json.writeStringField("name", entry.getName());
+				json.writeStringField("purgeDate", entry.getPurgeDate().toString());
+				json.writeStringField("reason", entry.getReason());
+				json.writeNumberField("sizeGiB", entry.getSizeGiB());
+				if (!entry.getBackingSnapshots().isEmpty()) {
+					json.writeObjectFieldStart("backingSnapshots");
+					for (Map.Entry<String, Integer> snapshot : entry.getBackingSnapshots().entrySet()) {
+						json.writeNumberField(snapshot.getKey(), snapshot.getValue());
+					}
+					json.writeEndObject();
+				}
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+
+			json.writeEndObject();
+		}
+		catch (IOException ioe) {
+			throw new CPRuntimeException("Error writing the purge plan: " + ioe.getMessage());
+		}
+		return writer.toString();
+	}
+
+	public static PurgePlan fromJson(String jsonString) {
+
+		Validate.notEmpty(jsonString, "The purge plan JSON is empty!");
+		PurgePlan plan = new PurgePlan();
+		// a plan saved without the field was saved once its listing had finished
+		plan.complete = true;
+
+		try (JsonParser json = JSON_FACTORY.createParser(jsonString)) {
+			expect(json.nextToken(), JsonToken.START_OBJECT);
+
+			while (json.nextToken() == JsonToken.FIELD_NAME) {
+				String field = json.getCurrentName();
+				json.nextToken();
+
+				if ("runId".equals(field))
+					plan.runId = json.getValueAsString();
+				else if ("accountId".equals(field))
+					plan.accountId = json.getValueAsString();
+				else if ("regionName".equals(field))
+					plan.regionName = json.getValueAsString();
+				else if ("createdTime".equals(field))
+					plan.createdTime = json.getLongValue();
+				else if ("complete".equals(field))
+					plan.complete = json.getBooleanValue();
+				else if ("entries".equals(field))
+					readEntries(json, plan);
+				else
+					json.skipChildren();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			throw new CPRuntimeException("Error reading the purge plan: " + e.getMessage());
+		}
+		return plan;
+	}
+
+	private static void readEntries(JsonParser json, PurgePlan plan) throws IOException {
+
+		expect(json.getCurrentToken(), JsonToken.START_ARRAY);
+
+		while (json.nextToken() == JsonToken.START_OBJECT) {
+			PurgePlanEntry entry = new PurgePlanEntry();
+
+			while (json.nextToken() == JsonToken.FIELD_NAME) {
+				String field = json.getCurrentName();
+				json.nextToken();
+
+				if ("type".equals(field))
+					entry.setResourceType(PurgeItem.ResourceType.valueOf(json.getValueAsString()));
+				else if ("id".equals(field))
+					entry.setResourceId(json.getValueAsString());
+				else if ("name".equals(field))
+					entry.setName(json.getValueAsString());
+				else if ("purgeDate".equals(field))
+					entry.setPurgeEpochDay(LocalDate.parse(json.getValueAsString()).toEpochDay());
+				else if ("reason".equals(field))
+					entry.setReason(json.getValueAsString());
+				else if ("sizeGiB".equals(field))
+					entry.setSizeGiB(json.getIntValue());
+				else if ("backingSnapshots".equals(field)) {
+					while (json.nextToken() == JsonToken.FIELD_NAME) {
+						String snapshotId = json.getCurrentName();
+						json.nextToken();
+						entry.getBackingSnapshots().put(snapshotId, json.getIntValue());
+					}
+				}
+				else
+					json.skipChildren();
+			}
+
+			Validate.notNull(entry.getResourceType(), "A purge plan entry has no type!");
+			Validate.notEmpty(entry.getResourceId(), "A purge plan entry has no id!");
+			plan.addEntry(entry);
+		}
+	}
+
+	private static void expect(JsonToken token, JsonToken expected) throws IOException {
+		if (token != expected) {
+			throw new IOException("expected " + expected + " but found " + token);
+		}
+	}
+
+	public String toString() {
+		return "Purge plan" + (complete ? "" : " (incomplete)") + " run: '" + runId + "' account: '" + accountId + "' region: '" + regionName + "' AMIs: " + getImageCount()
+				+ " snapshots: " + getSnapshotCount() + " size: " + getSizeGiB() + " GiB";
+	}
+}
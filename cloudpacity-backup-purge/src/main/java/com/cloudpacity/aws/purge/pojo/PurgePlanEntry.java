@@ -0,0 +1,174 @@
+package com.cloudpacity.aws.purge.pojo;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Snapshot;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * One AMI or snapshot of a purge plan:  what is deleted, when it became due, why, and the size
+ * it frees.  An AMI entry keeps its EBS snapshots, so they can be deleted with it.
+ *
+ */
+public class PurgePlanEntry {
+
+	private PurgeItem.ResourceType resourceType;
+	private String resourceId;
+	private String name = "";
+	private long purgeEpochDay;
+	private String reason = "";
+	private int sizeGiB = 0;
+	// snapshot id -> volume size in GiB, for an AMI
+	private final Map<String, Integer> backingSnapshots = new LinkedHashMap<String, Integer>();
+
+
+	public PurgePlanEntry() {
+	}
+
+	public PurgePlanEntry(PurgeItem.ResourceType resourceType, String resourceId) {
+		this.resourceType = resourceType;
+		this.resourceId = resourceId;
+	}
+
+	/**
+	 * @param item an evaluated item, due for purge
+	 * @return
+	 */
+	public static PurgePlanEntry forItem(PurgeItem item) {
+
+		PurgePlanEntry entry = new PurgePlanEntry(item.getResourceType(), item.getResourceId());
+
+		entry.setName(item.getName());
+		entry.setPurgeEpochDay(item.getPurgeEpochDay());
+		entry.setReason("Retention of " + item.getRetentionDays() + " days ended " + item.getPurgeDate());
+
+		if (item.getResourceType() == PurgeItem.ResourceType.SNAPSHOT) {
+			entry.setSizeGiB(sizeOf(item.getSnapshot().getVolumeSize()));
+			return entry;
+		}
+
+		for (BlockDeviceMapping blockDevice : item.getImage().getBlockDeviceMappings()) {
+			EbsBlockDevice ebs = blockDevice.getEbs();
+			if (ebs != null && ebs.getSnapshotId() != null && !ebs.getSnapshotId().isEmpty()) {
+				entry.addBackingSnapshot(ebs.getSnapshotId(), sizeOf(ebs.getVolumeSize()));
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * @return an item the deleter accepts, carrying only what the delete and its log need
+	 */
+	public PurgeItem toPurgeItem() {
+
+		PurgeItem item;
+
+		if (resourceType == PurgeItem.ResourceType.SNAPSHOT) {
+			item = PurgeItem.forSnapshot(new Snapshot().withSnapshotId(resourceId).withVolumeSize(sizeGiB));
+		}
+		else {
+			List<BlockDeviceMapping> blockDevices = new ArrayList<BlockDeviceMapping>();
+			for (Map.Entry<String, Integer> snapshot : backingSnapshots.entrySet()) {
+				blockDevices.add(new BlockDeviceMapping().withEbs(new EbsBlockDevice().withSnapshotId(snapshot.getKey()).withVolumeSize(snapshot.getValue())));
+			}
+			item = PurgeItem.forImage(new Image().withImageId(resourceId).withBlockDeviceMappings(blockDevices));
+		}
+
+		item.setName(name);
+		item.setPurgeEpochDay(purgeEpochDay);
+		return item;
+	}
+
+	public PurgeItem.ResourceType getResourceType() {
+		return resourceType;
+	}
+
+	public void setResourceType(PurgeItem.ResourceType resourceType) {
+		this.resourceType = resourceType;
+	}
+
+	public String getResourceId() {
+		return resourceId;
+	}
+
+	public void setResourceId(String resourceId) {
+		this.resourceId = resourceId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = (name == null) ? "" : name;
+	}
+
+	public long getPurgeEpochDay() {
+		return purgeEpochDay;
+	}
+
+	public void setPurgeEpochDay(long purgeEpochDay) {
+		this.purgeEpochDay = purgeEpochDay;
+	}
+
+	public LocalDate getPurgeDate() {
+		return LocalDate.ofEpochDay(purgeEpochDay);
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	public void setReason(String reason) {
+		this.reason = (reason == null) ? "" : reason;
+	}
+
+	/**
+	 * @return the snapshot's volume size, or the total of an AMI's snapshots, in GiB
+	 */
+	public int getSizeGiB() {
+		return sizeGiB;
+	}
+
+	public void setSizeGiB(int sizeGiB) {
+		this.sizeGiB = sizeGiB;
+	}
+
+	public Map<String, Integer> getBackingSnapshots() {
+		return backingSnapshots;
+	}
+
+	public void addBackingSnapshot(String snapshotId, int volumeSizeGiB) {
+		backingSnapshots.put(snapshotId, volumeSizeGiB);
+		sizeGiB += volumeSizeGiB;
+	}
+
+	private static int sizeOf(Integer volumeSize) {
+		return (volumeSize == null) ? 0 : volumeSize;
+	}
+
+	public String toString() {
+		return resourceType + " '" + name + "' id: '" + resourceId + "' purge date: " + getPurgeDate() + " size: " + sizeGiB + " GiB";
+	}
+}
@@ -1,29 +1,52 @@
 package com.cloudpacity.aws.purge.service;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
 import com.amazonaws.services.ec2.model.DeleteSnapshotResult;
 import com.amazonaws.services.ec2.model.DeregisterImageResult;
 import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Image;
 import com.amazonaws.services.ec2.model.Snapshot;
-import com.amazonaws.services.ec2.model.Tag;
 import com.cloudpacity.aws.common.entity.AWSImageEntity;
+import com.cloudpacity.aws.common.entity.SnapshotPageIterator;
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.common.gateway.CPEC2Gateway;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
 import com.cloudpacity.aws.common.util.CPLogger;
 import com.cloudpacity.aws.purge.CPBackupPurgeEnv;
+import com.cloudpacity.aws.purge.checkpoint.CPCheckpointStore;
+import com.cloudpacity.aws.purge.checkpoint.CPCheckpointStoreFactory;
+import com.cloudpacity.aws.purge.index.CPExpiryIndex;
+import com.cloudpacity.aws.purge.index.CPExpiryIndexStore;
+import com.cloudpacity.aws.purge.index.CPExpiryIndexUpdate;
+import com.cloudpacity.aws.purge.plan.CPPurgePlanStore;
 import com.cloudpacity.aws.purge.pojo.BackupPurgeRequest;
+import com.cloudpacity.aws.purge.pojo.PurgeCheckpoint;
+import com.cloudpacity.aws.purge.pojo.PurgeItem;
+import com.cloudpacity.aws.purge.pojo.PurgePlan;
+import com.cloudpacity.aws.purge.pojo.PurgePlanEntry;
 /**
  * 
  * Copyright 2016 Cloudpacity
@@ -48,22 +71,161 @@ public class CPBackupPurge {
     protected AWSCredentials awsCredentials;
     protected CPLogger logger;
     protected CPBackupPurgeEnv backupPurgeEnv;
+    protected String regionName;
+    protected AWSCredentialsProvider credentialsProvider = null;
+    protected CPEC2Gateway ec2Gateway = null;
+    protected Clock clock = Clock.systemUTC();
+    private boolean imageDeletesDrained = false;
+    private long deadlineMillis = Long.MAX_VALUE;
+    private volatile BackupPurgeRequest continuationRequest = null;
+    private CPCheckpointStore checkpointStore = null;
+    private boolean checkpointStoreSet = false;
+    private PurgeCheckpoint checkpoint = null;
+    private boolean snapshotPageCheckpointed = false;
+    // set once the deleter stops at the deadline, its continuation then takes precedence over the lister's
+    private boolean deletesStopped = false;
+    private int deferredDeletes = 0;
+    // deletes submitted and resources planned by this invocation
+    private int submittedItems = 0;
+    private String checkpointedPageToken = null;
+    private final Set<String> cascadedSnapshotIds = ConcurrentHashMap.newKeySet();
+    // snapshot id -> id of the listed AMI it backs, an entry is removed once its AMI is deregistered
+    private final Map<String, String> amiSnapshotIds = new ConcurrentHashMap<String, String>();
+    // the evaluated resources to write to the expiry index, null if the run does not write one
+    private CPExpiryIndexUpdate expiryIndexUpdate = null;
+    private boolean expiryIndexRun = false;
+    // epoch millis the full listing rebuilding the index started, in this or an earlier invocation
+    private long expiryIndexListTime = 0;
     public static final String RETURN_CODE_COMPLETE = "Complete";
     public static final String RETURN_CODE_ERROR = "Error";
+    public static final String RETURN_CODE_CONTINUE = "Continue";
+    public static final String IMAGE_STATE_AVAILABLE = "available";
+    public static final String SNAPSHOT_STATUS_COMPLETED = "completed";
+    public static final String METRICS_SERVICE = "CPBackupPurge";
+    public static final String METRIC_ITEMS_EVALUATED = "ItemsEvaluated";
+    public static final String METRIC_ITEMS_DUE = "ItemsDue";
+    public static final String METRIC_IMAGES_DELETED = "ImagesDeleted";
+    public static final String METRIC_SNAPSHOTS_DELETED = "SnapshotsDeleted";
+    public static final String METRIC_SNAPSHOTS_SKIPPED = "SnapshotsSkipped";
+    public static final String METRIC_DELETES_FAILED = "DeletesFailed";
+    public static final String METRIC_GIB_RECLAIMED = "GiBReclaimed";
+    public static final String METRIC_INDEX_ENTRIES_READ = "ExpiryIndexEntriesRead";
+    // the EC2 limit of values per describe filter
+    public static final int DESCRIBE_FILTER_BATCH_SIZE = 200;
+    // the describe filters on the UTC time an AMI or snapshot was created, matched with wildcards
+    public static final String IMAGE_CREATION_DATE_FILTER = "creation-date";
+    public static final String SNAPSHOT_START_TIME_FILTER = "start-time";
+    private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
     
     
     public CPBackupPurge(CPLogger cpLogger, AWSCredentials awsCredentials)
+    {
+    	this(cpLogger, awsCredentials, CPBackupPurgeEnv.getRegionName());
+    }
+
+    public CPBackupPurge(CPLogger cpLogger, AWSCredentials awsCredentials, String regionName)
     {
    		this.awsCredentials =  awsCredentials;
 		this.logger = cpLogger;
 		this.backupPurgeEnv = new CPBackupPurgeEnv();
+		this.regionName = regionName;
+    }
+
+    /**
+     * Listing and the submission of deletes stop once the deadline passes, only the deletes
+     * already in flight are finished.  invoke() then returns RETURN_CODE_CONTINUE with the
+     * continuation in getContinuationRequest(), which lists the resources not deleted again.
+     * 
+     * @param deadlineMillis epoch millis
+     */
+    public void setDeadline(long deadlineMillis)
+    {
+    	this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @param credentialsProvider the credentials of the account to purge, e.g. an assumed role's,
+     * null for the function's own
+     */
+    public void setCredentialsProvider(AWSCredentialsProvider credentialsProvider)
+    {
+    	this.credentialsProvider = credentialsProvider;
+    }
+
+    /**
+     * @param ec2Gateway the gateway to EC2 in place of the AWS client's, e.g. an in-process
+     * simulator, null for the client's
+     */
+    public void setEC2Gateway(CPEC2Gateway ec2Gateway)
+    {
+    	this.ec2Gateway = ec2Gateway;
+    }
+
+    /**
+     * @param clock the time the retention is evaluated at and the expiry index is aged by, e.g. a
+     * simulated one days ahead of the system's.  The deadline and checkpoints keep the system's.
+     */
+    public void setClock(Clock clock)
+    {
+    	this.clock = clock;
+    }
+
+    /**
+     * Replaces the store selected by the CheckpointStore environment variable
+     * 
+     * @param checkpointStore the store, null to keep no checkpoints
+     */
+    public void setCheckpointStore(CPCheckpointStore checkpointStore)
+    {
+    	this.checkpointStore = checkpointStore;
+    	this.checkpointStoreSet = true;
+    }
+
+    /**
+     * @return the request resuming the purge where this invocation stopped, null if it finished
+     */
+    public BackupPurgeRequest getContinuationRequest()
+    {
+    	return continuationRequest;
     }
 
     public String invoke(BackupPurgeRequest backupPurgeRequest)   
+    {
+    	CPMetrics.getInstance().reset();
+    	try 
+    	{
+    		return purge(backupPurgeRequest);
+    	}
+    	finally
+    	{
+    		emitMetrics(logger);
+    	}
+    }
+
+    /**
+     * Purges without starting or emitting the metrics, for a caller running several purges at once
+     * 
+     * @param backupPurgeRequest
+     * @return RETURN_CODE_COMPLETE, RETURN_CODE_CONTINUE or RETURN_CODE_ERROR
+     */
+    public String purge(BackupPurgeRequest backupPurgeRequest)
     {
     	try 
     	{
 	    	processBackupPurge(backupPurgeRequest);
+
+	    	if (continuationRequest != null && !madeProgress(backupPurgeRequest))
+	    	{
+	    		logger.logSummary("Backup Purge stopped at the deadline without deleting or listing anything, it is not continued: "
+	    				+ "the time left before the deadline is too short");
+	    		continuationRequest = null;
+	    		return RETURN_CODE_ERROR;
+	    	}
+	    	if (continuationRequest != null)
+	    	{
+		    	logger.logSummary("Backup Purge stopped before the time limit, it continues from the " + continuationRequest.getPhase() + " phase");
+		    	return RETURN_CODE_CONTINUE;
+	    	}
 	    	
 	    	logger.logSummary("Backup Purge Completed Successfully");
 	    	return RETURN_CODE_COMPLETE;
@@ -77,262 +239,1098 @@ public class CPBackupPurge {
 	   		return RETURN_CODE_ERROR;
 	   } 
     }
+
+    /**
+     * An invocation that stopped at the deadline made progress if it submitted a delete or planned
+     * a resource, or if its continuation starts past where it started.  Without progress every
+     * chained invocation would stop at the same place.
+     * 
+     * @param backupPurgeRequest the request, resumed from its checkpoint if it was
+     * @return
+     */
+    private boolean madeProgress(BackupPurgeRequest backupPurgeRequest)
+    {
+    	if (continuationRequest == null || submittedItems > 0)
+    		return true;
+
+    	// a new run starts in the images phase, or in the index or execute phase it continues in
+    	String startPhase = backupPurgeRequest.getPhase();
+    	if (startPhase == null)
+    		startPhase = BackupPurgeRequest.PHASE_SNAPSHOTS.equals(continuationRequest.getPhase())
+    				? BackupPurgeRequest.PHASE_IMAGES : continuationRequest.getPhase();
+
+    	return !StringUtils.equals(startPhase, continuationRequest.getPhase())
+    			|| !StringUtils.equals(backupPurgeRequest.getSnapshotPageToken(), continuationRequest.getSnapshotPageToken())
+    			|| backupPurgeRequest.getPlanPosition() != continuationRequest.getPlanPosition();
+    }
+
+    /**
+     * Writes the metrics recorded since the last emit to the Lambda log in EMF
+     * 
+     * @param logger
+     */
+    public static void emitMetrics(CPLogger logger)
+    {
+    	if (!CPBackupPurgeEnv.isMetricsEnabled())
+    		return;
+
+    	for (String document : CPMetrics.getInstance().drainEMF(CPBackupPurgeEnv.getMetricsNamespace(), METRICS_SERVICE))
+    		logger.logRaw(document);
+    }
     
     /**
      * 
      * @param backupPurgeRequest
      * @return
      */
-    private void processBackupPurge(BackupPurgeRequest backupPurgeRequest) 
+    private void processBackupPurge(BackupPurgeRequest backupPurgeRequest) throws InterruptedException
     {
-    	
-        AWSImageEntity imageEntity = new AWSImageEntity(awsCredentials, CPBackupPurgeEnv.getRegionName(), logger,this.backupPurgeEnv);
 
-    	
-    	List<Filter> filterTagValues = populateFilterTags(backupPurgeRequest);
+        AWSImageEntity imageEntity;
+        if (ec2Gateway != null)
+        	imageEntity = new AWSImageEntity(ec2Gateway, regionName, logger, this.backupPurgeEnv);
+        else if (credentialsProvider == null)
+        	imageEntity = new AWSImageEntity(awsCredentials, regionName, logger,this.backupPurgeEnv);
+        else
+        	imageEntity = new AWSImageEntity(credentialsProvider, backupPurgeRequest.getAwsAccountId(), regionName, logger, this.backupPurgeEnv);
+
+        String purgeMode = StringUtils.isEmpty(backupPurgeRequest.getPurgeMode())
+        		? CPBackupPurgeEnv.getPurgeMode() : backupPurgeRequest.getPurgeMode().toLowerCase();
+
+        if (CPBackupPurgeEnv.PURGE_MODE_EXECUTE.equals(purgeMode))
+        {
+        	openMemoryCheckpoint(backupPurgeRequest);
+        	executePurgePlan(backupPurgeRequest, imageEntity);
+        	return;
+        }
+        if (CPBackupPurgeEnv.PURGE_MODE_PLAN.equals(purgeMode))
+        	openMemoryCheckpoint(backupPurgeRequest);
+        else if (!openCheckpoint(backupPurgeRequest))
+        	return;
+
+    	List<Filter> filterTagValues = populateFilterTags();
+    	List<Filter> imageFilters = populateImageFilters(filterTagValues);
+    	List<Filter> snapshotFilters = populateSnapshotFilters(backupPurgeRequest, filterTagValues);
     	Collection<String> owners = new ArrayList<String>();
     	owners.add("self");
-    	
-    	// Process AMIs
-    	List<Image> images = imageEntity.getImagesForFilter(filterTagValues, owners);
-    	
-		for (Image image : images) 
-			processImage(imageEntity, image);
-		
-    	// Process Snapshots
-    	List<Snapshot> snapshots = imageEntity.getSnapshotsForFilter(filterTagValues);
-    	
-		for (Snapshot snapshot : snapshots) 
-			processSnapshot(imageEntity, snapshot);
-    	
+
+    	// the retention policy is resolved once, every item is compared with the same "now"
+    	CPRetentionEvaluator retentionEvaluator = new CPRetentionEvaluator(this.backupPurgeEnv, logger, clock.instant());
+
+    	// listing, evaluation and deletion overlap, connected by bounded queues
+    	CPPurgePipeline pipeline = new CPPurgePipeline(CPBackupPurgeEnv.getPipelineQueueSize());
+
+    	if (CPBackupPurgeEnv.PURGE_MODE_PLAN.equals(purgeMode))
+    	{
+    		// a plan covers every resource, a listing stopped at the deadline is continued into the saved plan
+	    	String location = CPBackupPurgeEnv.getPurgePlanLocation(backupPurgeRequest.getAwsAccountId(), regionName);
+    		PurgePlan plan = (backupPurgeRequest.getPhase() == null)
+    				? new PurgePlan(backupPurgeRequest.getOriginatingLambdaRequestId(), backupPurgeRequest.getAwsAccountId(), regionName)
+    				: loadPlanToContinue(backupPurgeRequest, location);
+
+	    	pipeline.run(sink -> listResources(backupPurgeRequest, imageEntity, imageFilters, snapshotFilters, owners, sink),
+	    				 item -> evaluate(retentionEvaluator, item),
+	    				 item -> addToPlan(plan, item));
+
+	    	plan.setComplete(continuationRequest == null);
+	    	CPPurgePlanStore.save(plan, location);
+	    	logger.logSummary((plan.isComplete() ? "Planned the purge of " : "Planned so far the purge of ") + plan.getImageCount() + " AMIs and "
+	    			+ plan.getSnapshotCount() + " snapshots, " + plan.getSizeGiB() + " GiB, saved to '" + location + "'");
+	    	if (!plan.isComplete())
+	    		requireSharedPlanLocation(location, "planning continues in another invocation");
+	    	return;
+    	}
+
+    	String expiryIndexLocation = CPBackupPurgeEnv.getExpiryIndexLocation(backupPurgeRequest.getAwsAccountId(), regionName);
+    	CPExpiryIndex expiryIndex = openExpiryIndex(backupPurgeRequest, expiryIndexLocation);
+
+    	try (CPPurgeDeleteExecutor deleteExecutor = new CPPurgeDeleteExecutor(CPBackupPurgeEnv.getDeleteParallelism(), logger))
+    	{
+    		if (expiryIndex != null)
+    		{
+    			// only the resources the index has due are described, by id, and those created since the full listing
+    			long nowEpochDay = retentionEvaluator.getNowEpochDay();
+    			List<CPExpiryIndex.Entry> dueEntries = expiryIndex.readDue(nowEpochDay);
+    			List<String> createdDays = getCreatedDays(expiryIndex.getReconciledTime(), nowEpochDay);
+    			Set<String> readIds = ConcurrentHashMap.newKeySet();
+    			Set<String> relistedIds = ConcurrentHashMap.newKeySet();
+
+    			logger.logSummary("Expiry index '" + expiryIndexLocation + "' has " + dueEntries.size() + " of " + expiryIndex.getEntryCount()
+    					+ " resources due, the resources created since " + LocalDate.ofEpochDay(Math.floorDiv(expiryIndex.getReconciledTime(), MILLIS_PER_DAY))
+    					+ " are listed too");
+    			CPMetrics.getInstance().add(METRIC_INDEX_ENTRIES_READ, dueEntries.size(), CPMetrics.UNIT_COUNT);
+
+		    	pipeline.run(sink -> listIndexedResources(backupPurgeRequest, imageEntity, dueEntries, readIds, createdDays, relistedIds
+		    				 		, imageFilters, snapshotFilters, owners, sink),
+		    				 item -> evaluate(retentionEvaluator, item),
+		    				 item -> submitDelete(backupPurgeRequest, deleteExecutor, imageEntity, item));
+
+		    	finishDeletes(backupPurgeRequest, deleteExecutor);
+
+		    	int written = expiryIndex.rewrite(CPExpiryIndexStore.getLocalPath(expiryIndexLocation), nowEpochDay, readIds, relistedIds
+		    			, expiryIndexUpdate.getEntries());
+		    	CPExpiryIndexStore.publish(expiryIndexLocation);
+		    	logger.logSummary("Expiry index '" + expiryIndexLocation + "' rewritten with " + written + " resources");
+		    	return;
+    		}
+
+	    	pipeline.run(sink -> listResources(backupPurgeRequest, imageEntity, imageFilters, snapshotFilters, owners, sink),
+	    				 item -> evaluate(retentionEvaluator, item),
+	    				 item -> submitDelete(backupPurgeRequest, deleteExecutor, imageEntity, item));
+
+	    	finishDeletes(backupPurgeRequest, deleteExecutor);
+
+	    	if (expiryIndexUpdate != null)
+	    		saveExpiryIndex(expiryIndexLocation);
+    	}
     }
 
     /**
+     * Decides between reading the due resources from the expiry index and a full listing.  A new
+     * run uses the index unless it is missing or older than ExpiryIndexReconcileDays, in which
+     * case the full listing rebuilds it.  A run using the index also lists the resources created
+     * since the full listing, which the index does not have yet, so a new backup is purged on
+     * time however long ago the index was rebuilt.  A continued index run reads the index again, the entries
+     * it did not get to are still in it, and a continued full listing goes on rebuilding it.
      * 
+     * @param backupPurgeRequest
+     * @param expiryIndexLocation
+     * @return the index to read the due resources from, null for a full listing
+     */
+    private CPExpiryIndex openExpiryIndex(BackupPurgeRequest backupPurgeRequest, String expiryIndexLocation)
+    {
+    	boolean newRun = backupPurgeRequest.getPhase() == null;
+    	boolean indexPhase = BackupPurgeRequest.PHASE_INDEX.equals(backupPurgeRequest.getPhase());
+
+    	if (StringUtils.isEmpty(expiryIndexLocation))
+    		return null;
+    	if (!(newRun || indexPhase))
+    	{
+    		openPartialExpiryIndex(backupPurgeRequest, expiryIndexLocation);
+    		return null;
+    	}
+
+    	expiryIndexUpdate = new CPExpiryIndexUpdate();
+    	CPExpiryIndex expiryIndex = CPExpiryIndexStore.open(expiryIndexLocation);
+
+    	if (expiryIndex == null)
+    	{
+    		logger.logSummary("No expiry index at '" + expiryIndexLocation + "', listing every resource to build it");
+    		expiryIndexListTime = clock.millis();
+    		return null;
+    	}
+
+    	long reconcileMillis = TimeUnit.DAYS.toMillis(CPBackupPurgeEnv.getExpiryIndexReconcileDays());
+    	if (!indexPhase && clock.millis() - expiryIndex.getReconciledTime() >= reconcileMillis)
+    	{
+    		logger.logSummary("The expiry index '" + expiryIndexLocation + "' was built on " + Instant.ofEpochMilli(expiryIndex.getReconciledTime())
+    				+ ", listing every resource to rebuild it");
+    		expiryIndexListTime = clock.millis();
+    		return null;
+    	}
+
+    	expiryIndexRun = true;
+    	return expiryIndex;
+    }
+
+    /**
+     * Continues recording a full listing that rebuilds the index from the partial index the run's
+     * earlier invocations saved.  Without the partial index, e.g. a local one saved in another
+     * container, the run does not rebuild the index and the next run lists every resource again.
+     * 
+     * @param backupPurgeRequest the continuation
+     * @param expiryIndexLocation
+     */
+    private void openPartialExpiryIndex(BackupPurgeRequest backupPurgeRequest, String expiryIndexLocation)
+    {
+    	if (backupPurgeRequest.getExpiryIndexListTime() == 0)
+    		return;
+
+    	String partialLocation = CPExpiryIndexStore.getPartialLocation(expiryIndexLocation);
+    	CPExpiryIndex partialIndex = CPExpiryIndexStore.open(partialLocation);
+
+    	// a partial index listed at another time is left by another run
+    	if (partialIndex == null || partialIndex.getReconciledTime() != backupPurgeRequest.getExpiryIndexListTime())
+    	{
+    		logger.logSummary("No partial expiry index of the run at '" + partialLocation + "', the index is not rebuilt by this run");
+    		return;
+    	}
+
+    	expiryIndexUpdate = new CPExpiryIndexUpdate();
+    	expiryIndexUpdate.addAll(partialIndex.readAll());
+    	expiryIndexListTime = backupPurgeRequest.getExpiryIndexListTime();
+    	logger.log("Rebuilding the expiry index from the " + partialIndex.getEntryCount() + " resources recorded at '" + partialLocation + "'");
+    }
+
+    /**
+     * Writes the index rebuilt by the full listing once the listing has covered every resource.  A
+     * listing stopped at the deadline saves the entries recorded so far to the partial index
+     * instead, for the continuation to go on from.
+     * 
+     * @param expiryIndexLocation
+     */
+    private void saveExpiryIndex(String expiryIndexLocation)
+    {
+    	String partialLocation = CPExpiryIndexStore.getPartialLocation(expiryIndexLocation);
+
+    	if (continuationRequest != null)
+    	{
+    		CPExpiryIndex.write(CPExpiryIndexStore.getLocalPath(partialLocation), expiryIndexListTime, expiryIndexUpdate.getEntries());
+    		CPExpiryIndexStore.publish(partialLocation);
+    		logger.log("Partial expiry index '" + partialLocation + "' saved with " + expiryIndexUpdate.size() + " resources");
+    		return;
+    	}
+
+    	CPExpiryIndex.write(CPExpiryIndexStore.getLocalPath(expiryIndexLocation), expiryIndexListTime, expiryIndexUpdate.getEntries());
+    	CPExpiryIndexStore.publish(expiryIndexLocation);
+    	logger.logSummary("Expiry index '" + expiryIndexLocation + "' rebuilt with " + expiryIndexUpdate.size() + " resources");
+    	CPExpiryIndexStore.delete(partialLocation);
+    }
+
+    /**
+     * Loads the incomplete plan the run's earlier invocations saved, to add the resources listed
+     * by this one
+     * 
+     * @param backupPurgeRequest the continuation
+     * @param location
+     * @return
+     */
+    private PurgePlan loadPlanToContinue(BackupPurgeRequest backupPurgeRequest, String location)
+    {
+    	PurgePlan plan = CPPurgePlanStore.load(location);
+
+    	if (plan.isComplete() || !StringUtils.equals(plan.getRunId(), backupPurgeRequest.getOriginatingLambdaRequestId()))
+    		throw new CPRuntimeException("The purge plan at '" + location + "' is not the incomplete plan of run '"
+    				+ backupPurgeRequest.getOriginatingLambdaRequestId() + "': " + plan);
+
+    	logger.log("Continuing " + plan + " from the " + backupPurgeRequest.getPhase() + " phase");
+    	return plan;
+    }
+
+    /**
+     * Deletes the entries of the saved purge plan, or of this worker's partition of it, without
+     * listing.  Resources already deleted, e.g. when a failed execution is run again, are skipped.
+     * Once the deadline passes the remaining entries are left to the continuation.
+     * 
+     * @param backupPurgeRequest
      * @param imageEntity
-     * @param image
+     * @throws InterruptedException
      */
-	private void processImage(AWSImageEntity imageEntity, Image image) 
-	{
-		ZoneId zoneId = ZoneId.of(CPBackupPurgeEnv.UTC_TIME_ZONE);
+    private void executePurgePlan(BackupPurgeRequest backupPurgeRequest, AWSImageEntity imageEntity) throws InterruptedException
+    {
+    	String location = CPBackupPurgeEnv.getPurgePlanLocation(backupPurgeRequest.getAwsAccountId(), regionName);
+    	int partitionCount = Math.max(1, backupPurgeRequest.getPlanPartitionCount());
 
-		String imageName = AWSImageEntity.getTagValueFromList(this.backupPurgeEnv.getNameTag(), image.getTags(), "");
-		
-		ZonedDateTime purgeDateTime = getAMIPurgeDateTime(imageName, image,  zoneId);
-		ZonedDateTime currDateTime = ZonedDateTime.now(zoneId);
-		
-		this.logger.log("Image: '" + imageName + "' id: '" + image.getImageId() + "' is being evaluated.  Create date: '" +image.getCreationDate()+
-				 "' Purge date: '" + purgeDateTime + "' " + "' Current date: '" + currDateTime + "' " + System.getProperty("line.separator") );
+    	if (partitionCount > 1)
+    		requireSharedPlanLocation(location, "the plan is executed by " + partitionCount + " partitioned workers");
+    	if (backupPurgeRequest.getRecursionCount() > 0)
+    		requireSharedPlanLocation(location, "the plan's execution was continued in another invocation");
+    	PurgePlan savedPlan = CPPurgePlanStore.load(location);
+    	validatePlan(backupPurgeRequest, savedPlan, location);
 
-		if (ChronoUnit.DAYS.between(purgeDateTime, currDateTime) >= 0) 
-		{
-			DeregisterImageResult result = imageEntity.delete(image.getImageId());
-			this.logger.log("Image: '" + imageName + "' id: '" + image.getImageId() + "' was deleted!  Create date: '" +image.getCreationDate()+
-					        "' Purge date: '" + purgeDateTime + "' " +  "' Current datetime: '" + currDateTime +
-					        System.getProperty("line.separator") + result.getSdkResponseMetadata());
-			this.logger.logSummary("DELETED: Image: '" + imageName + "' id: '" + image.getImageId() + "' !" );
-		}
-	}
-	
-	/**
-	 * 
-	 * @param imageName
-	 * @param image
-	 * @param zoneId
-	 * @return
-	 * @throws DateTimeParseException
-	 * @throws NumberFormatException
-	 */
-	private ZonedDateTime getAMIPurgeDateTime(String imageName, Image image,ZoneId zoneId) 
-			throws DateTimeParseException, NumberFormatException
-	{
-		
-		ZonedDateTime createdDateTime = null;
-		Integer retainDays = null;
-		
-		// get the creation timestamp from a tag
-		String creationTimestampString = AWSImageEntity.getTagValueFromList(CPBackupPurgeEnv.DEFAULT_CREATION_TIMESTAMP_TAG, image.getTags(), "");
-
-		// if a creation timestamp tag is not found, get the creation time from the AMI's creation date
-		if (StringUtils.isEmpty(creationTimestampString)) 
+    	PurgePlan plan = savedPlan.partition(backupPurgeRequest.getPlanPartition(), partitionCount);
+    	List<PurgePlanEntry> entries = plan.getEntries();
+
+    	logger.logSummary("Executing " + plan + " from '" + location + "', partition " + backupPurgeRequest.getPlanPartition()
+    			+ " of " + partitionCount + ", from entry " + backupPurgeRequest.getPlanPosition());
+
+    	try (CPPurgeDeleteExecutor deleteExecutor = new CPPurgeDeleteExecutor(CPBackupPurgeEnv.getDeleteParallelism(), logger))
+    	{
+    		for (int position = backupPurgeRequest.getPlanPosition(); position < entries.size(); position++)
+    		{
+    			if (isPastDeadline())
+    			{
+    				setContinuation(backupPurgeRequest, BackupPurgeRequest.PHASE_EXECUTE, null);
+    				continuationRequest.setPlanPosition(position);
+    				break;
+    			}
+    			submitDelete(backupPurgeRequest, deleteExecutor, imageEntity, entries.get(position).toPurgeItem());
+    		}
+
+	    	finishDeletes(backupPurgeRequest, deleteExecutor);
+    	}
+    }
+
+    /**
+     * Refuses a plan before anything is deleted unless it is complete, it is the plan of the
+     * request's account and region, and it is at most PurgePlanMaxAgeHours old
+     * 
+     * @param backupPurgeRequest
+     * @param plan
+     * @param location
+     */
+    private void validatePlan(BackupPurgeRequest backupPurgeRequest, PurgePlan plan, String location)
+    {
+    	if (!plan.isComplete())
+    		throw new CPRuntimeException("The purge plan at '" + location + "' is still being planned: " + plan);
+
+    	if (!StringUtils.equals(plan.getAccountId(), backupPurgeRequest.getAwsAccountId()) || !StringUtils.equals(plan.getRegionName(), regionName))
+    		throw new CPRuntimeException("The purge plan at '" + location + "' is not the plan of account '" + backupPurgeRequest.getAwsAccountId()
+    				+ "' region '" + regionName + "': " + plan);
+
+    	long ageHours = TimeUnit.MILLISECONDS.toHours(System.currentTimeMillis() - plan.getCreatedTime());
+    	if (ageHours >= CPBackupPurgeEnv.getPurgePlanMaxAgeHours())
+    		throw new CPRuntimeException("The purge plan at '" + location + "' was created " + ageHours + " hours ago, more than "
+    				+ CPBackupPurgeEnv.ENV_VAR_PURGE_PLAN_MAX_AGE_HOURS + " " + CPBackupPurgeEnv.getPurgePlanMaxAgeHours() + " allows: " + plan);
+    }
+
+    /**
+     * A local plan file is only seen by the container that wrote it
+     * 
+     * @param location
+     * @param reason why another invocation reads the plan
+     */
+    private static void requireSharedPlanLocation(String location, String reason)
+    {
+    	if (!CPPurgePlanStore.isShared(location))
+    		throw new CPRuntimeException("The purge plan location '" + location + "' is local to this container but " + reason
+    				+ ", set " + CPBackupPurgeEnv.ENV_VAR_PURGE_PLAN_LOCATION + " to an s3://bucket/key location");
+    }
+
+    /**
+     * Waits for the submitted deletes, then reports and checkpoints the run's counts
+     * 
+     * @param backupPurgeRequest
+     * @param deleteExecutor
+     * @throws InterruptedException
+     */
+    private void finishDeletes(BackupPurgeRequest backupPurgeRequest, CPPurgeDeleteExecutor deleteExecutor) throws InterruptedException
+    {
+    	deleteExecutor.awaitCompletion();
+    	deleteExecutor.logSummary();
+    	if (deferredDeletes > 0)
+    		logger.logSummary(deferredDeletes + " resources due were not deleted before the deadline, they are left to the continuation");
+    	if (CPBackupPurgeEnv.isCascadeSnapshotDelete())
+    		logger.logSummary("Deleted " + cascadedSnapshotIds.size() + " snapshots backing deregistered AMIs");
+
+    	CPMetrics metrics = CPMetrics.getInstance();
+    	metrics.add(METRIC_IMAGES_DELETED, deleteExecutor.getDeletedImageCount(), CPMetrics.UNIT_COUNT);
+    	metrics.add(METRIC_SNAPSHOTS_DELETED, deleteExecutor.getDeletedSnapshotCount(), CPMetrics.UNIT_COUNT);
+    	metrics.add(METRIC_SNAPSHOTS_SKIPPED, deleteExecutor.getSkippedDeleteCount(), CPMetrics.UNIT_COUNT);
+    	metrics.add(METRIC_DELETES_FAILED, deleteExecutor.getFailedDeleteCount(), CPMetrics.UNIT_COUNT);
+
+    	// counts across every invocation of the run
+    	int deletedImages = backupPurgeRequest.getDeletedImageCount() + deleteExecutor.getDeletedImageCount();
+    	int deletedSnapshots = backupPurgeRequest.getDeletedSnapshotCount() + deleteExecutor.getDeletedSnapshotCount();
+    	int failedDeletes = backupPurgeRequest.getFailedDeleteCount() + deleteExecutor.getFailedDeleteCount();
+
+    	if (continuationRequest != null)
+    	{
+    		continuationRequest.setDeletedImageCount(deletedImages);
+    		continuationRequest.setDeletedSnapshotCount(deletedSnapshots);
+    		continuationRequest.setFailedDeleteCount(failedDeletes);
+    		saveCheckpoint(backupPurgeRequest, deleteExecutor, continuationRequest.getPhase(), continuationRequest.getSnapshotPageToken(), PurgeCheckpoint.STATUS_RUNNING);
+    	}
+    	else
+    	{
+    		saveCheckpoint(backupPurgeRequest, deleteExecutor, BackupPurgeRequest.PHASE_SNAPSHOTS, null, PurgeCheckpoint.STATUS_COMPLETE);
+    	}
+
+    	if (continuationRequest == null && backupPurgeRequest.getRecursionCount() > 0)
+    	{
+    		logger.logSummary("Run total over " + (backupPurgeRequest.getRecursionCount() + 1) + " invocations: deleted " + deletedImages
+    				+ " AMIs and " + deletedSnapshots + " snapshots, " + failedDeletes + " deletes failed");
+    	}
+    }
+
+    /**
+     * Loads the run's checkpoint.  A new run takes over the latest run of its account and region
+     * if that run stopped without completing, resuming from its checkpoint under its run id.  A
+     * run whose checkpoint was saved within CheckpointLeaseMinutes may still be running in a
+     * chained invocation, so the new run is skipped instead.  A run already taken over
+     * MaxCheckpointResumes times is given up and the new run starts over.  Every invocation saves
+     * the checkpoint when it opens it, renewing the run's lease.
+     * 
+     * @param backupPurgeRequest
+     * @return false if the run is skipped
+     */
+    private boolean openCheckpoint(BackupPurgeRequest backupPurgeRequest)
+    {
+    	if (!checkpointStoreSet)
+    		setCheckpointStore(CPCheckpointStoreFactory.create());
+
+    	if (StringUtils.isEmpty(backupPurgeRequest.getOriginatingLambdaRequestId()))
+    		backupPurgeRequest.setOriginatingLambdaRequestId(UUID.randomUUID().toString());
+
+    	String runId = backupPurgeRequest.getOriginatingLambdaRequestId();
+    	String scope = backupPurgeRequest.getAwsAccountId() + "/" + regionName;
+    	boolean newRun = backupPurgeRequest.getPhase() == null;
+
+    	PurgeCheckpoint saved = null;
+    	if (checkpointStore != null)
+    		saved = newRun ? checkpointStore.loadLatestIncomplete(scope) : checkpointStore.load(runId);
+
+    	if (saved != null && newRun)
+    	{
+    		long savedMinutesAgo = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - saved.getUpdatedTime());
+    		if (savedMinutesAgo < CPBackupPurgeEnv.getCheckpointLeaseMinutes())
+    		{
+    			logger.logSummary("Run '" + saved.getRunId() + "' saved its checkpoint " + savedMinutesAgo + " minutes ago and may still be running, this run is skipped");
+    			return false;
+    		}
+    		if (saved.getResumeCount() >= CPBackupPurgeEnv.getMaxCheckpointResumes())
+    		{
+    			logger.logSummary("Run '" + saved.getRunId() + "' was resumed " + saved.getResumeCount() + " times without completing, it is given up and this run starts over");
+    			saved = null;
+    		}
+    	}
+
+    	if (saved == null)
+    	{
+    		checkpoint = new PurgeCheckpoint(runId, scope);
+    		if (checkpointStore != null && newRun)
+    		{
+    			checkpoint.setPhase(BackupPurgeRequest.PHASE_IMAGES);
+    			checkpointStore.save(checkpoint);
+    		}
+    		return true;
+    	}
+
+    	checkpoint = saved;
+    	if (newRun)
+    	{
+    		logger.logSummary("Resuming run '" + saved.getRunId() + "' from its checkpoint in the " + saved.getPhase() + " phase");
+    		saved.setResumeCount(saved.getResumeCount() + 1);
+    		backupPurgeRequest.setOriginatingLambdaRequestId(saved.getRunId());
+    		backupPurgeRequest.setPhase(saved.getPhase());
+    		backupPurgeRequest.setSnapshotPageToken(saved.getSnapshotPageToken());
+    		backupPurgeRequest.setDeletedImageCount(saved.getDeletedImageCount());
+    		backupPurgeRequest.setDeletedSnapshotCount(saved.getDeletedSnapshotCount());
+    		backupPurgeRequest.setFailedDeleteCount(saved.getFailedDeleteCount());
+    	}
+    	checkpointStore.save(checkpoint);
+    	return true;
+    }
+
+    /**
+     * Keeps the run's deleted resource ids in memory only, for a run that is resumed from its
+     * purge plan rather than from a checkpoint
+     * 
+     * @param backupPurgeRequest
+     */
+    private void openMemoryCheckpoint(BackupPurgeRequest backupPurgeRequest)
+    {
+    	setCheckpointStore(null);
+    	checkpoint = new PurgeCheckpoint(backupPurgeRequest.getOriginatingLambdaRequestId(), backupPurgeRequest.getAwsAccountId() + "/" + regionName);
+    }
+
+    /**
+     * Saves the run's progress and run totals, if a checkpoint store is configured
+     * 
+     * @param backupPurgeRequest
+     * @param deleteExecutor
+     * @param phase
+     * @param snapshotPageToken
+     * @param status
+     */
+    private void saveCheckpoint(BackupPurgeRequest backupPurgeRequest, CPPurgeDeleteExecutor deleteExecutor, String phase
+    		, String snapshotPageToken, String status)
+    {
+    	if (checkpointStore == null)
+    		return;
+
+    	checkpoint.setStatus(status);
+    	checkpoint.setPhase(phase);
+    	checkpoint.setSnapshotPageToken(snapshotPageToken);
+    	checkpoint.setDeletedImageCount(backupPurgeRequest.getDeletedImageCount() + deleteExecutor.getDeletedImageCount());
+    	checkpoint.setDeletedSnapshotCount(backupPurgeRequest.getDeletedSnapshotCount() + deleteExecutor.getDeletedSnapshotCount());
+    	checkpoint.setFailedDeleteCount(backupPurgeRequest.getFailedDeleteCount() + deleteExecutor.getFailedDeleteCount());
+
+    	checkpointStore.save(checkpoint);
+    	logger.logDebug("Saved " + checkpoint);
+    }
+
+    /**
+     * Evaluator stage
+     * 
+     * @param retentionEvaluator
+     * @param item
+     * @return true if the item is due for purge
+     */
+    private boolean evaluate(CPRetentionEvaluator retentionEvaluator, PurgeItem item)
+    {
+    	if (checkpoint.isDeleted(item.getResourceId()))
+    	{
+    		this.logger.log(item + " was deleted before the run was resumed");
+    		return false;
+    	}
+
+    	CPMetrics.getInstance().increment(METRIC_ITEMS_EVALUATED);
+
+    	boolean due = retentionEvaluator.isDue(item);
+    	if (due)
+    		CPMetrics.getInstance().increment(METRIC_ITEMS_DUE);
+
+    	// an item whose dates could not be read is left to the next full listing
+    	if (expiryIndexUpdate != null && (due || item.getPurgeEpochDay() > retentionEvaluator.getNowEpochDay()))
+    		expiryIndexUpdate.record(item, amiSnapshotIds.get(item.getResourceId()));
+    	return due;
+    }
+
+    private void removeFromExpiryIndex(String resourceId)
+    {
+    	if (expiryIndexUpdate != null)
+    		expiryIndexUpdate.remove(resourceId);
+    }
+
+    /**
+     * Lister stage: feeds the AMIs, then the snapshots a page at a time, into the pipeline.  The
+     * AMIs are always listed to index the snapshots they reference, but are only purged in the
+     * images phase.  Once the deadline passes listing stops, before the next AMI or snapshot page,
+     * and the continuation is recorded.  AMIs are listed in a single call, so the images phase
+     * resumes by listing them again, the deregistered ones are gone.
+     *
+     * @param backupPurgeRequest
+     * @param imageEntity
+     * @param imageFilters
+     * @param snapshotFilters
+     * @param owners
+     * @param sink
+     * @throws InterruptedException
+     */
+    private void listResources(BackupPurgeRequest backupPurgeRequest, AWSImageEntity imageEntity, List<Filter> imageFilters, List<Filter> snapshotFilters, Collection<String> owners
+    		, CPPurgePipeline.Sink sink)
+    		throws InterruptedException
+    {
+    	// Process AMIs
+    	List<Image> images = imageEntity.getImagesForFilter(imageFilters, owners);
+
+		for (Image image : images)
 		{
-			String createdDateString = image.getCreationDate();
-			try 
-			{
-				createdDateTime = ZonedDateTime.parse(createdDateString, DateTimeFormatter.ofPattern(AWSImageEntity.AMI_DATE_FORMAT));
-			}
-			catch (DateTimeParseException pe) {
-				this.logger.log("Image: '" + imageName + "' id: '" + image.getImageId() + "' error parsing AMI creation date attribute '" + createdDateString + "'");
-				throw pe;
-			}
+			for (String snapshotId : AWSImageEntity.getEBSSnapshotIds(image))
+				amiSnapshotIds.put(snapshotId, image.getImageId());
 		}
-		else 
-		{
-			try 
-			{
-				createdDateTime = ZonedDateTime.parse(creationTimestampString, DateTimeFormatter.ofPattern(CPBackupPurgeEnv.DEFAULT_DATE_FORMAT));
-			}
-			catch (DateTimeParseException pe) 
-			{
-				this.logger.log("Image: '" + imageName + "' id: '" + image.getImageId() + "' error parsing tag creation date '" + creationTimestampString + "'");
-				throw pe;
-			}
-		}		
-		
-		String retainDaysString = AWSImageEntity.getTagValueFromList(this.backupPurgeEnv.getBackupRetentionDaysTag(), image.getTags(), "");
-		
-		// use the tag for retention days if available, otherwise use the the default
-		if (!StringUtils.isEmpty(retainDaysString)) 
+
+		if (!BackupPurgeRequest.PHASE_SNAPSHOTS.equals(backupPurgeRequest.getPhase()))
 		{
-			try 
+			for (Image image : images)
 			{
-				retainDays = new Integer(retainDaysString);
-			}
-			catch (NumberFormatException nfe) {
-				this.logger.log("Image: '" + imageName + "' id: '" + image.getImageId() + "' has an invalid tag '" + this.backupPurgeEnv.getBackupRetentionDaysTag() + "'");
-				throw nfe;
+				if (isPastDeadline())
+				{
+					setContinuation(backupPurgeRequest, BackupPurgeRequest.PHASE_IMAGES, null);
+					return;
+				}
+				sink.accept(PurgeItem.forImage(image));
 			}
 		}
-		else 
-		{
-			retainDays = CPBackupPurgeEnv.getDefaultRetentionDays();
-		}
 
-		return createdDateTime.plusDays(retainDays);
+		String startToken = BackupPurgeRequest.PHASE_SNAPSHOTS.equals(backupPurgeRequest.getPhase()) ? backupPurgeRequest.getSnapshotPageToken() : null;
+
+    	// Process Snapshots a page at a time, the next page is fetched while this one is processed
+    	try (SnapshotPageIterator snapshotPages = imageEntity.getSnapshotPagesForFilter(snapshotFilters, CPBackupPurgeEnv.getSnapshotPageSize(), startToken))
+    	{
+    		boolean firstPage = true;
+    		while (snapshotPages.hasNext())
+    		{
+    			if (isPastDeadline())
+    			{
+    				setContinuation(backupPurgeRequest, BackupPurgeRequest.PHASE_SNAPSHOTS, snapshotPages.getNextPageToken());
+    				return;
+    			}
+    			List<Snapshot> snapshots = snapshotPages.next();
+    			if (firstPage && snapshotPages.isRestarted())
+    				logger.logSummary("The snapshot page token to resume from was rejected, listing the snapshots from the first page");
+    			firstPage = false;
+
+    			for (Snapshot snapshot : snapshots)
+    				sink.accept(PurgeItem.forSnapshot(snapshot, snapshotPages.getPageToken()));
+    		}
+    	}
+    }
+
+    /**
+     * Lister stage of an index run: describes the resources the expiry index has due, by id in
+     * batches, then lists the resources created since the index's full listing by their creation
+     * day, the AMIs first.  The ids of each batch described are recorded in readIds, a resource
+     * not found is gone or no longer matches the filters and is dropped from the index.  The ids
+     * of the created resources listed are recorded in relistedIds, a created resource also due in
+     * the index is only fed once.  Once the deadline passes listing stops, the batches not
+     * described stay due in the index and the continuation lists the created resources again.
+     *
+     * @param backupPurgeRequest
+     * @param imageEntity
+     * @param dueEntries
+     * @param readIds
+     * @param createdDays the "yyyy-MM-dd" UTC days from the full listing's to today's
+     * @param relistedIds
+     * @param imageFilters
+     * @param snapshotFilters
+     * @param owners
+     * @param sink
+     * @throws InterruptedException
+     */
+    private void listIndexedResources(BackupPurgeRequest backupPurgeRequest, AWSImageEntity imageEntity, List<CPExpiryIndex.Entry> dueEntries
+    		, Set<String> readIds, List<String> createdDays, Set<String> relistedIds, List<Filter> imageFilters, List<Filter> snapshotFilters
+    		, Collection<String> owners, CPPurgePipeline.Sink sink)
+    		throws InterruptedException
+    {
+    	List<String> imageIds = new ArrayList<String>();
+    	List<String> snapshotIds = new ArrayList<String>();
+    	Set<String> dueIds = new HashSet<String>();
+
+    	for (CPExpiryIndex.Entry entry : dueEntries)
+    	{
+    		if (entry.getResourceType() == PurgeItem.ResourceType.IMAGE)
+    			imageIds.add(entry.getResourceId());
+    		else
+    			snapshotIds.add(entry.getResourceId());
+    		dueIds.add(entry.getResourceId());
+    	}
+
+    	for (int from = 0; from < imageIds.size(); from += DESCRIBE_FILTER_BATCH_SIZE)
+    	{
+    		if (isPastDeadline())
+    		{
+    			setContinuation(backupPurgeRequest, BackupPurgeRequest.PHASE_INDEX, null);
+    			return;
+    		}
+    		List<String> batch = imageIds.subList(from, Math.min(from + DESCRIBE_FILTER_BATCH_SIZE, imageIds.size()));
+    		List<Filter> filters = new ArrayList<Filter>(imageFilters);
+    		filters.add(new Filter().withName("image-id").withValues(batch));
+
+    		List<Image> images = imageEntity.getImagesForFilter(filters, owners);
+    		readIds.addAll(batch);
+
+    		for (Image image : images)
+    		{
+    			for (String snapshotId : AWSImageEntity.getEBSSnapshotIds(image))
+    				amiSnapshotIds.put(snapshotId, image.getImageId());
+    			sink.accept(PurgeItem.forImage(image));
+    		}
+    	}
+
+    	for (int from = 0; from < createdDays.size(); from += DESCRIBE_FILTER_BATCH_SIZE)
+    	{
+    		if (isPastDeadline())
+    		{
+    			setContinuation(backupPurgeRequest, BackupPurgeRequest.PHASE_INDEX, null);
+    			return;
+    		}
+    		List<Filter> filters = new ArrayList<Filter>(imageFilters);
+    		filters.add(new Filter().withName(IMAGE_CREATION_DATE_FILTER).withValues(getDayPatterns(createdDays, from)));
+
+    		for (Image image : imageEntity.getImagesForFilter(filters, owners))
+    		{
+    			if (dueIds.contains(image.getImageId()))
+    				continue;
+    			relistedIds.add(image.getImageId());
+    			for (String snapshotId : AWSImageEntity.getEBSSnapshotIds(image))
+    				amiSnapshotIds.put(snapshotId, image.getImageId());
+    			sink.accept(PurgeItem.forImage(image));
+    		}
+    	}
+
+    	for (int from = 0; from < snapshotIds.size(); from += DESCRIBE_FILTER_BATCH_SIZE)
+    	{
+    		if (isPastDeadline())
+    		{
+    			setContinuation(backupPurgeRequest, BackupPurgeRequest.PHASE_INDEX, null);
+    			return;
+    		}
+    		List<String> batch = snapshotIds.subList(from, Math.min(from + DESCRIBE_FILTER_BATCH_SIZE, snapshotIds.size()));
+    		List<Filter> filters = new ArrayList<Filter>(snapshotFilters);
+    		filters.add(new Filter().withName("snapshot-id").withValues(batch));
+
+    		List<Snapshot> snapshots = imageEntity.getSnapshotsForFilter(filters);
+    		readIds.addAll(batch);
+
+    		for (Snapshot snapshot : snapshots)
+    			sink.accept(PurgeItem.forSnapshot(snapshot));
+    	}
+
+    	for (int from = 0; from < createdDays.size(); from += DESCRIBE_FILTER_BATCH_SIZE)
+    	{
+    		if (isPastDeadline())
+    		{
+    			setContinuation(backupPurgeRequest, BackupPurgeRequest.PHASE_INDEX, null);
+    			return;
+    		}
+    		List<Filter> filters = new ArrayList<Filter>(snapshotFilters);
+    		filters.add(new Filter().withName(SNAPSHOT_START_TIME_FILTER).withValues(getDayPatterns(createdDays, from)));
+
+    		for (Snapshot snapshot : imageEntity.getSnapshotsForFilter(filters))
+    		{
+    			if (dueIds.contains(snapshot.getSnapshotId()))
+    				continue;
+    			relistedIds.add(snapshot.getSnapshotId());
+    			sink.accept(PurgeItem.forSnapshot(snapshot));
+    		}
+    	}
+    }
+
+    /**
+     * @param reconciledTime epoch millis of the index's full listing
+     * @param nowEpochDay
+     * @return the "yyyy-MM-dd" UTC days from the full listing's to today's, a resource created on
+     * the listing's day may have been listed by it and is listed again
+     */
+    private static List<String> getCreatedDays(long reconciledTime, long nowEpochDay)
+    {
+    	List<String> createdDays = new ArrayList<String>();
+
+    	for (long epochDay = Math.floorDiv(reconciledTime, MILLIS_PER_DAY); epochDay <= nowEpochDay; epochDay++)
+    		createdDays.add(LocalDate.ofEpochDay(epochDay).toString());
+    	return createdDays;
+    }
+
+    /**
+     * @param createdDays
+     * @param from
+     * @return the creation-date or start-time filter values of up to DESCRIBE_FILTER_BATCH_SIZE
+     * days, each matching any time of its day, e.g. "2017-05-01T*"
+     */
+    private static List<String> getDayPatterns(List<String> createdDays, int from)
+    {
+    	List<String> dayPatterns = new ArrayList<String>();
+
+    	for (String day : createdDays.subList(from, Math.min(from + DESCRIBE_FILTER_BATCH_SIZE, createdDays.size())))
+    		dayPatterns.add(day + "T*");
+    	return dayPatterns;
+    }
+
+    private boolean isPastDeadline()
+    {
+    	return System.currentTimeMillis() >= deadlineMillis;
+    }
+
+    /**
+     * Records the continuation from where the lister stopped, unless the deleter has already
+     * stopped at an earlier resource
+     * 
+     * @param backupPurgeRequest
+     * @param phase
+     * @param snapshotPageToken
+     */
+    private synchronized void setContinuation(BackupPurgeRequest backupPurgeRequest, String phase, String snapshotPageToken)
+    {
+    	if (deletesStopped)
+    		return;
+
+    	logger.log("The deadline has passed, listing stopped in the " + phase + " phase");
+    	this.continuationRequest = newContinuation(backupPurgeRequest, phase, snapshotPageToken);
+    }
+
+    /**
+     * Records the continuation from the first due resource the deleter did not submit once the
+     * deadline passed.  The continuation lists it again:  the images phase lists every AMI, the
+     * snapshots phase resumes at the resource's page and an index run reads the index again,
+     * where the resource is still due.
+     * 
+     * @param backupPurgeRequest
+     * @param item
+     */
+    private synchronized void stopDeletes(BackupPurgeRequest backupPurgeRequest, PurgeItem item)
+    {
+    	String phase;
+    	if (expiryIndexRun)
+    		phase = BackupPurgeRequest.PHASE_INDEX;
+    	else if (item.getResourceType() == PurgeItem.ResourceType.IMAGE)
+    		phase = BackupPurgeRequest.PHASE_IMAGES;
+    	else
+    		phase = BackupPurgeRequest.PHASE_SNAPSHOTS;
+
+    	logger.log("The deadline has passed, deletes stopped at " + item + " in the " + phase + " phase");
+    	this.continuationRequest = newContinuation(backupPurgeRequest, phase, expiryIndexRun ? null : item.getPageToken());
+    	this.deletesStopped = true;
+    }
+
+    private BackupPurgeRequest newContinuation(BackupPurgeRequest backupPurgeRequest, String phase, String snapshotPageToken)
+    {
+    	BackupPurgeRequest continuation = new BackupPurgeRequest();
+
+    	continuation.setAwsAccountId(backupPurgeRequest.getAwsAccountId());
+    	continuation.setRegionName(regionName);
+    	continuation.setRoleArn(backupPurgeRequest.getRoleArn());
+    	continuation.setOriginatingLambdaRequestId(backupPurgeRequest.getOriginatingLambdaRequestId());
+    	continuation.setRequestStartTime(backupPurgeRequest.getRequestStartTime());
+    	continuation.setRecursionCount(backupPurgeRequest.getRecursionCount() + 1);
+    	continuation.setPhase(phase);
+    	continuation.setSnapshotPageToken(snapshotPageToken);
+    	continuation.setExpiryIndexListTime(expiryIndexListTime);
+    	continuation.setPurgeMode(backupPurgeRequest.getPurgeMode());
+    	continuation.setPlanPartition(backupPurgeRequest.getPlanPartition());
+    	continuation.setPlanPartitionCount(backupPurgeRequest.getPlanPartitionCount());
+    	return continuation;
+    }
+
+    /**
+     * Deleter stage of a plan, records the item in the plan instead of deleting it.  A snapshot
+     * backing a listed AMI is only planned if the AMI is planned too, and not if it is deleted
+     * along with the AMI.
+     *
+     * @param plan
+     * @param item
+     */
+    private void addToPlan(PurgePlan plan, PurgeItem item)
+    {
+    	// a continued images phase lists the AMIs planned by the earlier invocations again
+    	if (plan.contains(item.getResourceId()))
+    		return;
+
+    	String imageId = amiSnapshotIds.get(item.getResourceId());
 
+    	if (item.getResourceType() == PurgeItem.ResourceType.SNAPSHOT && imageId != null)
+    	{
+    		if (!plan.containsImage(imageId))
+    		{
+    			this.logger.logSummary("SKIPPED: Snapshot: '" + item.getName() + "' id: '" + item.getResourceId() + "' is in use by image '" + imageId + "'");
+    			CPMetrics.getInstance().increment(METRIC_SNAPSHOTS_SKIPPED);
+    			return;
+    		}
+    		if (CPBackupPurgeEnv.isCascadeSnapshotDelete())
+    		{
+    			this.logger.log("Snapshot: '" + item.getName() + "' id: '" + item.getResourceId() + "' is planned with its AMI '" + imageId + "'");
+    			return;
+    		}
+    	}
+
+    	PurgePlanEntry entry = PurgePlanEntry.forItem(item);
+    	plan.addEntry(entry);
+    	submittedItems++;
+    	this.logger.logSummary("PLANNED: " + entry + " " + entry.getReason());
+    }
+
+    /**
+     * Deleter stage, hands the item to the parallel delete workers.  The first item of each
+     * snapshot page waits for every earlier delete to finish, then the page is checkpointed, so
+     * the checkpoint's page token never skips an unfinished delete.  Once the deadline passes no
+     * more deletes are submitted, the items still queued are left to the continuation.
+     *
+     * @param backupPurgeRequest
+     * @param deleteExecutor
+     * @param imageEntity
+     * @param item
+     * @throws InterruptedException
+     */
+    private void submitDelete(BackupPurgeRequest backupPurgeRequest, CPPurgeDeleteExecutor deleteExecutor, AWSImageEntity imageEntity
+    		, PurgeItem item) throws InterruptedException
+    {
+    	if (deletesStopped || isPastDeadline())
+    	{
+    		if (!deletesStopped)
+    			stopDeletes(backupPurgeRequest, item);
+    		deferredDeletes++;
+    		return;
+    	}
+    	// AMIs are listed first, they must be deregistered before the snapshots backing them can be deleted
+    	if (item.getResourceType() == PurgeItem.ResourceType.SNAPSHOT && !imageDeletesDrained)
+    	{
+    		deleteExecutor.awaitCompletion();
+    		imageDeletesDrained = true;
+    	}
+    	if (item.getResourceType() == PurgeItem.ResourceType.SNAPSHOT && checkpointStore != null && !expiryIndexRun
+    			&& (!snapshotPageCheckpointed || !StringUtils.equals(checkpointedPageToken, item.getPageToken())))
+    	{
+    		deleteExecutor.awaitCompletion();
+    		// the earlier pages are done and will not be listed again, only cascaded deletes may still be
+    		checkpoint.getDeletedResourceIds().retainAll(cascadedSnapshotIds);
+    		saveCheckpoint(backupPurgeRequest, deleteExecutor, BackupPurgeRequest.PHASE_SNAPSHOTS, item.getPageToken(), PurgeCheckpoint.STATUS_RUNNING);
+    		snapshotPageCheckpointed = true;
+    		checkpointedPageToken = item.getPageToken();
+    	}
+    	if (item.getResourceType() == PurgeItem.ResourceType.SNAPSHOT && cascadedSnapshotIds.contains(item.getResourceId()))
+    	{
+    		removeFromExpiryIndex(item.getResourceId());
+    		this.logger.log("Snapshot: '" + item.getName() + "' id: '" + item.getResourceId() + "' was already deleted with its AMI");
+    		return;
+    	}
+    	// deleting a snapshot that backs a registered AMI fails with InvalidSnapshot.InUse, skip it without the call
+    	if (item.getResourceType() == PurgeItem.ResourceType.SNAPSHOT && amiSnapshotIds.containsKey(item.getResourceId()))
+    	{
+    		this.logger.log("Snapshot: '" + item.getName() + "' id: '" + item.getResourceId() + "' is skipped, it backs image '"
+    				+ amiSnapshotIds.get(item.getResourceId()) + "'");
+    		this.logger.logSummary("SKIPPED: Snapshot: '" + item.getName() + "' id: '" + item.getResourceId() + "' is in use by image '"
+    				+ amiSnapshotIds.get(item.getResourceId()) + "'");
+    		CPMetrics.getInstance().increment(METRIC_SNAPSHOTS_SKIPPED);
+    		return;
+    	}
+    	deleteExecutor.submit(item, deleteItem -> startDelete(deleteExecutor, imageEntity, deleteItem));
+    	submittedItems++;
+    }
+
+    /**
+     * 
+     * @param deleteExecutor
+     * @param imageEntity
+     * @param item
+     * @return a future completed once the delete has been made and logged
+     */
+    private CompletableFuture<?> startDelete(CPPurgeDeleteExecutor deleteExecutor, AWSImageEntity imageEntity, PurgeItem item)
+    {
+    	if (item.getResourceType() == PurgeItem.ResourceType.SNAPSHOT)
+    		return imageEntity.deleteSnapshotAsync(item.getResourceId()).thenAccept(result -> logSnapshotDeleted(item, result));
+
+    	CompletableFuture<Void> deregister = imageEntity.deleteAsync(item.getResourceId()).thenAccept(result -> logImageDeleted(item, result));
+
+    	if (CPBackupPurgeEnv.isCascadeSnapshotDelete())
+    		return deregister.thenRun(() -> submitBackingSnapshotDeletes(deleteExecutor, imageEntity, item));
+    	else
+    		return deregister;
+    }
+
+    /**
+     * Submits a delete of each EBS snapshot in the deregistered AMI's block device mappings as a
+     * follow up delete, each taking its own permit.  The mappings come from the AMI listing, so no
+     * further describe calls are made.  A failed snapshot delete is counted and left for the
+     * snapshot phase.
+     * 
+     * @param deleteExecutor
+     * @param imageEntity
+     * @param item the deregistered AMI
+     */
+    private void submitBackingSnapshotDeletes(CPPurgeDeleteExecutor deleteExecutor, AWSImageEntity imageEntity, PurgeItem item)
+    {
+    	for (BlockDeviceMapping blockDevice : item.getImage().getBlockDeviceMappings())
+    	{
+    		if (blockDevice.getEbs() == null || StringUtils.isEmpty(blockDevice.getEbs().getSnapshotId()))
+    			continue;
+
+    		Snapshot snapshot = new Snapshot().withSnapshotId(blockDevice.getEbs().getSnapshotId()).withVolumeSize(blockDevice.getEbs().getVolumeSize());
+
+    		deleteExecutor.submitFollowUp(PurgeItem.forSnapshot(snapshot), snapshotItem ->
+    				imageEntity.deleteSnapshotAsync(snapshotItem.getResourceId()).thenAccept(result -> logBackingSnapshotDeleted(item, snapshotItem, result)));
+    	}
+    }
+
+    /**
+     *
+     * @param imageItem the deregistered AMI
+     * @param item the snapshot backing it
+     * @param result
+     */
+    private void logBackingSnapshotDeleted(PurgeItem imageItem, PurgeItem item, DeleteSnapshotResult result)
+    {
+    	String snapshotId = item.getResourceId();
+
+    	cascadedSnapshotIds.add(snapshotId);
+    	removeFromExpiryIndex(snapshotId);
+    	checkpoint.addDeletedResourceId(snapshotId);
+    	addReclaimedGiB(item.getSnapshot().getVolumeSize());
+    	this.logger.log("Snapshot id: '" + snapshotId + "' backing image '" + imageItem.getResourceId() + "' was deleted!"
+    			+ System.getProperty("line.separator") + result.getSdkResponseMetadata());
+    	this.logger.logSummary("DELETED: Snapshot id: '" + snapshotId + "' backing image '" + imageItem.getResourceId() + "' !");
+    }
+
+    /**
+     *
+     * @param item
+     * @param result
+     */
+	private void logImageDeleted(PurgeItem item, DeregisterImageResult result)
+	{
+		Image image = item.getImage();
+
+		for (String snapshotId : AWSImageEntity.getEBSSnapshotIds(image))
+			amiSnapshotIds.remove(snapshotId, image.getImageId());
+		checkpoint.addDeletedResourceId(image.getImageId());
+		removeFromExpiryIndex(image.getImageId());
+
+		this.logger.log("Image: '" + item.getName() + "' id: '" + image.getImageId() + "' was deleted!  Create date: '" +image.getCreationDate()+
+				        "' Purge date: '" + item.getPurgeDate() + "' " +  "' Current datetime: '" + ZonedDateTime.now(ZoneId.of(CPBackupPurgeEnv.UTC_TIME_ZONE)) +
+				        System.getProperty("line.separator") + result.getSdkResponseMetadata());
+		this.logger.logSummary("DELETED: Image: '" + item.getName() + "' id: '" + image.getImageId() + "' !" );
 	}
-    
+	
 	/**
-	 * 
-	 * @param imageEntity
-	 * @param snapshot
+	 *
+	 * @param item
+	 * @param result
 	 */
-	private void processSnapshot(AWSImageEntity imageEntity, Snapshot snapshot) {
-		
-		ZonedDateTime purgeDateTime = null;
-		ZoneId zoneId = ZoneId.of(CPBackupPurgeEnv.UTC_TIME_ZONE);	
-		ZonedDateTime currDateTime = ZonedDateTime.now(zoneId);
-		
-		String snapshotName = AWSImageEntity.getTagValueFromList(this.backupPurgeEnv.getNameTag(), snapshot.getTags(), "");
-		
-		List<Tag> tags = snapshot.getTags();
-
-		try {
-			purgeDateTime = getSnapshotPurgeDateTime(snapshotName, snapshot, zoneId);
-		}
-		catch (DateTimeParseException pe){ return;}
-		catch (NumberFormatException pe){ return;}
-		
-		this.logger.log("Snapshot: '" + snapshotName + "' id: '" + snapshot.getSnapshotId() + "' is being evaluated.  '"  +
-		        "' Purge datetime: '" + purgeDateTime + "' " + "' Current datetime: '" + currDateTime + "' " + System.getProperty("line.separator") );
+	private void logSnapshotDeleted(PurgeItem item, DeleteSnapshotResult result) {
 
+		Snapshot snapshot = item.getSnapshot();
+		addReclaimedGiB(snapshot.getVolumeSize());
+		checkpoint.addDeletedResourceId(snapshot.getSnapshotId());
+		removeFromExpiryIndex(snapshot.getSnapshotId());
 
-		if (ChronoUnit.DAYS.between(purgeDateTime,currDateTime) >= 0) 
-		{
-			DeleteSnapshotResult result = imageEntity.deleteSnapshot(snapshot.getSnapshotId());
-			this.logger.log("Snapshot: '" + snapshotName + "' id: '" + snapshot.getSnapshotId() + "' was deleted!  '"  +
-					        "' Purge datetime: '" + purgeDateTime + "' " +  "' Current datetime: '" + System.getProperty("line.separator") + result.getSdkResponseMetadata());
-			this.logger.logSummary("DELETED: Snapshot: '" + snapshotName + "' id: '" + snapshot.getSnapshotId() + "' !");
-		}
+		this.logger.log("Snapshot: '" + item.getName() + "' id: '" + snapshot.getSnapshotId() + "' was deleted!  '"  +
+				        "' Purge date: '" + item.getPurgeDate() + "' " +  "' Current datetime: '" + System.getProperty("line.separator") + result.getSdkResponseMetadata());
+		this.logger.logSummary("DELETED: Snapshot: '" + item.getName() + "' id: '" + snapshot.getSnapshotId() + "' !");
 	}
 	
 	/**
+	 * Counts the source volume size of a deleted snapshot, an upper bound of the storage reclaimed
 	 * 
-	 * @param snapshotName
-	 * @param snapshot
-	 * @param zoneId
-	 * @return
-	 * @throws DateTimeParseException
-	 * @throws NumberFormatException
+	 * @param volumeSize in GiB, may be null
 	 */
-	private ZonedDateTime getSnapshotPurgeDateTime(String snapshotName, Snapshot snapshot, ZoneId zoneId) 
-				throws DateTimeParseException, NumberFormatException
+	private static void addReclaimedGiB(Integer volumeSize)
 	{
-		
-		ZonedDateTime createdDateTime = null;
-		Integer retainDays = null;
-
-		String creationTimestampString = AWSImageEntity.getTagValueFromList(CPBackupPurgeEnv.DEFAULT_CREATION_TIMESTAMP_TAG, snapshot.getTags(), "");
-		
-		if (StringUtils.isEmpty(creationTimestampString)) 
-		{
-			snapshot.getStartTime();
-			createdDateTime = ZonedDateTime.ofInstant(snapshot.getStartTime().toInstant(),zoneId);
-		}
-		else 
-		{
-			try 
-			{
-				createdDateTime = ZonedDateTime.parse(creationTimestampString, DateTimeFormatter.ofPattern(CPBackupPurgeEnv.DEFAULT_DATE_FORMAT));
-			}
-			catch (DateTimeParseException pe) 
-			{
-				this.logger.log("Snapshot: '" + snapshotName + "' id: '" + snapshot.getSnapshotId() + "' error parsing creation date '" + creationTimestampString + "'");
-				throw pe;
-			}
-		}
-		
-		String retainDaysString = AWSImageEntity.getTagValueFromList(this.backupPurgeEnv.getBackupRetentionDaysTag(), snapshot.getTags(), "");
-		
-		// use the tag for retention days if available otherwise use the default
-		if (!StringUtils.isEmpty(retainDaysString)) {
-			try {
-				retainDays = new Integer(retainDaysString);
-			}
-			catch (NumberFormatException nfe) {
-				this.logger.log("Snapshot: '" + snapshotName + "' id: '" + snapshot.getSnapshotId() + "' has an invalid tag '" + this.backupPurgeEnv.getBackupRetentionDaysTag() + "'");
-				throw nfe;
-			}
-		}
-		else {
-			retainDays = CPBackupPurgeEnv.getDefaultRetentionDays();
-		}
-
-		return createdDateTime.plusDays(retainDays);
+		if (volumeSize != null)
+			CPMetrics.getInstance().add(METRIC_GIB_RECLAIMED, volumeSize, CPMetrics.UNIT_GIGABYTES);
 	}
+
 	/**
+	 * Compiles the FilterN tag settings into exact "tag:<key>" filters, which EC2 matches against
+	 * the key and value of the same tag.  A filter with a name but no value matches any value.
 	 * 
-	 * @param backupPurgeRequest
 	 * @return
 	 */
-    private List<Filter>  populateFilterTags(BackupPurgeRequest backupPurgeRequest) 
+    private List<Filter>  populateFilterTags() 
+    {
+    	return populateFilterTags(this.logger,
+    			new String[] {CPBackupPurgeEnv.getFilter1TagName(), CPBackupPurgeEnv.getFilter2TagName(), CPBackupPurgeEnv.getFilter3TagName()},
+    			new String[] {CPBackupPurgeEnv.getFilter1TagValue(), CPBackupPurgeEnv.getFilter2TagValue(), CPBackupPurgeEnv.getFilter3TagValue()});
+    }
+
+    /**
+     * The environment free part of populateFilterTags(), also run by the benchmarks.
+     * 
+     * @param logger
+     * @param tagNames the FilterN tag names in order, empty or null for an unset filter
+     * @param tagValues the matching FilterN tag values
+     * @return
+     */
+    public static List<Filter> populateFilterTags(CPLogger logger, String[] tagNames, String[] tagValues)
     {
-    	
-    	
+    	Validate.isTrue(tagNames.length == tagValues.length, "The filter tag names and values do not match!");
+
     	List<Filter> filterArray = new ArrayList<Filter>();
-    	// set to filter the AMIs to only list the current AWS account's AMIs
-    	Filter ownerFilter = new Filter().withName("owner-id").withValues(backupPurgeRequest.getAwsAccountId());
+
+    	for (int i = 0; i < tagNames.length; i++)
+    		addTagFilter(logger, filterArray, i + 1, tagNames[i], tagValues[i]);
+
+    	return filterArray;
+    }
+
+    private static void addTagFilter(CPLogger logger, List<Filter> filterArray, int filterNumber, String tagName, String tagValue)
+    {
+    	if (StringUtils.isEmpty(tagName))
+    		return;
+
+    	if (StringUtils.isEmpty(tagValue))
+    		filterArray.add(new Filter().withName("tag-key").withValues(tagName));
+    	else
+    		filterArray.add(new Filter().withName("tag:" + tagName).withValues(tagValue));
+
+    	logger.log("Tag Filter" + filterNumber + ": '" + tagName + "'  '" + StringUtils.defaultString(tagValue) + "'");
+    }
+
+    /**
+     * AMIs are limited to the account with the owners=self request parameter, so no owner filter is needed
+     * 
+     * @param tagFilters
+     * @return
+     */
+    private List<Filter> populateImageFilters(List<Filter> tagFilters)
+    {
+    	List<Filter> filterArray = new ArrayList<Filter>(tagFilters);
+    	filterArray.add(new Filter().withName("state").withValues(IMAGE_STATE_AVAILABLE));
+    	return filterArray;
+    }
+
+    /**
+     * 
+     * @param backupPurgeRequest
+     * @param tagFilters
+     * @return
+     */
+    private List<Filter> populateSnapshotFilters(BackupPurgeRequest backupPurgeRequest, List<Filter> tagFilters)
+    {
+    	List<Filter> filterArray = new ArrayList<Filter>(tagFilters);
+    	// set to filter the snapshots to only list the current AWS account's snapshots
+    	filterArray.add(new Filter().withName("owner-id").withValues(backupPurgeRequest.getAwsAccountId()));
     	this.logger.log("Account Id: " + backupPurgeRequest.getAwsAccountId());
-    	filterArray.add(ownerFilter);
-    	
-    	if (!StringUtils.isEmpty(CPBackupPurgeEnv.getFilter1TagName()) &&
-    		!StringUtils.isEmpty(CPBackupPurgeEnv.getFilter1TagName()))
-    	{
-	    	Filter tagKeyFilter = new Filter().withName("tag-key").withValues(CPBackupPurgeEnv.getFilter1TagName());
-	    	filterArray.add(tagKeyFilter);   
-	    	Filter tagvalueFilter = new Filter().withName("tag-value").withValues(CPBackupPurgeEnv.getFilter1TagValue());
-	    	filterArray.add(tagvalueFilter);  	    	
-	    	this.logger.log("Tag Filter1: " + CPBackupPurgeEnv.getFilter1TagName() + "'  '" + CPBackupPurgeEnv.getFilter1TagValue() + "'");
-    	}
-    	if (!StringUtils.isEmpty(CPBackupPurgeEnv.getFilter2TagName()) &&
-        		!StringUtils.isEmpty(CPBackupPurgeEnv.getFilter2TagName()))
-    	{
-    	    	Filter tagKeyFilter2 = new Filter().withName("tag-key").withValues(CPBackupPurgeEnv.getFilter2TagName());
-    	    	filterArray.add(tagKeyFilter2);   
-    	    	Filter tagvalueFilter2 = new Filter().withName("tag-value").withValues(CPBackupPurgeEnv.getFilter2TagValue());
-    	    	filterArray.add(tagvalueFilter2);  	    	
-    	    	this.logger.log("Tag Filter2: " + CPBackupPurgeEnv.getFilter2TagName() + "'  '" + CPBackupPurgeEnv.getFilter2TagValue() + "'");
-        }    	
-    	if (!StringUtils.isEmpty(CPBackupPurgeEnv.getFilter3TagName()) &&
-        		!StringUtils.isEmpty(CPBackupPurgeEnv.getFilter3TagName()))
-    	{
-    	    	Filter tagKeyFilter3 = new Filter().withName("tag-key").withValues(CPBackupPurgeEnv.getFilter3TagName());
-    	    	filterArray.add(tagKeyFilter3);   
-    	    	Filter tagvalueFilter2 = new Filter().withName("tag-value").withValues(CPBackupPurgeEnv.getFilter3TagValue());
-    	    	filterArray.add(tagvalueFilter2);  	    	
-    	    	this.logger.log("Tag Filter3: " + CPBackupPurgeEnv.getFilter3TagName() + "'  '" + CPBackupPurgeEnv.getFilter3TagValue() + "'");
-        }   
-    	
+    	filterArray.add(new Filter().withName("status").withValues(SNAPSHOT_STATUS_COMPLETED));
     	return filterArray;
     }
 }
@@ -0,0 +1,166 @@
+package com.cloudpacity.aws.purge.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.cloudpacity.aws.common.auth.CPRoleCredentials;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.purge.pojo.BackupPurgeRequest;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Purges several accounts, each through the role given for it, with at most maxConcurrentAccounts
+ * accounts in progress at once.  Each account is a CPMultiRegionBackupPurge of the regions with
+ * the role's cached credentials and a logger of its own; the account summaries and logs are
+ * merged, in the order the roles were given, into this purge's logger for a single report.
+ *
+ */
+public class CPMultiAccountBackupPurge {
+
+	protected AWSCredentials awsCredentials;
+	protected CPLogger logger;
+	private final List<String> roleArns;
+	private final List<String> regionNames;
+	private final int maxConcurrentAccounts;
+	private long deadlineMillis = Long.MAX_VALUE;
+	private final List<BackupPurgeRequest> continuationRequests = new ArrayList<BackupPurgeRequest>();
+
+
+	/**
+	 * @param cpLogger
+	 * @param awsCredentials
+	 * @param roleArns one role per account to purge
+	 * @param regionNames the regions to purge in every account
+	 * @param maxConcurrentAccounts
+	 */
+	public CPMultiAccountBackupPurge(CPLogger cpLogger, AWSCredentials awsCredentials, List<String> roleArns, List<String> regionNames
+			, int maxConcurrentAccounts) {
+
+		Validate.notNull(cpLogger, "The logger is null!");
+		Validate.notEmpty(roleArns, "No account roles to purge!");
+		Validate.notEmpty(regionNames, "No regions to purge!");
+		Validate.isTrue(maxConcurrentAccounts > 0, "The account concurrency must be positive!");
+		for (String roleArn : roleArns)
+			CPRoleCredentials.getAccountId(roleArn);
+
+		this.awsCredentials = awsCredentials;
+		this.logger = cpLogger;
+		this.roleArns = new ArrayList<String>(roleArns);
+		this.regionNames = new ArrayList<String>(regionNames);
+		this.maxConcurrentAccounts = maxConcurrentAccounts;
+	}
+
+	/**
+	 * @param deadlineMillis epoch millis, applies to every account and region
+	 * @see CPBackupPurge#setDeadline(long)
+	 */
+	public void setDeadline(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/**
+	 * @return one continuation per account and region that stopped at the deadline
+	 */
+	public List<BackupPurgeRequest> getContinuationRequests() {
+		return continuationRequests;
+	}
+
+	/**
+	 * @param backupPurgeRequest
+	 * @return RETURN_CODE_ERROR if any account failed, else RETURN_CODE_CONTINUE if any account
+	 * continues, else RETURN_CODE_COMPLETE
+	 */
+	public String invoke(BackupPurgeRequest backupPurgeRequest) {
+
+		CPMetrics.getInstance().reset();
+		ExecutorService accountExecutor = Executors.newFixedThreadPool(Math.min(maxConcurrentAccounts, roleArns.size()));
+
+		try {
+			Map<String, CompletableFuture<String>> accountPurges = new LinkedHashMap<String, CompletableFuture<String>>();
+			Map<String, CPMultiRegionBackupPurge> backupPurges = new LinkedHashMap<String, CPMultiRegionBackupPurge>();
+			Map<String, CPLogger> accountLoggers = new LinkedHashMap<String, CPLogger>();
+
+			// accounts beyond the cap wait in the executor's queue
+			for (String roleArn : roleArns) {
+				String accountId = CPRoleCredentials.getAccountId(roleArn);
+				CPLogger accountLogger = logger.newLogger("[" + accountId + "] ");
+				CPMultiRegionBackupPurge backupPurge = new CPMultiRegionBackupPurge(accountLogger, awsCredentials, regionNames);
+				backupPurge.setDeadline(deadlineMillis);
+				backupPurge.setCredentialsProvider(CPRoleCredentials.getCredentialsProvider(roleArn));
+				BackupPurgeRequest accountRequest = newAccountRequest(backupPurgeRequest, accountId, roleArn);
+
+				accountLoggers.put(roleArn, accountLogger);
+				backupPurges.put(roleArn, backupPurge);
+				accountPurges.put(roleArn, CompletableFuture.supplyAsync(() -> backupPurge.purge(accountRequest), accountExecutor));
+			}
+
+			String returnCode = CPBackupPurge.RETURN_CODE_COMPLETE;
+			for (String roleArn : roleArns) {
+				String accountReturnCode = accountPurges.get(roleArn).join();
+				CPLogger accountLogger = accountLoggers.get(roleArn);
+
+				logger.logSummary("Account " + CPRoleCredentials.getAccountId(roleArn) + ": " + accountReturnCode);
+				logger.logSummary(accountLogger.getSummaryLogMessages());
+				logger.appendLogMessages(accountLogger);
+				continuationRequests.addAll(backupPurges.get(roleArn).getContinuationRequests());
+
+				if (CPBackupPurge.RETURN_CODE_ERROR.equals(accountReturnCode))
+					returnCode = CPBackupPurge.RETURN_CODE_ERROR;
+				else if (CPBackupPurge.RETURN_CODE_CONTINUE.equals(accountReturnCode) && CPBackupPurge.RETURN_CODE_COMPLETE.equals(returnCode))
+					returnCode = CPBackupPurge.RETURN_CODE_CONTINUE;
+			}
+			return returnCode;
+		}
+		finally {
+			accountExecutor.shutdownNow();
+			CPBackupPurge.emitMetrics(logger);
+		}
+	}
+
+	/**
+	 * @param backupPurgeRequest
+	 * @param accountId
+	 * @param roleArn
+	 * @return the account's copy of the request, with the run id qualified by the account
+	 */
+	private BackupPurgeRequest newAccountRequest(BackupPurgeRequest backupPurgeRequest, String accountId, String roleArn) {
+
+		BackupPurgeRequest accountRequest = new BackupPurgeRequest();
+
+		accountRequest.setAwsAccountId(accountId);
+		accountRequest.setRoleArn(roleArn);
+		accountRequest.setCurrentLambdaRequestId(backupPurgeRequest.getCurrentLambdaRequestId());
+		if (StringUtils.isNotEmpty(backupPurgeRequest.getOriginatingLambdaRequestId()))
+			accountRequest.setOriginatingLambdaRequestId(backupPurgeRequest.getOriginatingLambdaRequestId() + "/" + accountId);
+		accountRequest.setRequestStartTime(backupPurgeRequest.getRequestStartTime());
+		accountRequest.setPurgeMode(backupPurgeRequest.getPurgeMode());
+		accountRequest.setPlanPartition(backupPurgeRequest.getPlanPartition());
+		accountRequest.setPlanPartitionCount(backupPurgeRequest.getPlanPartitionCount());
+
+		return accountRequest;
+	}
+}
@@ -0,0 +1,178 @@
+package com.cloudpacity.aws.purge.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.cloudpacity.aws.common.metrics.CPMetrics;
+import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.purge.pojo.BackupPurgeRequest;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Purges several regions at once, one CPBackupPurge with its own EC2 client and logger per
+ * region, so the run takes as long as its slowest region.  Each region's summary and log are
+ * merged, in the order the regions were given, into this purge's logger for a single report.
+ * A region that stops at the deadline continues in a chained invocation of its own, under a
+ * run id of its own.
+ *
+ */
+public class CPMultiRegionBackupPurge {
+
+	protected AWSCredentials awsCredentials;
+	protected CPLogger logger;
+	protected AWSCredentialsProvider credentialsProvider = null;
+	private final List<String> regionNames;
+	private long deadlineMillis = Long.MAX_VALUE;
+	private final List<BackupPurgeRequest> continuationRequests = new ArrayList<BackupPurgeRequest>();
+
+
+	public CPMultiRegionBackupPurge(CPLogger cpLogger, AWSCredentials awsCredentials, List<String> regionNames) {
+
+		Validate.notNull(cpLogger, "The logger is null!");
+		Validate.notEmpty(regionNames, "No regions to purge!");
+
+		this.awsCredentials = awsCredentials;
+		this.logger = cpLogger;
+		this.regionNames = new ArrayList<String>(regionNames);
+	}
+
+	/**
+	 * @param deadlineMillis epoch millis, applies to every region
+	 * @see CPBackupPurge#setDeadline(long)
+	 */
+	public void setDeadline(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/**
+	 * @param credentialsProvider the credentials of the account to purge, null for the function's own
+	 */
+	public void setCredentialsProvider(AWSCredentialsProvider credentialsProvider) {
+		this.credentialsProvider = credentialsProvider;
+	}
+
+	/**
+	 * @return one continuation per region that stopped at the deadline
+	 */
+	public List<BackupPurgeRequest> getContinuationRequests() {
+		return continuationRequests;
+	}
+
+	/**
+	 * @param backupPurgeRequest
+	 * @return RETURN_CODE_ERROR if any region failed, else RETURN_CODE_CONTINUE if any region
+	 * continues, else RETURN_CODE_COMPLETE
+	 */
+	public String invoke(BackupPurgeRequest backupPurgeRequest) {
+
+		CPMetrics.getInstance().reset();
+		try {
+			return purge(backupPurgeRequest);
+		}
+		finally {
+			CPBackupPurge.emitMetrics(logger);
+		}
+	}
+
+	/**
+	 * Purges without starting or emitting the metrics, for a caller running several purges at once
+	 *
+	 * @param backupPurgeRequest
+	 * @return
+	 * @see #invoke(BackupPurgeRequest)
+	 */
+	public String purge(BackupPurgeRequest backupPurgeRequest) {
+
+		ExecutorService regionExecutor = Executors.newFixedThreadPool(regionNames.size());
+
+		try {
+			Map<String, CompletableFuture<String>> regionPurges = new LinkedHashMap<String, CompletableFuture<String>>();
+			Map<String, CPBackupPurge> backupPurges = new LinkedHashMap<String, CPBackupPurge>();
+			Map<String, CPLogger> regionLoggers = new LinkedHashMap<String, CPLogger>();
+
+			for (String regionName : regionNames) {
+				CPLogger regionLogger = logger.newLogger("[" + regionName + "] ");
+				CPBackupPurge backupPurge = new CPBackupPurge(regionLogger, awsCredentials, regionName);
+				backupPurge.setDeadline(deadlineMillis);
+				backupPurge.setCredentialsProvider(credentialsProvider);
+				BackupPurgeRequest regionRequest = newRegionRequest(backupPurgeRequest, regionName);
+
+				regionLoggers.put(regionName, regionLogger);
+				backupPurges.put(regionName, backupPurge);
+				regionPurges.put(regionName, CompletableFuture.supplyAsync(() -> backupPurge.purge(regionRequest), regionExecutor));
+			}
+
+			String returnCode = CPBackupPurge.RETURN_CODE_COMPLETE;
+			for (String regionName : regionNames) {
+				// purge() reports its own errors, it does not throw
+				String regionReturnCode = regionPurges.get(regionName).join();
+				CPLogger regionLogger = regionLoggers.get(regionName);
+
+				logger.logSummary("Region " + regionName + ": " + regionReturnCode);
+				logger.logSummary(regionLogger.getSummaryLogMessages());
+				logger.appendLogMessages(regionLogger);
+
+				if (CPBackupPurge.RETURN_CODE_ERROR.equals(regionReturnCode)) {
+					returnCode = CPBackupPurge.RETURN_CODE_ERROR;
+				}
+				else if (CPBackupPurge.RETURN_CODE_CONTINUE.equals(regionReturnCode)) {
+					continuationRequests.add(backupPurges.get(regionName).getContinuationRequest());
+					if (CPBackupPurge.RETURN_CODE_COMPLETE.equals(returnCode))
+						returnCode = CPBackupPurge.RETURN_CODE_CONTINUE;
+				}
+			}
+			return returnCode;
+		}
+		finally {
+			regionExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param backupPurgeRequest
+	 * @param regionName
+	 * @return the region's copy of the request, with the run id qualified by the region so each
+	 * region keeps its own checkpoint
+	 */
+	private BackupPurgeRequest newRegionRequest(BackupPurgeRequest backupPurgeRequest, String regionName) {
+
+		BackupPurgeRequest regionRequest = new BackupPurgeRequest();
+
+		regionRequest.setAwsAccountId(backupPurgeRequest.getAwsAccountId());
+		regionRequest.setRegionName(regionName);
+		regionRequest.setRoleArn(backupPurgeRequest.getRoleArn());
+		regionRequest.setCurrentLambdaRequestId(backupPurgeRequest.getCurrentLambdaRequestId());
+		if (StringUtils.isNotEmpty(backupPurgeRequest.getOriginatingLambdaRequestId()))
+			regionRequest.setOriginatingLambdaRequestId(backupPurgeRequest.getOriginatingLambdaRequestId() + "/" + regionName);
+		regionRequest.setRequestStartTime(backupPurgeRequest.getRequestStartTime());
+		regionRequest.setPurgeMode(backupPurgeRequest.getPurgeMode());
+		regionRequest.setPlanPartition(backupPurgeRequest.getPlanPartition());
+		regionRequest.setPlanPartitionCount(backupPurgeRequest.getPlanPartitionCount());
+
+		return regionRequest;
+	}
+}
@@ -0,0 +1,237 @@
+package com.cloudpacity.aws.purge.service;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.AmazonServiceException;
+import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.purge.pojo.PurgeItem;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Keeps up to "parallelism" AMI deregistrations and snapshot deletions in flight through the
+ * entity's async operations, submit() blocks while the limit is reached.  The calling thread
+ * only starts requests, so the limit is not tied to a thread per request.  A failed delete is
+ * reported in the logger's summary and does not stop the other deletes.  A snapshot still in use
+ * by an AMI is counted as skipped rather than failed, and a resource that no longer exists, e.g.
+ * when a purge plan is executed again, as already deleted.
+ *
+ * A delete that follows one in flight, e.g. of a snapshot backing a deregistered AMI, is queued
+ * without blocking and started as soon as a permit frees up, so it counts against the limit too.
+ *
+ */
+public class CPPurgeDeleteExecutor implements AutoCloseable {
+
+	public static final int DEFAULT_PARALLELISM = 8;
+	public static final String SNAPSHOT_IN_USE_ERROR_CODE = "InvalidSnapshot.InUse";
+	public static final String SNAPSHOT_NOT_FOUND_ERROR_CODE = "InvalidSnapshot.NotFound";
+	public static final String IMAGE_NOT_FOUND_ERROR_CODE = "InvalidAMIID.NotFound";
+	public static final String IMAGE_UNAVAILABLE_ERROR_CODE = "InvalidAMIID.Unavailable";
+
+	public interface Deletion {
+		CompletableFuture<?> start(PurgeItem item);
+	}
+
+	private final CPLogger logger;
+	private final int parallelism;
+	private final Semaphore inFlight;
+	// follow up deletes waiting for a permit
+	private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+
+	private final AtomicInteger deletedImages = new AtomicInteger();
+	private final AtomicInteger deletedSnapshots = new AtomicInteger();
+	private final AtomicInteger failedDeletes = new AtomicInteger();
+	private final AtomicInteger skippedDeletes = new AtomicInteger();
+	private final AtomicInteger alreadyDeleted = new AtomicInteger();
+
+
+	public CPPurgeDeleteExecutor(int parallelism, CPLogger logger) {
+
+		Validate.isTrue(parallelism > 0, "The delete parallelism must be positive!");
+		Validate.notNull(logger, "The logger is null!");
+
+		this.logger = logger;
+		this.parallelism = parallelism;
+		this.inFlight = new Semaphore(parallelism);
+	}
+
+	/**
+	 * Starts the delete, blocking until fewer than "parallelism" deletes are in flight.
+	 *
+	 * @param item
+	 * @param deletion
+	 * @throws InterruptedException
+	 */
+	public void submit(PurgeItem item, Deletion deletion) throws InterruptedException {
+
+		inFlight.acquire();
+		start(item, deletion);
+	}
+
+	/**
+	 * Queues a delete that follows one in flight, it starts once a permit is free, ahead of the
+	 * deletes blocked in submit().  Never blocks, so it can be called from a delete's completion.
+	 *
+	 * @param item
+	 * @param deletion
+	 */
+	public void submitFollowUp(PurgeItem item, Deletion deletion) {
+
+		pending.add(() -> start(item, deletion));
+		startPending();
+	}
+
+	/**
+	 * Starts the delete, its permit already taken
+	 */
+	private void start(PurgeItem item, Deletion deletion) {
+
+		CompletableFuture<?> delete;
+		try {
+			delete = deletion.start(item);
+		}
+		catch (RuntimeException re) {
+			delete = new CompletableFuture<Object>();
+			delete.completeExceptionally(re);
+		}
+
+		delete.whenComplete((result, error) -> {
+			try {
+				Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+				if (error == null)
+					recordDeleted(item);
+				else if (isSnapshotInUse(cause))
+					recordSkipped(item, cause);
+				else if (isNotFound(cause))
+					recordAlreadyDeleted(item);
+				else
+					recordFailed(item, cause);
+			}
+			finally {
+				inFlight.release();
+				startPending();
+			}
+		});
+	}
+
+	/**
+	 * Starts the queued follow up deletes while permits are free
+	 */
+	private void startPending() {
+
+		while (!pending.isEmpty() && inFlight.tryAcquire()) {
+			Runnable next = pending.poll();
+			if (next != null)
+				next.run();
+			else
+				inFlight.release();
+		}
+	}
+
+	/**
+	 * Waits until every submitted delete, and every follow up delete, has finished
+	 *
+	 * @throws InterruptedException
+	 */
+	public void awaitCompletion() throws InterruptedException {
+
+		while (true) {
+			inFlight.acquire(parallelism);
+			boolean idle = pending.isEmpty();
+			inFlight.release(parallelism);
+
+			if (idle)
+				return;
+			startPending();
+		}
+	}
+
+	public int getDeletedImageCount() {
+		return deletedImages.get();
+	}
+
+	public int getDeletedSnapshotCount() {
+		return deletedSnapshots.get();
+	}
+
+	public int getFailedDeleteCount() {
+		return failedDeletes.get();
+	}
+
+	public int getSkippedDeleteCount() {
+		return skippedDeletes.get();
+	}
+
+	public int getAlreadyDeletedCount() {
+		return alreadyDeleted.get();
+	}
+
+	public void logSummary() {
+		logger.logSummary("Deleted " + getDeletedImageCount() + " AMIs and " + getDeletedSnapshotCount() + " snapshots with up to "
+				+ parallelism + " deletes in flight, " + getFailedDeleteCount() + " deletes failed, "
+				+ getSkippedDeleteCount() + " snapshots were in use, " + getAlreadyDeletedCount() + " were already deleted");
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		awaitCompletion();
+	}
+
+	private void recordDeleted(PurgeItem item) {
+		if (item.getResourceType() == PurgeItem.ResourceType.IMAGE)
+			deletedImages.incrementAndGet();
+		else
+			deletedSnapshots.incrementAndGet();
+	}
+
+	private void recordSkipped(PurgeItem item, Throwable error) {
+		skippedDeletes.incrementAndGet();
+		logger.log("Skipped " + item + ", it is in use: " + error.getMessage());
+		logger.logSummary("SKIPPED: " + item + " is in use");
+	}
+
+	private void recordAlreadyDeleted(PurgeItem item) {
+		alreadyDeleted.incrementAndGet();
+		logger.log("Skipped " + item + ", it was already deleted");
+	}
+
+	private static boolean isNotFound(Throwable error) {
+		if (!(error instanceof AmazonServiceException))
+			return false;
+
+		String errorCode = ((AmazonServiceException) error).getErrorCode();
+		return SNAPSHOT_NOT_FOUND_ERROR_CODE.equals(errorCode) || IMAGE_NOT_FOUND_ERROR_CODE.equals(errorCode)
+				|| IMAGE_UNAVAILABLE_ERROR_CODE.equals(errorCode);
+	}
+
+	private static boolean isSnapshotInUse(Throwable error) {
+		return error instanceof AmazonServiceException
+				&& SNAPSHOT_IN_USE_ERROR_CODE.equals(((AmazonServiceException) error).getErrorCode());
+	}
+
+	private void recordFailed(PurgeItem item, Throwable error) {
+		failedDeletes.incrementAndGet();
+		logger.log("Error deleting " + item + ": " + error.getMessage());
+		logger.logSummary("FAILED: " + item + " was not deleted: " + error.getMessage());
+	}
+}
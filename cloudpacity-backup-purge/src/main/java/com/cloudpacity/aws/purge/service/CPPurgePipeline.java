@@ -0,0 +1,182 @@
+package com.cloudpacity.aws.purge.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.Validate;
+
+import com.cloudpacity.aws.common.error.CPRuntimeException;
+import com.cloudpacity.aws.purge.pojo.PurgeItem;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Runs a purge as three overlapping stages connected by bounded queues:  a lister thread
+ * feeds listed resources to an evaluator thread, which passes the resources due for purge
+ * to the deleter running on the calling thread.  A full queue blocks the stage feeding it,
+ * so memory stays bounded by the queue sizes and the run takes as long as the slowest stage.
+ *
+ * Each queue is FIFO and each stage is single threaded, so resources are deleted in the
+ * order they were listed.
+ *
+ * A stage ends the stream of the queue it feeds with a marker.  Once the run is stopped, by a
+ * failed stage or the deleter returning, a stage no longer waits for room for the marker, so no
+ * stage thread is left blocked on a full queue.
+ *
+ */
+public class CPPurgePipeline {
+
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	public static final long CLOSE_POLL_MILLIS = 100;
+
+	// queued after the last item, the queues hold the items and this marker
+	private enum Marker {
+		END_OF_STREAM
+	}
+
+	public interface Sink {
+		void accept(PurgeItem item) throws InterruptedException;
+	}
+
+	public interface Lister {
+		void list(Sink sink) throws Exception;
+	}
+
+	public interface Evaluator {
+		boolean isDue(PurgeItem item);
+	}
+
+	public interface Deleter {
+		void delete(PurgeItem item) throws InterruptedException;
+	}
+
+	private final int queueSize;
+
+
+	public CPPurgePipeline(int queueSize) {
+		Validate.isTrue(queueSize > 0, "The pipeline queue size must be positive!");
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Runs the stages to completion.  The first stage failure stops the other stages and is rethrown.
+	 *
+	 * @param lister
+	 * @param evaluator
+	 * @param deleter
+	 * @throws InterruptedException
+	 */
+	public void run(Lister lister, Evaluator evaluator, Deleter deleter) throws InterruptedException {
+
+		Validate.notNull(lister, "The lister is null!");
+		Validate.notNull(evaluator, "The evaluator is null!");
+		Validate.notNull(deleter, "The deleter is null!");
+
+		BlockingQueue<Object> listedQueue = new ArrayBlockingQueue<Object>(queueSize);
+		BlockingQueue<Object> purgeQueue = new ArrayBlockingQueue<Object>(queueSize);
+		AtomicBoolean stopped = new AtomicBoolean(false);
+
+		ExecutorService stages = Executors.newFixedThreadPool(2, runnable -> {
+			Thread thread = new Thread(runnable, "purge-pipeline-stage");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			Future<?> listing = stages.submit(() -> {
+				try {
+					lister.list(item -> listedQueue.put(item));
+				}
+				finally {
+					close(listedQueue, stopped);
+				}
+				return null;
+			});
+
+			Future<?> evaluating = stages.submit(() -> {
+				try {
+					for (Object next = listedQueue.take(); next != Marker.END_OF_STREAM; next = listedQueue.take()) {
+						PurgeItem item = (PurgeItem) next;
+						if (evaluator.isDue(item)) {
+							purgeQueue.put(item);
+						}
+					}
+				}
+				finally {
+					close(purgeQueue, stopped);
+				}
+				return null;
+			});
+
+			for (Object next = purgeQueue.take(); next != Marker.END_OF_STREAM; next = purgeQueue.take()) {
+				deleter.delete((PurgeItem) next);
+			}
+
+			// the evaluator is checked first, a failed evaluator can leave the lister blocked on a full queue
+			await(evaluating);
+			await(listing);
+		}
+		finally {
+			stopped.set(true);
+			stages.shutdownNow();
+		}
+	}
+
+	/**
+	 * Queues the end of stream marker, waiting for room only while the run has not stopped.  A
+	 * stage interrupted by the shutdown gets here with its interrupt already consumed, so it
+	 * can't rely on the interrupt alone.
+	 *
+	 * @param queue
+	 * @param stopped
+	 * @throws InterruptedException
+	 */
+	private static void close(BlockingQueue<Object> queue, AtomicBoolean stopped) throws InterruptedException {
+
+		while (!stopped.get()) {
+			if (queue.offer(Marker.END_OF_STREAM, CLOSE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+	}
+
+	private static void await(Future<?> stage) throws InterruptedException {
+
+		try {
+			stage.get();
+		}
+		catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			if (cause instanceof InterruptedException) {
+				throw (InterruptedException) cause;
+			}
+			throw new CPRuntimeException("Purge pipeline stage failed: " + cause);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package com.cloudpacity.aws.purge.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Snapshot;
+import com.amazonaws.services.ec2.model.Tag;
+import com.cloudpacity.aws.common.entity.AWSImageEntity;
+import com.cloudpacity.aws.common.util.CPLogger;
+import com.cloudpacity.aws.purge.CPBackupPurgeEnv;
+import com.cloudpacity.aws.purge.pojo.PurgeItem;
+
+/**
+ *
+ * Copyright 2016 Cloudpacity
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The retention policy compiled once per run:  the tag names, the default retention days and
+ * "now" are resolved when the evaluator is built, the date formatters are shared.  Each item's
+ * tags are read in a single pass, and an item is due once the UTC day it was created plus its
+ * retention days is on or before the run's current UTC day.
+ *
+ * An AMI with an unparseable creation date or retention tag fails the evaluation, a snapshot
+ * with one is not purged.
+ *
+ */
+public class CPRetentionEvaluator implements CPPurgePipeline.Evaluator {
+
+	public static final DateTimeFormatter AMI_DATE_FORMATTER = DateTimeFormatter.ofPattern(AWSImageEntity.AMI_DATE_FORMAT);
+	public static final DateTimeFormatter TAG_DATE_FORMATTER = DateTimeFormatter.ofPattern(CPBackupPurgeEnv.DEFAULT_DATE_FORMAT);
+
+	private static final long SECONDS_PER_DAY = 86400;
+	private static final long MILLIS_PER_DAY = SECONDS_PER_DAY * 1000;
+
+	private final CPLogger logger;
+	private final String nameTag;
+	private final String retentionDaysTag;
+	private final String creationTimestampTag;
+	private final int defaultRetentionDays;
+	private final long nowEpochDay;
+	private final LocalDate today;
+
+	// values of the current item's tags, set by readTags()
+	private String name;
+	private String retentionDays;
+	private String creationTimestamp;
+
+
+	public CPRetentionEvaluator(CPBackupPurgeEnv backupPurgeEnv, CPLogger logger, Instant now) {
+
+		Validate.notNull(backupPurgeEnv, "The backup purge environment is null!");
+		Validate.notNull(logger, "The logger is null!");
+		Validate.notNull(now, "The current time is null!");
+
+		this.logger = logger;
+		this.nameTag = backupPurgeEnv.getNameTag();
+		this.retentionDaysTag = backupPurgeEnv.getBackupRetentionDaysTag();
+		this.creationTimestampTag = CPBackupPurgeEnv.DEFAULT_CREATION_TIMESTAMP_TAG;
+		this.defaultRetentionDays = CPBackupPurgeEnv.getDefaultRetentionDays();
+		this.nowEpochDay = Math.floorDiv(now.getEpochSecond(), SECONDS_PER_DAY);
+		this.today = LocalDate.ofEpochDay(nowEpochDay);
+	}
+
+	/**
+	 * Sets the item's name and purge day, called from the single evaluator thread.
+	 *
+	 * @param item
+	 * @return true if the item is due for purge
+	 */
+	public boolean isDue(PurgeItem item) {
+
+		if (item.getResourceType() == PurgeItem.ResourceType.IMAGE)
+			return isImageDue(item);
+		else
+			return isSnapshotDue(item);
+	}
+
+	public long getNowEpochDay() {
+		return nowEpochDay;
+	}
+
+	private boolean isImageDue(PurgeItem item) {
+
+		Image image = item.getImage();
+		readTags(image.getTags());
+		item.setName(name);
+
+		long createdEpochDay;
+
+		// if a creation timestamp tag is not found, get the creation time from the AMI's creation date
+		if (StringUtils.isEmpty(creationTimestamp)) {
+			try {
+				createdEpochDay = epochDay(AMI_DATE_FORMATTER.parse(image.getCreationDate(), Instant::from).getEpochSecond());
+			}
+			catch (DateTimeParseException pe) {
+				logger.log("Image: '" + name + "' id: '" + image.getImageId() + "' error parsing AMI creation date attribute '" + image.getCreationDate() + "'");
+				throw pe;
+			}
+		}
+		else {
+			createdEpochDay = parseCreationTimestamp(item);
+		}
+
+		item.setRetentionDays(parseRetentionDays(item));
+		item.setPurgeEpochDay(createdEpochDay + item.getRetentionDays());
+
+		logger.log("Image: '" + name + "' id: '" + image.getImageId() + "' is being evaluated.  Create date: '" + image.getCreationDate() +
+				"' Purge date: '" + item.getPurgeDate() + "' Current date: '" + today + "' " + System.getProperty("line.separator"));
+
+		return item.getPurgeEpochDay() <= nowEpochDay;
+	}
+
+	private boolean isSnapshotDue(PurgeItem item) {
+
+		Snapshot snapshot = item.getSnapshot();
+		readTags(snapshot.getTags());
+		item.setName(name);
+
+		try {
+			long createdEpochDay;
+
+			if (StringUtils.isEmpty(creationTimestamp))
+				createdEpochDay = Math.floorDiv(snapshot.getStartTime().getTime(), MILLIS_PER_DAY);
+			else
+				createdEpochDay = parseCreationTimestamp(item);
+
+			item.setRetentionDays(parseRetentionDays(item));
+			item.setPurgeEpochDay(createdEpochDay + item.getRetentionDays());
+		}
+		catch (DateTimeParseException | NumberFormatException e) {
+			return false;
+		}
+
+		logger.log("Snapshot: '" + name + "' id: '" + snapshot.getSnapshotId() + "' is being evaluated.  '" +
+				"' Purge date: '" + item.getPurgeDate() + "' Current date: '" + today + "' " + System.getProperty("line.separator"));
+
+		return item.getPurgeEpochDay() <= nowEpochDay;
+	}
+
+	/**
+	 * One pass over the tags picks up the name, retention days and creation timestamp tags,
+	 * matching keys case insensitively as getTagValueFromList() does.  The first match wins.
+	 */
+	private void readTags(List<Tag> tags) {
+
+		name = null;
+		retentionDays = null;
+		creationTimestamp = null;
+
+		for (int i = 0, size = tags.size(); i < size && (name == null || retentionDays == null || creationTimestamp == null); i++) {
+
+			Tag tag = tags.get(i);
+			String key = tag.getKey();
+
+			if (name == null && nameTag.equalsIgnoreCase(key))
+				name = tag.getValue();
+			else if (retentionDays == null && retentionDaysTag.equalsIgnoreCase(key))
+				retentionDays = tag.getValue();
+			else if (creationTimestamp == null && creationTimestampTag.equalsIgnoreCase(key))
+				creationTimestamp = tag.getValue();
+		}
+
+		if (name == null)
+			name = "";
+	}
+
+	private long parseCreationTimestamp(PurgeItem item) {
+		try {
+			return epochDay(TAG_DATE_FORMATTER.parse(creationTimestamp, ZonedDateTime::from).toEpochSecond());
+		}
+		catch (DateTimeParseException pe) {
+			logger.log(typeName(item) + ": '" + name + "' id: '" + item.getResourceId() + "' error parsing tag creation date '" + creationTimestamp + "'");
+			throw pe;
+		}
+	}
+
+	// use the tag for retention days if available, otherwise use the default
+	private int parseRetentionDays(PurgeItem item) {
+
+		if (StringUtils.isEmpty(retentionDays))
+			return defaultRetentionDays;
+
+		try {
+			return Integer.parseInt(retentionDays);
+		}
+		catch (NumberFormatException nfe) {
+			logger.log(typeName(item) + ": '" + name + "' id: '" + item.getResourceId() + "' has an invalid tag '" + retentionDaysTag + "'");
+			throw nfe;
+		}
+	}
+
+	private static long epochDay(long epochSecond) {
+		return Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+	}
+
+	private static String typeName(PurgeItem item) {
+		return (item.getResourceType() == PurgeItem.ResourceType.IMAGE) ? "Image" : "Snapshot";
+	}
+}